@@ -0,0 +1,94 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.nuclearparsley.core.Atom;
+import net.sf.nuclearparsley.core.AtomQuery;
+import net.sf.nuclearparsley.core.Fixture;
+import net.sf.nuclearparsley.core.RootAtom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up an {@link Atom} by path, in a parsed tree as done by {@link AtomList#resolveAtom(Atom, String...)},
+ * with a precompiled {@link AtomQuery}, and directly in the file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+
+	@Param({"SMALL", "DEEP", "HUGE", "TRACKS", "FRAGMENTED"})
+	public Fixture fixture;
+
+	private File directory;
+	private RootAtom root;
+	private AtomQuery query;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("nuclearparsley").toFile();
+		root = new RootAtom(fixture.create(directory));
+		query = AtomQuery.compile(String.join(".", fixture.path));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		root.close();
+		root.file.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public Atom resolve() {
+		return AtomList.resolveAtom(root, fixture.path);
+	}
+
+	@Benchmark
+	public Atom query() {
+		return query.first(root);
+	}
+
+	@Benchmark
+	public List<Atom> queryFile() throws IOException {
+		try (AtomQuery.Selection selection = query.select(root.file)) {
+			return selection.get();
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Files used by the benchmarks, which are written to a temporary directory before a benchmark runs.
+ * Most are generated by the {@link SyntheticFile} from the tests of the core module.
+ */
+public enum Fixture {
+
+	/** A typical small file: <code>ftyp</code>, a <code>moov</code> with a title and a small <code>mdat</code> */
+	SMALL("moov", "udta", "meta", "ilst", "\u00A9nam", "data") {
+		@Override
+		void write(File file) throws IOException {
+			try (FileOutputStream output = new FileOutputStream(file)) {
+				output.write(atom("ftyp", "M4A \0\0\0\0".getBytes(StandardCharsets.ISO_8859_1)));
+				final byte[] data = atom("data", new byte[]{0,0,0,1,0,0,0,0}, "Title".getBytes(StandardCharsets.ISO_8859_1));
+				final byte[] hdlr = atom("hdlr", new byte[4], "mdirappl".getBytes(StandardCharsets.ISO_8859_1), new byte[13]);
+				output.write(atom("moov", atom("udta", atom("meta", new byte[4], hdlr, atom("ilst", atom("\u00A9nam", data))))));
+				output.write(atom("mdat", new byte[0x400]));
+			}
+		}
+	},
+	/** Containers nested {@value #DEPTH} levels deep */
+	DEEP(deepPath()) {
+		@Override
+		void write(File file) throws IOException {
+			new SyntheticFile().samples(0).depth(DEPTH).fanOut(1).write(file);
+		}
+	},
+	/**
+	 * A <code>udta</code> with {@value #FAN_OUT} children,
+	 * followed by a sparse <code>mdat</code> of {@value #HUGE_MDAT} bytes with a 64 bit size
+	 */
+	HUGE("moov", "udta", "free["+(Fixture.FAN_OUT-1)+"]") {
+		@Override
+		void write(File file) throws IOException {
+			new SyntheticFile().samples(0).depth(1).fanOut(FAN_OUT).largeSizes(true).padding(HUGE_MDAT).write(file);
+		}
+	},
+	/** Two tracks of {@value #SAMPLES} samples each, with <code>moov</code> after <code>mdat</code> */
+	TRACKS("moov", "trak[1]", "mdia", "minf", "stbl", "stsz") {
+		@Override
+		void write(File file) throws IOException {
+			new SyntheticFile().tracks(2).samples(SAMPLES).metadata(20).moovFirst(false).write(file);
+		}
+	},
+	/** Two tracks of {@value #SAMPLES} samples each in {@value #FRAGMENTS} fragments */
+	FRAGMENTED("moof["+(Fixture.FRAGMENTS-1)+"]", "traf[1]", "trun") {
+		@Override
+		void write(File file) throws IOException {
+			new SyntheticFile().tracks(2).samples(SAMPLES).fragments(FRAGMENTS).randomAccess(true).write(file);
+		}
+	};
+
+	/** Nesting depth of {@link #DEEP} */
+	public static final int DEPTH = 64;
+	/** Amount of children of <code>moov</code> in {@link #HUGE} */
+	public static final int FAN_OUT = 10000;
+	/** Size of the <code>mdat</code> in {@link #HUGE}, which is not actually written */
+	public static final long HUGE_MDAT = 0x140000000L;
+	/** Amount of samples per track in {@link #TRACKS} and {@link #FRAGMENTED} */
+	public static final int SAMPLES = 100000;
+	/** Amount of fragments in {@link #FRAGMENTED} */
+	public static final int FRAGMENTS = 400;
+
+	/** The path to an {@link Atom} deep in the file, as accepted by <code>AtomList</code> */
+	public final String[] path;
+
+	/**
+	 * @param path	The path to an {@link Atom} deep in the file
+	 */
+	private Fixture(String... path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return	The path to the deepest {@link Atom} of {@link #DEEP}
+	 */
+	private static String[] deepPath() {
+		final String[] result = new String[DEPTH+2];
+		result[0] = "moov";
+		for(int i=1;i<=DEPTH;i++)
+			result[i] = "udta";
+		result[DEPTH+1] = "free";
+		return result;
+	}
+
+	/**
+	 * Write the fixture to a new file
+	 * @param directory	The directory to create the file in
+	 * @return	The file
+	 * @throws IOException	Writing the file failed
+	 */
+	public File create(File directory) throws IOException {
+		final File result = File.createTempFile(name().toLowerCase(), ".mp4", directory);
+		result.deleteOnExit();
+		write(result);
+		return result;
+	}
+
+	/**
+	 * Write the atoms of the fixture
+	 * @param file	The file
+	 * @throws IOException	Writing the file failed
+	 */
+	abstract void write(File file) throws IOException;
+
+	/**
+	 * Build an atom
+	 * @param name	The name of the atom
+	 * @param parts	The payload
+	 * @return	The atom
+	 */
+	static byte[] atom(String name, byte[]... parts) {
+		int length = 8;
+		for(byte[] part : parts)
+			length += part.length;
+		final ByteBuffer result = ByteBuffer.allocate(length).putInt(length).put(name.getBytes(StandardCharsets.ISO_8859_1));
+		for(byte[] part : parts)
+			result.put(part);
+		return result.array();
+	}
+
+	/**
+	 * Write a file consisting of a single <code>mdat</code> atom
+	 * @param directory	The directory to create the file in
+	 * @param size	The size of the payload
+	 * @return	The file
+	 * @throws IOException	Writing the file failed
+	 */
+	public static File mdat(File directory, int size) throws IOException {
+		final File result = File.createTempFile("mdat", ".mp4", directory);
+		result.deleteOnExit();
+		final byte[] payload = new byte[size];
+		for(int i=0;i<size;i++)
+			payload[i] = (byte) i;
+		try (FileOutputStream output = new FileOutputStream(result)) {
+			output.write(atom("mdat", payload));
+		}
+		return result;
+	}
+
+}
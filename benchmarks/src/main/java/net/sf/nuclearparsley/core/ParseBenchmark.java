@@ -0,0 +1,91 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a whole file into a tree of {@link Atom}s.
+ * In {@link ParseMode#LAZY} mode the tree is walked, so every {@link Atom} is created in every mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	@Param({"SMALL", "DEEP", "HUGE", "TRACKS", "FRAGMENTED"})
+	public Fixture fixture;
+
+	@Param({"EAGER", "LAZY", "PARALLEL"})
+	public ParseMode mode;
+
+	private File directory;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("nuclearparsley").toFile();
+		file = fixture.create(directory);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public int parse() throws IOException {
+		try (RootAtom root = new RootAtom(file, mode)) {
+			return count(root);
+		}
+	}
+
+	/**
+	 * Count the {@link Atom}s in a tree, creating them in {@link ParseMode#LAZY} mode
+	 * @param atom	The root of the tree
+	 * @return	The amount of {@link Atom}s
+	 */
+	private static int count(Atom atom) {
+		int result = 1;
+		if (atom instanceof ParentAtom)
+			for(Atom child : (ParentAtom) atom)
+				result += count(child);
+		return result;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.nuclearparsley.util.LimitedInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the payload of an {@link Atom}, as array, as buffer and as stream.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+	/** Size of the reads from streams */
+	private static final int READ_SIZE = 0x2000;
+
+	@Param({"1024", "1048576", "67108864"})
+	public int size;
+
+	private File directory;
+	private RootAtom root;
+	private Atom mdat;
+	private final byte[] buffer = new byte[READ_SIZE];
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("nuclearparsley").toFile();
+		root = new RootAtom(Fixture.mdat(directory, size));
+		mdat = root.get(0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		root.close();
+		root.file.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public byte[] payload() throws IOException {
+		return mdat.getPayload();
+	}
+
+	@Benchmark
+	public ByteBuffer payloadBuffer() throws IOException {
+		return mdat.getPayloadBuffer();
+	}
+
+	@Benchmark
+	public long payloadStream() throws IOException {
+		try (InputStream input = mdat.getPayloadStream()) {
+			return drain(input);
+		}
+	}
+
+	@Benchmark
+	@SuppressWarnings("deprecation")
+	public long limitedStream() throws IOException {
+		try (InputStream input = new LimitedInputStream(new FileInputStream(mdat.file), mdat.start+mdat.offset, mdat.length-mdat.offset)) {
+			return drain(input);
+		}
+	}
+
+	/**
+	 * Read a stream to the end
+	 * @param input	The stream
+	 * @return	The amount of bytes read
+	 * @throws IOException	Reading failed
+	 */
+	private long drain(InputStream input) throws IOException {
+		long result = 0;
+		for(int read=input.read(buffer);read >= 0;read=input.read(buffer))
+			result += read;
+		return result;
+	}
+
+}
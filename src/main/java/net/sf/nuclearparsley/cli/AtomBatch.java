@@ -0,0 +1,296 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.sf.nuclearparsley.core.Atom;
+import net.sf.nuclearparsley.core.AtomProbe;
+import net.sf.nuclearparsley.core.AtomQuery;
+import net.sf.nuclearparsley.core.ParseCache;
+import net.sf.nuclearparsley.core.ParseMode;
+import net.sf.nuclearparsley.core.RootAtom;
+
+/**
+ * Program which will show the Atoms of many files,
+ * found by walking directory trees or read from standard input.
+ * Files are parsed concurrently, and the output of each file is printed as soon as it is complete.
+ */
+public class AtomBatch {
+
+	public static final String USAGE =
+			"Usage: AtomBatch [ -d|-D ] [ -s bytes ] [ -t|-T ] [ -v|-V ] [ -x|-X ] [ -j concurrency ] [ -p atom path ] "
+			+ "[ -c cache directory ] [ -- ] "
+			+ "( directory | filename | - ) ...";
+
+	/** Maximum size of the parse cache in bytes */
+	public static final long CACHE_SIZE = 1L << 30;
+
+	/** Formats the Atoms of each file */
+	public final AtomList printer = new AtomList();
+	public int concurrency = 64; // -j
+	public AtomQuery query = null; // -p
+	public ParseCache cache = null; // -c
+
+	/** Amount of files parsed successfully */
+	protected final LongAdder parsed = new LongAdder();
+	/** Amount of files which could not be parsed */
+	protected final LongAdder failed = new LongAdder();
+	/** Total size of the files parsed successfully */
+	protected final LongAdder bytes = new LongAdder();
+
+	/** Runs the parse jobs */
+	private ExecutorService executor;
+	/** Limits the amount of files parsed at the same time */
+	private Semaphore permits;
+
+	/**
+	 * Run the program using input files and directories.
+	 * Use <code>-</code> to read file names from standard input, one per line.
+	 * @param args	Should contain the files and directories being read.
+	 */
+	public static void main(String... args) {
+		AtomBatch cli = new AtomBatch();
+		List<String> inputs = new ArrayList<String>();
+		boolean forceFile = false;
+		for(int i=0;i<args.length;i++) {
+			if (!forceFile && args[i].length() > 1 && args[i].charAt(0) == '-') {
+				if (args[i].length() != 2) {
+					System.err.println("Invalid flag: "+args[i]);
+					System.err.println(USAGE);
+					System.exit(3);
+				}
+				switch(args[i].charAt(1)) {
+				case 'j':i++;cli.concurrency = Integer.parseInt(args[i]);break;
+				case 'p':i++;cli.query = compile(args[i]);break;
+				case 'c':i++;cli.cache = openCache(args[i]);break;
+				case '-':forceFile = true;break;
+				default :i = Math.max(i, cli.printer.applyFlag(args, i));
+				}
+			} else {
+				inputs.add(args[i]);
+			}
+		}
+		if (inputs.isEmpty() || cli.concurrency < 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		try {
+			cli.run(inputs);
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+		System.exit(cli.failed.sum() == 0 ? 0 : 2);
+	}
+
+	/**
+	 * Compile an atom path, or exit if it is invalid
+	 * @param path	The atom path
+	 * @return	The compiled path
+	 */
+	private static AtomQuery compile(String path) {
+		try {
+			return AtomQuery.compile(path);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(3);
+			return null;
+		}
+	}
+
+	/**
+	 * Open a parse cache, or exit if that is not possible
+	 * @param directory	The cache directory
+	 * @return	The cache
+	 */
+	private static ParseCache openCache(String directory) {
+		try {
+			return new ParseCache(new File(directory), CACHE_SIZE);
+		} catch (IOException e) {
+			System.err.println("Unable to use cache directory "+directory+": "+e.getMessage());
+			System.exit(3);
+			return null;
+		}
+	}
+
+	/**
+	 * Parse all files in the inputs, and print statistics to standard error when done
+	 * @param inputs	Files and directories, or <code>-</code> for standard input
+	 * @throws IOException	Reading standard input failed
+	 * @throws InterruptedException	Interrupted while waiting for the files to be parsed
+	 */
+	public void run(List<String> inputs) throws IOException, InterruptedException {
+		final long begin = System.nanoTime();
+		executor = newExecutor(concurrency);
+		permits = new Semaphore(concurrency);
+		try {
+			for(String input : inputs) {
+				if ("-".equals(input))
+					readList();
+				else
+					walk(new File(input).toPath());
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		final double seconds = (System.nanoTime()-begin) / 1e9;
+		System.err.println(String.format(
+				"%d files parsed, %d failed, %.1f MiB in %.3f s (%.1f files/s, %.1f MiB/s)",
+				parsed.sum(), failed.sum(), bytes.sum() / 1048576.0, seconds,
+				(parsed.sum()+failed.sum()) / seconds, bytes.sum() / 1048576.0 / seconds
+			));
+	}
+
+	/**
+	 * Create the executor for the parse jobs.
+	 * Virtual threads are used when the Java runtime supports them,
+	 * otherwise a pool of concurrency platform threads.
+	 * @param concurrency	the maximum amount of files parsed at the same time
+	 * @return	the executor
+	 */
+	protected static ExecutorService newExecutor(int concurrency) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(concurrency);
+		}
+	}
+
+	/**
+	 * Parse all files listed on standard input
+	 * @throws IOException	Reading standard input failed
+	 * @throws InterruptedException	Interrupted while waiting for a free parse job
+	 */
+	protected void readList() throws IOException, InterruptedException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while((line = reader.readLine()) != null)
+			if (!line.isEmpty())
+				submit(new File(line));
+	}
+
+	/**
+	 * Parse all regular files in a directory tree
+	 * @param root	The directory or file to parse
+	 * @throws IOException	Walking the tree failed
+	 * @throws InterruptedException	Interrupted while waiting for a free parse job
+	 */
+	protected void walk(Path root) throws IOException, InterruptedException {
+		try {
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (attrs.isRegularFile()) {
+						try {
+							submit(file.toFile());
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					failed.increment();
+					System.err.println("Unable to read file "+file+": "+e.getMessage());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			if (e.getCause() instanceof InterruptedException)
+				throw (InterruptedException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Parse a file as soon as a parse job is available
+	 * @param file	The file to parse
+	 * @throws InterruptedException	Interrupted while waiting for a free parse job
+	 */
+	protected void submit(final File file) throws InterruptedException {
+		permits.acquire();
+		executor.execute(() -> {
+			try {
+				process(file);
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * Parse a file and print its Atoms, or only probe its top level Atoms when probing
+	 * @param file	The file to parse
+	 */
+	protected void process(File file) {
+		final StringBuilder out = new StringBuilder();
+		out.append("File ").append(file).append('\n');
+		if (printer.probe) {
+			try {
+				out.append(printer.probeToString(AtomProbe.probe(file)));
+				bytes.add(file.length());
+				parsed.increment();
+			} catch (IOException e) {
+				failed.increment();
+				System.err.println("Unable to read file "+file+": "+e.getMessage());
+				return;
+			}
+			System.out.print(out);
+			return;
+		}
+		try (RootAtom root = cache == null ? Atom.fromFile(file, ParseMode.LAZY) : cache.get(file)) {
+			if (query == null)
+				out.append(printer.atomToString(root));
+			else {
+				final List<Atom> atoms = query.select(root);
+				if (atoms.isEmpty())
+					out.append("\tAtom path not found\n");
+				for(Atom atom : atoms)
+					out.append(printer.atomToString(atom));
+			}
+			bytes.add(file.length());
+			parsed.increment();
+		} catch (IOException | RuntimeException e) {
+			failed.increment();
+			System.err.println("Unable to read file "+file+": "+e.getMessage());
+			return;
+		}
+		System.out.print(out);
+	}
+
+}
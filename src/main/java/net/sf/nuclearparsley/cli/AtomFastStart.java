@@ -0,0 +1,95 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.cli;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.sf.nuclearparsley.core.Atom;
+import net.sf.nuclearparsley.core.AtomException;
+import net.sf.nuclearparsley.core.AtomWriter;
+import net.sf.nuclearparsley.core.ParseMode;
+import net.sf.nuclearparsley.core.RootAtom;
+
+/**
+ * Program which moves the moov atom of a file before its media data,
+ * so the file can be played while it is being downloaded
+ */
+public class AtomFastStart {
+
+	public static final String USAGE =
+			"Usage: AtomFastStart [ -f ] [ -p bytes ] [ -- ] input output";
+
+	/**
+	 * Run the program using an input and an output file.
+	 * Nothing is written if the input file already starts with its moov atom, unless -f is given.
+	 * @param args	Should contain the input and output file.
+	 */
+	public static void main(String... args) {
+		File input = null;
+		File output = null;
+		long padding = 0;
+		boolean force = false;
+		boolean forceFile = false;
+		for(int i=0;i<args.length;i++) {
+			if (!forceFile && args[i].charAt(0) == '-') {
+				if (args[i].length() != 2) {
+					System.err.println("Invalid flag: "+args[i]);
+					System.err.println(USAGE);
+					System.exit(3);
+				}
+				switch(args[i].charAt(1)) {
+				case '-':forceFile = true;break;
+				case 'f':force = true;break;
+				case 'p':i++;padding = Long.parseLong(args[i]);break;
+				default:
+					System.err.println("Invalid flag: "+args[i]);
+					System.err.println(USAGE);
+					System.exit(3);
+				}
+			} else if (input == null) {
+				input = new File(args[i]);
+			} else if (output == null) {
+				output = new File(args[i]);
+			} else {
+				System.err.println("Only one input and one output file can be specified");
+				System.err.println(USAGE);
+				System.exit(3);
+			}
+		}
+		if (output == null) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		try (RootAtom root = Atom.fromFile(input, ParseMode.LAZY)) {
+			if (!force && AtomWriter.isFastStart(root)) {
+				System.err.println(input+" already starts with its moov atom");
+				return;
+			}
+			AtomWriter.fastStart(root, output, padding);
+		} catch (AtomException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.err.println("Unable to convert file "+input);
+			System.exit(2);
+		}
+	}
+
+}
@@ -19,9 +19,11 @@ package net.sf.nuclearparsley.cli;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.List;
 
 import net.sf.nuclearparsley.core.Atom;
+import net.sf.nuclearparsley.core.AtomProbe;
+import net.sf.nuclearparsley.core.AtomQuery;
 import net.sf.nuclearparsley.core.ParentAtom;
 import net.sf.nuclearparsley.util.HexFormat;
 
@@ -31,10 +33,11 @@ import net.sf.nuclearparsley.util.HexFormat;
 public class AtomList {
 
 	public static final String USAGE =
-			"Usage: AtomList [ -d|-D ] [ -s bytes ] [ -v|-V ] [ -x|-X ] [ -- ] filename [ atom path ]";
+			"Usage: AtomList [ -d|-D ] [ -s bytes ] [ -t|-T ] [ -v|-V ] [ -x|-X ] [ -- ] filename [ atom path ]";
 	
 	public boolean printAddress = true; // -d
 	public long maxHumanSize = 255; // -s
+	public boolean probe = false; // -T, only the top level headers
 	public boolean printStringValue = true; // -v
 	public boolean printHex = false; // -x
 
@@ -46,7 +49,7 @@ public class AtomList {
 	public static void main(String... args) {
 		AtomList cli = new AtomList();
 		File file = null;
-		String[] atomPath = new String[0];
+		String atomPath = null;
 		boolean forceFile = false;
 		for(int i=0;i<args.length;i++) {
 			if (!forceFile && args[i].charAt(0) == '-') {
@@ -55,20 +58,14 @@ public class AtomList {
 					System.err.println(USAGE);
 					System.exit(3);
 				}
-				switch(args[i].charAt(1)) {
-				case 'd':cli.printAddress = false;break;
-				case 'D':cli.printAddress = true;break;
-				case 'v':cli.printStringValue = false;break;
-				case 'V':cli.printStringValue = true;break;
-				case 'x':cli.printHex = false;break;
-				case 'X':cli.printHex = true;break;
-				case 's':i++;cli.maxHumanSize = Integer.parseInt(args[i]);break;
-				case '-':forceFile = true;
-				}
+				if (args[i].charAt(1) == '-')
+					forceFile = true;
+				else
+					i = Math.max(i, cli.applyFlag(args, i));
 			} else if (file == null) {
 				file = new File(args[i]);
-			} else if (atomPath.length == 0) {
-				atomPath = args[i].split("\\.");
+			} else if (atomPath == null) {
+				atomPath = args[i];
 			} else {
 				System.err.println("Only one file can be specified");
 				System.err.println(USAGE);
@@ -79,54 +76,69 @@ public class AtomList {
 			System.err.println(USAGE);
 			System.exit(1);
 		}
-		Atom atom = null;
+		if (cli.probe) {
+			try {
+				System.out.print(cli.probeToString(AtomProbe.probe(file)));
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.err.println("Unable to read file "+file);
+				System.exit(2);
+			}
+			return;
+		}
+		AtomQuery query = null;
 		try {
-			atom = Atom.fromFile(file);
+			query = AtomQuery.compile(atomPath == null ? "" : atomPath);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(3);
+		}
+		try (AtomQuery.Selection selection = query.select(file)) {
+			final List<Atom> atoms = selection.get();
+			if (atoms.isEmpty()) {
+				System.err.println("Atom path not found");
+				System.exit(4);
+			}
+			for(Atom atom : atoms)
+				System.out.println(cli.atomToString(atom));
 		} catch (IOException e) {
 			e.printStackTrace();
-			System.err.println("Unable to read file "+args[0]);
+			System.err.println("Unable to read file "+file);
 			System.exit(2);
 		}
-		
-		atom = resolveAtom(atom, atomPath);
-		System.out.println(cli.atomToString(atom));
 	}
 	
+	/**
+	 * Apply a flag which changes how atoms are printed
+	 * @param args	The command line arguments
+	 * @param i	The index of the flag in args
+	 * @return	The index of the last argument used by the flag,
+	 * 		or -1 if the flag does not change how atoms are printed
+	 */
+	protected int applyFlag(String[] args, int i) {
+		switch(args[i].charAt(1)) {
+		case 'd':printAddress = false;return i;
+		case 'D':printAddress = true;return i;
+		case 'v':printStringValue = false;return i;
+		case 'V':printStringValue = true;return i;
+		case 'x':printHex = false;return i;
+		case 'X':printHex = true;return i;
+		case 't':probe = false;return i;
+		case 'T':probe = true;return i;
+		case 's':maxHumanSize = Integer.parseInt(args[i+1]);return i+1;
+		default :return -1;
+		}
+	}
+
 	/**
 	 * Find the atom indicated by the path in the atom tree
 	 * @param atom	The root atom
-	 * @param path	The path to the desired atom
-	 * @return	The desired atom
+	 * @param path	The steps of the path to the desired atom, see {@link AtomQuery}
+	 * @return	The first atom matching the path, <code>null</code> if there is none
 	 */
 	protected static Atom resolveAtom(Atom atom, String... path) {
-		if (path.length == 0)
-			return atom;
-		if (!(atom instanceof ParentAtom))
-			return null;
-		if (path[0].length() < 4)
-			throw new IllegalArgumentException("An atom name consists of four bytes");
-		String name = path[0];
-		int index = 0;
-		if (path[0].length() > 4) 
-			if (path[0].charAt(4) == '[' && path[0].charAt(path[0].length()-1) == ']') {
-			name = path[0].substring(0, 4);
-			index = Integer.parseInt(path[0].substring(5, path[0].length()-1));
-			} else
-				throw new IllegalArgumentException("An atom name consists of four bytes");
-		for(Atom child : (ParentAtom)atom) {
-			if (name.equals(child.name))
-				if (index == 0)
-					if (path.length == 1)
-						return child;
-					else
-						return resolveAtom(child, 
-								Arrays.asList(path)
-								.subList(1, path.length)
-								.toArray(new String[0]));
-				else
-					index--;
-		}
-		return null;
+		return AtomQuery.compile(String.join(".", path)).first(atom);
 	}
 
 	/**
@@ -145,6 +157,33 @@ public class AtomList {
 		return sb.toString();
 	}
 
+	/**
+	 * Convert the summary of a file to a string
+	 * @param probe	The summary, see {@link AtomProbe}
+	 * @return	The brands, the layout and the top level atoms
+	 */
+	public String probeToString(AtomProbe probe) {
+		StringBuilder sb = new StringBuilder();
+		if (probe.majorBrand != null)
+			sb.append("Brand "+probe.majorBrand+
+					", version "+probe.minorVersion+
+					", compatible: "+String.join(" ", probe.compatibleBrands)+"\n");
+		sb.append(!probe.hasMoov() ? "No moov" : probe.isMoovFirst() ? "moov before mdat" : "moov after mdat");
+		sb.append(probe.isFragmented() ? ", fragmented\n" : ", not fragmented\n");
+		for(int i=0;i<probe.getAtomCount();i++) {
+			sb.append("Atom "+probe.getName(i));
+			if (printAddress)
+				sb.append(" @ "+probe.getStart(i)+
+						" of size: "+probe.getLength(i)+
+						", ends @ "+(probe.getStart(i)+probe.getLength(i))
+					);
+			sb.append("\n");
+		}
+		if (probe.getError() != null)
+			sb.append("Invalid: "+probe.getError()+"\n");
+		return sb.toString();
+	}
+
 	/**
 	 * Print an atom
 	 * @param atom	The atom to print
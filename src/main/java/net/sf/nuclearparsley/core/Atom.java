@@ -17,12 +17,15 @@
  */
 package net.sf.nuclearparsley.core;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-import net.sf.nuclearparsley.util.LimitedInputStream;
+import net.sf.nuclearparsley.util.RangeInputStream;
 
 /**
  * Atom in a media file.
@@ -39,40 +42,75 @@ public class Atom implements Cloneable {
 	public static RootAtom fromFile(File file) throws IOException {
 		return new RootAtom(file);
 	}
+
+	/**
+	 * Instantiate an {@link Atom} from a {@link File}
+	 * @param file	The {@link File} to instantiate the {@link Atom} from
+	 * @param mode	When the children of {@link ParentAtom}s are parsed
+	 * @return	The {@link RootAtom} in file
+	 * @throws IOException	If reading the {@link File} fails for some reason.
+	 */
+	public static RootAtom fromFile(File file, ParseMode mode) throws IOException {
+		return new RootAtom(file, mode);
+	}
 	
 	/**
 	 * Read an atom from a file. 
+	 * The type of the {@link Atom} is looked up in the {@link AtomRegistry};
+	 * unknown names are tried as {@link ParentAtom} first.
 	 * 
 	 * @param name	4 bytes name of the Atom
-	 * @param file	File containing the Atom
+	 * @param source	Shared datasource containing the Atom
+	 * @param pointer	Starting pointer of the original (unmodified) Atom
+	 * @param len	Length of the original (unmodified) Atom
+	 * @param offset	Location of the payload data relative to the start
+	 * @return	Atom object matching the input data as specific as possible
+	 * @throws IOException
+	 */
+	protected static Atom instantiate(String name, AtomSource source, long pointer, long len, int offset)
+			throws IOException {
+		return instantiate(FourCC.pack(name), source, pointer, len, offset);
+	}
+
+	/**
+	 * Read an atom from a file. 
+	 * The type of the {@link Atom} is looked up in the {@link AtomRegistry};
+	 * unknown names are tried as {@link ParentAtom} first.
+	 * 
+	 * @param type	Name of the Atom, packed as {@link FourCC}
+	 * @param source	Shared datasource containing the Atom
 	 * @param pointer	Starting pointer of the original (unmodified) Atom
 	 * @param len	Length of the original (unmodified) Atom
 	 * @param offset	Location of the payload data relative to the start
 	 * @return	Atom object matching the input data as specific as possible
 	 * @throws IOException
 	 */
-	protected static Atom instantiate(String name, File file, long pointer, long len, int offset)
+	protected static Atom instantiate(int type, AtomSource source, long pointer, long len, int offset)
 			throws IOException {
+		final AtomFactory factory = AtomRegistry.get(type);
+		final String name = FourCC.toString(type);
+		Atom result;
+		boolean fallback = false;
 		try {
-			switch(name) {
-			case(AVC1Atom.NAME):return new AVC1Atom(file, pointer, len, offset);
-			case(DataAtom.NAME):return new DataAtom(file, pointer, len, offset);
-			case(DRefAtom.NAME):return new DRefAtom(file, pointer, len, offset);
-			case(FTabAtom.NAME):return new FTabAtom(file, pointer, len, offset);
-			case(MeanAtom.NAME):return new MeanAtom(file, pointer, len, offset);
-			case(MetaAtom.NAME):return new MetaAtom(file, pointer, len, offset);
-			case(MP4AAtom.NAME):return new MP4AAtom(file, pointer, len, offset);
-			case(NameAtom.NAME):return new NameAtom(file, pointer, len, offset);
-			case(STSDAtom.NAME):return new STSDAtom(file, pointer, len, offset);
-			case(TX3GAtom.NAME):return new TX3GAtom(file, pointer, len, offset);
-			default     :return new ParentAtom(name, file, pointer, len, offset);
-			}
+			if (factory != null)
+				result = factory.create(name, source, pointer, len, offset);
+			else
+				result = new ParentAtom(name, source, pointer, len, offset);
 		} catch (AtomException e) {
-			return new Atom(name, file, pointer, len, offset, e);
+			result = new Atom(name, source, pointer, len, offset, e);
+			fallback = true;
 		}
+		if (source.metrics != null)
+			source.metrics.atomCreated(type, fallback);
+		return result;
 	}
 	
-	/** The datasource */
+	/** Minimum size of a payload buffer to be memory mapped instead of read */
+	public static final int MAP_THRESHOLD = 0x100000;
+
+	/** The shared datasource */
+	public final AtomSource source;
+	/** The file backing {@link #source} */
 	public final File file;
 	/** Starting pointer of the original (unmodified) Atom */
 	public final long start;
@@ -82,65 +120,85 @@ public class Atom implements Cloneable {
 	public final int offset;
 	/** Name of the original (unmodified) Atom */
 	public final String name;
+	/** Name of the original (unmodified) Atom, packed as {@link FourCC}; 0 for the root */
+	public final int type;
 	/** The reason why a more specific {@link Atom} could not be used */
 	public final Exception error;
 
 	/**
 	 * Construct a new generic Atom
 	 * @param name	4-character name of the {@link Atom}
-	 * @param file	Datasource
+	 * @param source	Datasource
 	 * @param start	Starting pointer of this {@link Atom} in the Datasource
 	 * @param length	Length of this {@link Atom} in bytes
 	 * @param offset	The starting point of the atom payload from the start of the atom
 	 */
-	protected Atom(String name, File file, long start, long length, int offset) {
-		this(name, file, start, length, offset, null);
+	protected Atom(String name, AtomSource source, long start, long length, int offset) {
+		this(name, source, start, length, offset, null);
 	}
 	
 	/**
 	 * 
 	 * @param name	4-character name of the {@link Atom}
-	 * @param file	Datasource
+	 * @param source	Datasource
 	 * @param start	Starting pointer of this {@link Atom} in the Datasource
 	 * @param length	Length of this {@link Atom} in bytes
 	 * @param offset	The starting point of this atom in the file
 	 * @param error	The reason the more specific {@link Atom} could not be used
 	 */
-	protected Atom(String name, File file, long start, long length, int offset,
+	protected Atom(String name, AtomSource source, long start, long length, int offset,
 			Exception error) {
 		assert name == null || name.length() == 4;
 		this.name = name;
-		this.file = file;
+		this.type = FourCC.pack(name);
+		this.source = source;
+		this.file = source == null ? null : source.file;
 		this.start = start;
 		this.length = length;
 		this.offset = offset;
 		this.error = error;
 	}
 	
+	/**
+	 * Read a byte from a stream
+	 * @param stream	the stream
+	 * @return	the byte, unsigned
+	 * @throws EOFException	the end of the stream was reached
+	 * @throws IOException	reading the stream failed
+	 */
+	private static int readByte(InputStream stream) throws IOException {
+		final int result = stream.read();
+		if (result < 0)
+			throw new EOFException();
+		return result;
+	}
+
+	/** @deprecated	Use {@link AtomReader#readUnsignedWord()} */
+	@Deprecated
 	protected static int readUnsignedWord(InputStream stream) throws IOException {
-		byte[] word = new byte[2];
-		stream.read(word);
-		return 0xFFFF & ((int)word[0]) << 8 | word[1];
+		return readByte(stream) << 8 | readByte(stream);
 	}
 
+	/** @deprecated	Use {@link AtomReader#readSignedWord()} */
+	@Deprecated
 	protected static int readSignedWord(InputStream stream) throws IOException {
-		byte[] word = new byte[2];
-		stream.read(word);
-		return ((int)word[0]) << 8 | word[1];
+		return (short) readUnsignedWord(stream);
 	}
 
+	/** @deprecated	Use {@link AtomReader#readUnsignedInteger()} */
+	@Deprecated
 	protected static long readUnsignedInteger(InputStream stream) throws IOException {
-		byte[] integer = new byte[4];
-		stream.read(integer);
-		return 0xFFFFFFFFL & (integer[0] << 24 | integer[1] << 16 | integer[2] << 8 | integer[3]);
+		return readSignedInteger(stream) & 0xFFFFFFFFL;
 	}
 
+	/** @deprecated	Use {@link AtomReader#readSignedInteger()} */
+	@Deprecated
 	protected static int readSignedInteger(InputStream stream) throws IOException {
-		byte[] integer = new byte[4];
-		stream.read(integer);
-		return integer[0] << 24 | integer[1] << 16 | integer[2] << 8 | integer[3];
+		return readByte(stream) << 24 | readByte(stream) << 16 | readByte(stream) << 8 | readByte(stream);
 	}
 
+	/** @deprecated	Use {@link AtomReader#readUnsignedLong()} */
+	@Deprecated
 	protected static long readUnsignedLong(InputStream stream) 
 			throws IOException, ArithmeticException {
 		long l0ng = readSignedLong(stream);
@@ -149,11 +207,20 @@ public class Atom implements Cloneable {
 		return l0ng;
 	}
 
+	/** @deprecated	Use {@link AtomReader#readSignedLong()} */
+	@Deprecated
 	protected static long readSignedLong(InputStream stream) throws IOException {
-		byte[] l0ng = new byte[8];
-		stream.read(l0ng);
-		return ((long)l0ng[0]) << 56 | ((long)l0ng[1]) << 48 | ((long)l0ng[2]) << 40 | ((long)l0ng[3]) << 32
-		     | ((long)l0ng[4]) << 24 | ((long)l0ng[5]) << 16 | ((long)l0ng[6]) <<  8 | ((long)l0ng[7]);
+		return ((long) readSignedInteger(stream)) << 32 | readUnsignedInteger(stream);
+	}
+
+	/**
+	 * Get a reader for the payload of this {@link Atom}
+	 * @return	a reader positioned at the start of the payload
+	 * @throws UnsupportedOperationException	The payload is bigger than 2^31 bytes
+	 * @throws IOException Reading the file fails
+	 */
+	public AtomReader getPayloadReader() throws IOException {
+		return new AtomReader(getPayloadBuffer(), file, start);
 	}
 
 	/**
@@ -163,58 +230,196 @@ public class Atom implements Cloneable {
 	 * @throws IOException Reading the file fails
 	 */
 	public byte[] getHeader() throws IOException {
-		final InputStream input = getStream();
-		try {
-			final byte[] result = new byte[offset];
-			input.read(result);
-			return result;
-		} finally {
-			if (input != null)
-				input.close();
-		}
+		final byte[] result = new byte[offset];
+		source.readFully(ByteBuffer.wrap(result), start);
+		return result;
+	}
+
+	/**
+	 * Get the header of this {@link Atom} as a read-only buffer.
+	 * @return	A buffer containing {@link #offset} bytes
+	 * @throws IOException Reading the file fails
+	 * @see #getHeader()
+	 */
+	public ByteBuffer getHeaderBuffer() throws IOException {
+		return ByteBuffer.wrap(getHeader()).asReadOnlyBuffer();
 	}
 	
 	/**
 	 * Get the payload of this {@link Atom}.
 	 * Better not call this on <code>mdat</code> or any other {@link Atom} bigger than a few megabytes.
-	 * Look at {@link #getPayloadStream()} for reading these bigger {@link Atom}s.
+	 * Look at {@link #getPayloadBuffer()} or {@link #getPayloadChunks(int)} for reading these bigger {@link Atom}s.
 	 * @throws IOException Reading the file fails
 	 */
 	public byte[] getPayload() throws IOException {
-		int l = (int) (0x7FFFFFFFL & length-offset);
-		if (l != length-offset)
+		final long size = length-offset;
+		if (size > Integer.MAX_VALUE)
 			throw new UnsupportedOperationException(
 					"Atom "+name+" is bigger than 2^31 bytes. " +
 					"Java does not support byte arrays that big. " +
-					"Try #getPayloadStream()"
+					"Try #getPayloadChunks(int)"
 				);
-		final InputStream input = getPayloadStream();
-		try {
-			final byte[] result = new byte[l];
-			input.read(result);
-			return result;
-		} finally {
-			if (input != null)
-				input.close();
-		}
+		final byte[] result = new byte[(int) size];
+		source.readFully(ByteBuffer.wrap(result), start+offset);
+		return result;
+	}
+
+	/**
+	 * Get the payload of this {@link Atom} as a read-only buffer, without copying it to a byte array.
+	 * Payloads of at least {@link #MAP_THRESHOLD} bytes are memory mapped;
+	 * the mapping stays valid until the buffer is garbage collected, also after the {@link RootAtom} is closed.
+	 * @return	A buffer containing the payload
+	 * @throws UnsupportedOperationException	The payload is bigger than 2^31 bytes, use {@link #getPayloadChunks(int)}
+	 * @throws IOException Reading the file fails
+	 */
+	public ByteBuffer getPayloadBuffer() throws IOException {
+		final long size = length-offset;
+		if (size > Integer.MAX_VALUE)
+			throw new UnsupportedOperationException(
+					"Atom "+name+" is bigger than 2^31 bytes. " +
+					"Java does not support buffers that big. " +
+					"Try #getPayloadChunks(int)"
+				);
+		return getPayloadBuffer(0, (int) size);
+	}
+
+	/**
+	 * Get a part of the payload of this {@link Atom} as a read-only buffer.
+	 * @param position	The start of the part, relative to the start of the payload
+	 * @param size	The length of the part in bytes
+	 * @return	A buffer containing the part of the payload
+	 * @throws IOException Reading the file fails
+	 */
+	protected ByteBuffer getPayloadBuffer(long position, int size) throws IOException {
+		if (size >= MAP_THRESHOLD)
+			return source.map(start+offset+position, size);
+		final byte[] result = new byte[size];
+		source.readFully(ByteBuffer.wrap(result), start+offset+position);
+		return ByteBuffer.wrap(result).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Get the payload of this {@link Atom} as consecutive read-only buffers.
+	 * This works for payloads of any size, including those bigger than 2^31 bytes.
+	 * Every chunk is read (or mapped) when the iterator reaches it.
+	 * Reading errors are thrown from the iterator as {@link AtomException}.
+	 * @param chunkSize	The maximum size of a chunk in bytes
+	 * @return	The chunks of the payload, in order
+	 * @see #getPayloadBuffer()
+	 */
+	public Iterable<ByteBuffer> getPayloadChunks(final int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		final long size = length-offset;
+		return () -> new Iterator<ByteBuffer>() {
+			private long position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public ByteBuffer next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				final int chunk = (int) Math.min(chunkSize, size-position);
+				try {
+					final ByteBuffer result = getPayloadBuffer(position, chunk);
+					position += chunk;
+					return result;
+				} catch (IOException e) {
+					throw new AtomException(file, start, "Unable to read payload", e);
+				}
+			}
+		};
 	}
 	
 	/**
-	 * Get a stream which contains the header and the payload
+	 * Get a buffered stream which contains the header and the payload.
+	 * The stream reads from the shared {@link AtomSource}, and supports {@link InputStream#mark(int)}.
 	 * @return	the stream
-	 * @throws IOException	seeking within the file to find the payload failed
+	 * @throws IOException	opening the file failed
 	 */
 	public InputStream getStream() throws IOException {
-		return new LimitedInputStream(new FileInputStream(file), start, length);
+		return stream(start, length);
 	}
 
 	/**
-	 * Get a stream which contains the payload
+	 * Get a buffered stream which contains the payload.
+	 * The stream reads from the shared {@link AtomSource}, and supports {@link InputStream#mark(int)}.
 	 * @return	the stream
-	 * @throws IOException	seeking within the file to find the payload failed
+	 * @throws IOException	opening the file failed
 	 */
 	public InputStream getPayloadStream() throws IOException {
-		return new LimitedInputStream(new FileInputStream(file), start+offset, length-offset);
+		return stream(start+offset, length-offset);
+	}
+
+	/**
+	 * Create a buffered stream of which every read goes through {@link AtomSource#read(ByteBuffer, long)},
+	 * so it is counted in the {@link ParseMetrics} of the source
+	 * @param from	Absolute position of the first byte
+	 * @param size	The amount of bytes in the stream
+	 * @return	the stream
+	 * @throws IOException	opening the file failed
+	 */
+	private InputStream stream(long from, long size) throws IOException {
+		return new RangeInputStream(source.channel(), from, size) {
+			@Override
+			protected int readAt(ByteBuffer dst, long position) throws IOException {
+				final int result = source.read(dst, position);
+				return result == 0 ? -1 : result;
+			}
+		};
+	}
+
+	/**
+	 * Check whether this {@link Atom} differs from the original {@link Atom} in the file.
+	 * A generic {@link Atom} cannot be changed, so it is never modified.
+	 * @return	<code>true</code> if the {@link Atom} must be written when the file is saved
+	 */
+	public boolean isModified() {
+		return false;
+	}
+
+	/**
+	 * Get the length of this {@link Atom} as it would be written, including the header.
+	 * For an unmodified {@link Atom} this is the same as {@link #length}.
+	 * @return	The length in bytes
+	 * @throws IOException	Reading the file failed
+	 */
+	public long getEncodedLength() throws IOException {
+		return length;
+	}
+
+	/**
+	 * Write this {@link Atom} including its header, as it would be written when the file is saved.
+	 * An unmodified {@link Atom} is copied from its source.
+	 * @param dst	The buffer to write to, must have at least {@link #getEncodedLength()} bytes remaining
+	 * @throws IOException	Reading the file failed
+	 */
+	public void encode(ByteBuffer dst) throws IOException {
+		final ByteBuffer part = dst.duplicate();
+		part.limit(part.position() + (int) length);
+		source.readFully(part, start);
+		dst.position(part.position());
+	}
+
+	/**
+	 * Write an atom header, using a 64 bit length only when the length does not fit in 32 bits.
+	 * @param dst	The buffer to write to
+	 * @param type	Name of the atom, packed as {@link FourCC}
+	 * @param length	Length of the atom, including the header
+	 */
+	protected static void writeHeader(ByteBuffer dst, int type, long length) {
+		if (length > 0xFFFFFFFFL) {
+			dst.putInt(1);
+			dst.putInt(type);
+			dst.putLong(length);
+		} else {
+			dst.putInt((int) length);
+			dst.putInt(type);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -26,7 +26,7 @@ public class AtomException extends RuntimeException {
 	/** Basic {@link RuntimeException} implementation */
 	private static final long serialVersionUID = 2L;
 
-	/** The file from which this Atom was read */
+	/** The file from which this Atom was read, <code>null</code> when it was read from a stream */
 	public final File sourceFile;
 	/** The location of the Atom in {@link #sourceFile}. 
 	 *  The location is the byte where the name starts. */
@@ -73,7 +73,8 @@ public class AtomException extends RuntimeException {
 	 * @see java.lang.Exception#getMessage()
 	 */
 	public String getMessage() {
-		return "["+sourceFile.getName()+"@"+Long.toString(start, 16)+"] "+super.getMessage();
+		final String source = sourceFile == null ? "stream" : sourceFile.getName();
+		return "["+source+"@"+Long.toString(start, 16)+"] "+super.getMessage();
 	}
 
 }
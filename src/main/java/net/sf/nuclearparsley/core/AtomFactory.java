@@ -0,0 +1,42 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+
+/**
+ * Creates an {@link Atom} of a specific type.
+ * Factories are registered by name in the {@link AtomRegistry}.
+ */
+public interface AtomFactory {
+
+	/**
+	 * Create an {@link Atom}
+	 * @param name	4-character name of the {@link Atom}
+	 * @param source	Shared datasource containing the {@link Atom}
+	 * @param start	Starting pointer of the {@link Atom} in the datasource
+	 * @param length	Length of the {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 * @return	The new {@link Atom}
+	 * @throws AtomException	The data does not match the type created by this factory
+	 * @throws IOException	Reading the file failed
+	 */
+	Atom create(String name, AtomSource source, long start, long length, int offset)
+			throws AtomException, IOException;
+
+}
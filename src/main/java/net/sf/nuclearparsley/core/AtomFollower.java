@@ -0,0 +1,226 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Follows a file which is still being written, like <code>tail -f</code>.
+ * Every call to {@link #refresh()} only parses the top level {@link Atom}s appended since the previous call;
+ * the {@link Atom}s parsed before are kept.
+ * A top level {@link Atom} which is not complete yet is not an error, but is available from {@link #getPending()}
+ * until the file has grown enough.
+ * {@link Listener}s are notified of new {@link Atom}s, and of {@link Fragment}s of which the data is complete.
+ */
+public class AtomFollower implements Closeable {
+
+	/**
+	 * Receives the changes found by {@link AtomFollower#refresh()}
+	 */
+	public interface Listener {
+
+		/**
+		 * New top level {@link Atom}s are complete
+		 * @param follower	The {@link AtomFollower} which found them
+		 * @param atoms	The new {@link Atom}s, in file order
+		 */
+		void atomsAppended(AtomFollower follower, List<Atom> atoms);
+
+		/**
+		 * A {@link Fragment} is complete: its <code>moof</code> {@link Atom} and all its data are in the file
+		 * @param follower	The {@link AtomFollower} which found it
+		 * @param fragment	The {@link Fragment}
+		 */
+		void fragmentCompleted(AtomFollower follower, Fragment fragment);
+
+	}
+
+	/** The file being followed */
+	public final AtomSource source;
+
+	/** The complete top level {@link Atom}s */
+	private final List<Atom> atoms = new ArrayList<Atom>();
+	/** The fragments of the complete top level {@link Atom}s */
+	private final FragmentIndex fragments = new FragmentIndex();
+	/** The listeners */
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/** The position after the last complete top level {@link Atom} */
+	private long parsed;
+	/** The incomplete top level {@link Atom} at the end of the file, <code>null</code> if there is none */
+	private Atom pending;
+	/** The amount of bytes after the last complete top level {@link Atom} */
+	private long pendingBytes;
+	/** The index of the first <code>moof</code> {@link Atom} of which the {@link Listener}s have not been notified */
+	private int notified;
+
+	/**
+	 * Construct a new {@link AtomFollower}. The file is not read until {@link #refresh()} is called.
+	 * @param file	The file to follow
+	 * @param mode	When the children of {@link ParentAtom}s are parsed
+	 */
+	public AtomFollower(File file, ParseMode mode) {
+		this.source = new AtomSource(file, mode);
+	}
+
+	/**
+	 * @param listener	The {@link Listener} to notify of changes
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener	The {@link Listener} to stop notifying
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Parse the top level {@link Atom}s which were completed since the previous call, and notify the {@link Listener}s.
+	 * @return	The new {@link Atom}s, in file order
+	 * @throws AtomException	The new data does not consist of valid {@link Atom}s, or the file is shorter than before
+	 * @throws IOException	Reading the file failed
+	 */
+	public synchronized List<Atom> refresh() throws AtomException, IOException {
+		final long length = source.length();
+		if (length < parsed)
+			throw new AtomException(source.file, length, "File is shorter than the "+parsed+" bytes already parsed");
+		final List<Atom> result = new ArrayList<Atom>();
+		final ByteBuffer header = ByteBuffer.allocate(ParentAtom.LARGE_HEADER);
+		pending = null;
+		while(parsed + ParentAtom.HEADER <= length) {
+			header.clear();
+			header.limit((int) Math.min(header.capacity(), length - parsed));
+			source.readFully(header, parsed);
+			long len = header.getInt(0) & 0xFFFFFFFFL;
+			final int type = header.getInt(4);
+			int headerLength = ParentAtom.HEADER;
+			if (!FourCC.isValid(type))
+				throw new AtomException(source.file, parsed, "Invalid Atom name");
+			if (len == 1) {
+				if (header.position() < ParentAtom.LARGE_HEADER)
+					break;
+				len = header.getLong(8);
+				headerLength = ParentAtom.LARGE_HEADER;
+			}
+			if (len != 0 && len < headerLength)
+				throw new AtomException(source.file, parsed, "Invalid Atom length ("+len+")");
+			if (len == 0 || parsed + len > length) {
+				/* The size of an atom which extends to the end of the file is only known when the file is finished */
+				pending = new Atom(FourCC.toString(type), source, parsed, len, headerLength);
+				break;
+			}
+			final Atom atom = Atom.instantiate(type, source, parsed, len, headerLength);
+			fragments.add(atom);
+			atoms.add(atom);
+			result.add(atom);
+			parsed += len;
+		}
+		pendingBytes = length - parsed;
+		if (!result.isEmpty())
+			for(Listener listener : listeners)
+				listener.atomsAppended(this, Collections.unmodifiableList(result));
+		notifyFragments();
+		return result;
+	}
+
+	/**
+	 * Notify the {@link Listener}s of the {@link Fragment}s of which all data is parsed, in file order
+	 * @throws AtomException	A <code>moof</code> {@link Atom} is invalid
+	 */
+	private void notifyFragments() throws AtomException {
+		while(notified < fragments.getMoofCount()) {
+			final List<Fragment> completed = fragments.getFragments(notified);
+			for(Fragment fragment : completed)
+				if (fragment.dataEnd > parsed)
+					return;
+			notified++;
+			for(Fragment fragment : completed)
+				for(Listener listener : listeners)
+					listener.fragmentCompleted(this, fragment);
+		}
+	}
+
+	/**
+	 * @return	The complete top level {@link Atom}s, in file order
+	 */
+	public synchronized List<Atom> getAtoms() {
+		return Collections.unmodifiableList(new ArrayList<Atom>(atoms));
+	}
+
+	/**
+	 * @return	The position after the last complete top level {@link Atom}
+	 */
+	public synchronized long getParsedLength() {
+		return parsed;
+	}
+
+	/**
+	 * Get the top level {@link Atom} which was still being written during the last {@link #refresh()}.
+	 * It is a generic {@link Atom} of which the payload is not available yet;
+	 * its length is as announced in its header, or 0 when it extends to the end of the file.
+	 * When not even its header is complete, there is no {@link Atom} yet, see {@link #getPendingBytes()}.
+	 * @return	The incomplete {@link Atom}, or <code>null</code> if there is none
+	 */
+	public synchronized Atom getPending() {
+		return pending;
+	}
+
+	/**
+	 * Get the amount of bytes which were written after the last complete top level {@link Atom} during the last {@link #refresh()},
+	 * including those of an incomplete header.
+	 * @return	The amount of bytes, 0 if the file ends with a complete {@link Atom}
+	 */
+	public synchronized long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return	The {@link FragmentIndex} of the complete top level {@link Atom}s
+	 */
+	public FragmentIndex getFragmentIndex() {
+		return fragments;
+	}
+
+	/**
+	 * Get a {@link RootAtom} of the complete top level {@link Atom}s, without parsing them again.
+	 * @return	The tree of the file up to {@link #getParsedLength()}
+	 */
+	public synchronized RootAtom getRoot() {
+		return new RootAtom(source, parsed, new LinkedList<Atom>(atoms));
+	}
+
+	/**
+	 * Release the file handle. Following can continue, the file is opened again by {@link #refresh()}.
+	 */
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+}
@@ -0,0 +1,508 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Compact representation of an {@link Atom} tree, stored in primitive arrays.
+ * Every {@link Atom} is identified by an index; the root of the file has index {@link #ROOT}.
+ * An {@link AtomIndex} costs a few dozen bytes per {@link Atom} regardless of the tree shape,
+ * which makes it suitable for fragmented files with tens of thousands of <code>moof</code>s.
+ * <p>
+ * The children of an {@link Atom} always have consecutive indexes,
+ * so iterating {@link #firstChild(int)} and {@link #nextSibling(int)} is cache friendly.
+ * Use {@link #toTree()} to get the {@link Atom} objects for an index.
+ */
+public final class AtomIndex {
+
+	/** Index of the root of the file */
+	public static final int ROOT = 0;
+	/** Index used to indicate there is no {@link Atom} */
+	public static final int NONE = -1;
+
+	/** Initial capacity of the arrays */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The datasource */
+	public final AtomSource source;
+
+	/** Amount of {@link Atom}s in this index */
+	private int size;
+	/** Name of each {@link Atom}, packed as {@link FourCC} */
+	private int[] type;
+	/** Starting pointer of each {@link Atom} */
+	private long[] start;
+	/** Length of each {@link Atom} in bytes */
+	private long[] length;
+	/** Length of the header of each {@link Atom}, see {@link #offset(int)} for the location of the payload */
+	private int[] header;
+	/** Index of the parent of each {@link Atom} */
+	private int[] parent;
+	/** Index of the first child of each {@link Atom} */
+	private int[] firstChild;
+	/** Index of the next sibling of each {@link Atom} */
+	private int[] nextSibling;
+	/** Which {@link Atom}s are containers, even if they are empty */
+	private final BitSet containers = new BitSet();
+
+	/**
+	 * Construct an empty index
+	 * @param source	The datasource
+	 * @param capacity	The initial capacity
+	 */
+	private AtomIndex(AtomSource source, int capacity) {
+		this.source = source;
+		type = new int[capacity];
+		start = new long[capacity];
+		length = new long[capacity];
+		header = new int[capacity];
+		parent = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+	}
+
+	/**
+	 * Build an index by reading the headers of a file, without creating any {@link Atom} objects.
+	 * @param file	The file to read
+	 * @return	The index
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public static AtomIndex build(File file) throws AtomException, IOException {
+		final AtomSource source = new AtomSource(file);
+		try {
+			return build(source);
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Build an index by reading the headers from a source, without creating any {@link Atom} objects.
+	 * Containers are recognised in the same way as {@link Atom#instantiate(String, AtomSource, long, long, int)} does,
+	 * so the index has the same shape as the {@link RootAtom} of the source.
+	 * @param source	The source to read
+	 * @return	The index
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public static AtomIndex build(AtomSource source) throws AtomException, IOException {
+		final AtomIndex result = new AtomIndex(source, INITIAL_CAPACITY);
+		result.add(NONE, 0, 0, source.length(), 0, true);
+		result.scan(ROOT);
+		result.trimToSize();
+		return result;
+	}
+
+	/**
+	 * Build an index from an {@link Atom} tree.
+	 * Lazily parsed {@link ParentAtom}s are parsed completely.
+	 * @param root	The root of the tree
+	 * @return	The index
+	 */
+	public static AtomIndex fromTree(RootAtom root) {
+		final AtomIndex result = new AtomIndex(root.source, INITIAL_CAPACITY);
+		result.add(NONE, 0, root.start, root.length, 0, true);
+		result.addChildren(ROOT, root);
+		result.trimToSize();
+		return result;
+	}
+
+	/**
+	 * Add the children of an {@link Atom} object, and their children
+	 * @param index	Index of the {@link Atom}
+	 * @param atom	The {@link Atom}
+	 */
+	private void addChildren(int index, ParentAtom atom) {
+		final int first = size;
+		for(Atom child : atom)
+			add(index, child.type, child.start, child.length, headerLength(child), child instanceof ParentAtom);
+		link(index, first);
+		int i = first;
+		for(Atom child : atom) {
+			if (child instanceof ParentAtom)
+				addChildren(i, (ParentAtom) child);
+			i++;
+		}
+	}
+
+	/**
+	 * Find the children of a container, and their children
+	 * @param index	Index of the container
+	 * @throws AtomException	The payload of the container does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	private void scan(final int index) throws AtomException, IOException {
+		final int first = size;
+		ParentAtom.scan(source, start[index], length[index], offset(index),
+				(pointer, len, offset, type) -> add(index, type, pointer, len, offset, false));
+		link(index, first);
+		final int last = size;
+		for(int i=first;i<last;i++) {
+			final int type = this.type[i];
+			if (AtomRegistry.isKnown(type) && !AtomRegistry.isContainer(type))
+				continue;
+			final int mark = size;
+			try {
+				containers.set(i);
+				scan(i);
+			} catch (AtomException e) {
+				/* Not a container after all, same as the fallback in Atom#instantiate */
+				containers.clear(i);
+				firstChild[i] = NONE;
+				size = mark;
+			}
+		}
+	}
+
+	/**
+	 * Link the children of an {@link Atom}, which have just been added
+	 * @param index	Index of the parent
+	 * @param first	Index of the first child
+	 */
+	private void link(int index, int first) {
+		firstChild[index] = first < size ? first : NONE;
+		for(int i=first;i<size;i++)
+			nextSibling[i] = i+1 < size ? i+1 : NONE;
+	}
+
+	/**
+	 * Get the length of the header of an {@link Atom} object.
+	 * The payload offset of a specific type is left out, except for generic {@link Atom}s
+	 * created because the specific type could not be used, which only skip their header.
+	 * @param atom	The {@link Atom}
+	 * @return	The length of the header
+	 */
+	private static int headerLength(Atom atom) {
+		if (atom.error != null)
+			return atom.offset;
+		return atom.offset - AtomRegistry.payloadOffset(atom.type);
+	}
+
+	/**
+	 * Add an {@link Atom}, without linking it
+	 * @return	the index of the {@link Atom}
+	 */
+	private int add(int parent, int type, long start, long length, int header, boolean container) {
+		if (size == this.type.length)
+			grow();
+		final int index = size++;
+		this.type[index] = type;
+		this.start[index] = start;
+		this.length[index] = length;
+		this.header[index] = header;
+		this.parent[index] = parent;
+		this.firstChild[index] = NONE;
+		this.nextSibling[index] = NONE;
+		containers.set(index, container);
+		return index;
+	}
+
+	/**
+	 * Double the capacity of the arrays
+	 */
+	private void grow() {
+		resize(type.length*2);
+	}
+
+	/**
+	 * Shrink the arrays to the amount of {@link Atom}s
+	 */
+	private void trimToSize() {
+		resize(size);
+	}
+
+	/**
+	 * Resize all arrays
+	 * @param capacity	the new capacity
+	 */
+	private void resize(int capacity) {
+		type = Arrays.copyOf(type, capacity);
+		start = Arrays.copyOf(start, capacity);
+		length = Arrays.copyOf(length, capacity);
+		header = Arrays.copyOf(header, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		nextSibling = Arrays.copyOf(nextSibling, capacity);
+	}
+
+	/**
+	 * Write this index in a compact binary form, which can be read by {@link #readFrom(DataInput, AtomSource)}
+	 * @param out	the output
+	 * @throws IOException	Writing failed
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for(int i=0;i<size;i++) {
+			out.writeInt(type[i]);
+			out.writeLong(start[i]);
+			out.writeLong(length[i]);
+			out.writeInt(header[i]);
+			out.writeInt(parent[i]);
+			out.writeInt(firstChild[i]);
+			out.writeInt(nextSibling[i]);
+			out.writeBoolean(containers.get(i));
+		}
+	}
+
+	/**
+	 * Read an index written by {@link #writeTo(DataOutput)}
+	 * @param in	the input
+	 * @param source	The datasource the index was built from
+	 * @return	The index
+	 * @throws IOException	Reading failed or the data is not a valid index
+	 */
+	public static AtomIndex readFrom(DataInput in, AtomSource source) throws IOException {
+		final int size = in.readInt();
+		if (size < 1)
+			throw new IOException("Invalid index size ("+size+")");
+		final AtomIndex result = new AtomIndex(source, size);
+		for(int i=0;i<size;i++) {
+			result.type[i] = in.readInt();
+			result.start[i] = in.readLong();
+			result.length[i] = in.readLong();
+			result.header[i] = in.readInt();
+			result.parent[i] = in.readInt();
+			result.firstChild[i] = in.readInt();
+			result.nextSibling[i] = in.readInt();
+			result.containers.set(i, in.readBoolean());
+			if (result.parent[i] >= i || !isForward(result.firstChild[i], i, size)
+					|| !isForward(result.nextSibling[i], i, size))
+				throw new IOException("Invalid index entry "+i);
+		}
+		result.size = size;
+		return result;
+	}
+
+	/**
+	 * Check that a link points to a later entry, so walking the links always ends
+	 * @param link	the index the link points to
+	 * @param index	the index of the entry holding the link
+	 * @param size	the amount of entries
+	 * @return	whether the link is {@link #NONE} or points to a later entry
+	 */
+	private static boolean isForward(int link, int index, int size) {
+		return link == NONE || (link > index && link < size);
+	}
+
+	/**
+	 * Create the {@link Atom} objects for this index.
+	 * The types from the {@link AtomRegistry} are used, so the tree is the same as a parsed tree.
+	 * Generic {@link Atom}s and {@link ParentAtom}s are created without file access;
+	 * specific types read what their constructor needs, and registered containers
+	 * of a specific type parse their own children.
+	 * @return	The root of the tree
+	 * @throws AtomException	Reading an {@link Atom} of a specific type failed
+	 */
+	public RootAtom toTree() {
+		return new RootAtom(source, length[ROOT], children(ROOT));
+	}
+
+	/**
+	 * Create the {@link Atom} object for an index, including its children.
+	 * @param index	Index of the {@link Atom}
+	 * @return	The {@link Atom}
+	 * @throws AtomException	Reading an {@link Atom} of a specific type failed
+	 * @see #toTree()
+	 */
+	public Atom toAtom(int index) {
+		if (index == ROOT)
+			return toTree();
+		final AtomFactory factory = AtomRegistry.get(type[index]);
+		if (containers.get(index) && (factory == null || factory == AtomRegistry.CONTAINER))
+			return new ParentAtom(name(index), source, start[index], length[index], offset(index), children(index));
+		if (factory == null || factory == AtomRegistry.LEAF)
+			return new Atom(name(index), source, start[index], length[index], offset(index));
+		try {
+			return Atom.instantiate(type[index], source, start[index], length[index], header[index]);
+		} catch (IOException e) {
+			throw new AtomException(source.file, start[index], "Unable to read atom", e);
+		}
+	}
+
+	/**
+	 * Create the children of an {@link Atom}
+	 * @param index	Index of the {@link Atom}
+	 * @return	The children
+	 */
+	private List<Atom> children(int index) {
+		final List<Atom> result = new LinkedList<Atom>();
+		for(int child=firstChild[index];child!=NONE;child=nextSibling[child])
+			result.add(toAtom(child));
+		return result;
+	}
+
+	/**
+	 * @return	The amount of {@link Atom}s in this index, including the root
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	The name of the {@link Atom}, packed as {@link FourCC}
+	 */
+	public int type(int index) {
+		checkIndex(index);
+		return type[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	The name of the {@link Atom}, <code>null</code> for {@link #ROOT}
+	 */
+	public String name(int index) {
+		checkIndex(index);
+		if (index == ROOT)
+			return null;
+		return FourCC.toString(type[index]);
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Starting pointer of the {@link Atom}
+	 */
+	public long start(int index) {
+		checkIndex(index);
+		return start[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Length of the {@link Atom} in bytes
+	 */
+	public long length(int index) {
+		checkIndex(index);
+		return length[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Length of the header of the {@link Atom}, 8 or 16 bytes, or 0 for {@link #ROOT}
+	 */
+	public int headerLength(int index) {
+		checkIndex(index);
+		return header[index];
+	}
+
+	/**
+	 * Get the location of the payload, which is derived from the header length and the {@link AtomRegistry}
+	 * in the same way as {@link Atom#instantiate(int, AtomSource, long, long, int)} does.
+	 * Registered containers of which the payload does not consist of {@link Atom}s only skip their header,
+	 * like the generic {@link Atom} they are parsed as.
+	 * @param index	Index of the {@link Atom}
+	 * @return	Location of the payload relative to the start of the {@link Atom}
+	 */
+	public int offset(int index) {
+		checkIndex(index);
+		if (index == ROOT || AtomRegistry.isContainer(type[index]) && !containers.get(index))
+			return header[index];
+		return header[index] + AtomRegistry.payloadOffset(type[index]);
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Index of the parent, or {@link #NONE} for {@link #ROOT}
+	 */
+	public int parent(int index) {
+		checkIndex(index);
+		return parent[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Index of the first child, or {@link #NONE} if there are no children
+	 */
+	public int firstChild(int index) {
+		checkIndex(index);
+		return firstChild[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Index of the next sibling, or {@link #NONE} if this is the last child
+	 */
+	public int nextSibling(int index) {
+		checkIndex(index);
+		return nextSibling[index];
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	Whether the {@link Atom} is a container (which may be empty)
+	 */
+	public boolean isContainer(int index) {
+		checkIndex(index);
+		return containers.get(index);
+	}
+
+	/**
+	 * @param index	Index of the {@link Atom}
+	 * @return	The amount of children
+	 */
+	public int childCount(int index) {
+		int result = 0;
+		for(int child=firstChild(index);child!=NONE;child=nextSibling[child])
+			result++;
+		return result;
+	}
+
+	/**
+	 * Find a child by name
+	 * @param index	Index of the parent
+	 * @param name	4-character name of the child
+	 * @param n	Which child with this name to find, 0 for the first
+	 * @return	Index of the child, or {@link #NONE} if it doesn't exist
+	 */
+	public int find(int index, String name, int n) {
+		final int packed = FourCC.pack(name);
+		for(int child=firstChild(index);child!=NONE;child=nextSibling[child])
+			if (type[child] == packed && n-- == 0)
+				return child;
+		return NONE;
+	}
+
+	/**
+	 * Find the first child with a name
+	 * @param index	Index of the parent
+	 * @param name	4-character name of the child
+	 * @return	Index of the child, or {@link #NONE} if it doesn't exist
+	 */
+	public int find(int index, String name) {
+		return find(index, name, 0);
+	}
+
+	/**
+	 * Make sure an index is valid
+	 * @param index	the index
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+	}
+
+}
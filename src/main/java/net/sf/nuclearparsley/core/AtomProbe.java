@@ -0,0 +1,295 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of a file made by reading only the headers of its top level {@link Atom}s.
+ * The size fields are followed with positional reads, without descending into any {@link Atom};
+ * the only payload read is that of the <code>ftyp</code> {@link Atom}.
+ * This is enough to classify a file, and takes only a few small reads even for huge files.
+ * Unlike a {@link RootAtom}, a probe of an invalid file does not fail:
+ * the {@link Atom}s found before the invalid header are kept, and {@link #getError()} describes the problem.
+ * A probe is immutable.
+ */
+public final class AtomProbe {
+
+	/** Amount of bytes read at the start of the file, which holds the <code>ftyp</code> and the next headers of most files */
+	public static final int HEAD = 0x1000;
+	/** Maximum amount of bytes read from the payload of the <code>ftyp</code> {@link Atom} */
+	public static final int MAX_FTYP = 0x400;
+
+	/** The probed file */
+	public final File file;
+	/** The length of the file */
+	public final long length;
+	/** The major brand from the <code>ftyp</code> {@link Atom}, <code>null</code> if there is none */
+	public final String majorBrand;
+	/** The minor version from the <code>ftyp</code> {@link Atom}, 0 if there is none */
+	public final long minorVersion;
+	/** The compatible brands from the <code>ftyp</code> {@link Atom} */
+	public final List<String> compatibleBrands;
+	/** The names of the top level {@link Atom}s, packed as {@link FourCC} */
+	private final int[] types;
+	/** The starting pointers of the top level {@link Atom}s */
+	private final long[] starts;
+	/** The lengths of the top level {@link Atom}s */
+	private final long[] lengths;
+	/** Why not all top level {@link Atom}s were found, <code>null</code> if they were */
+	private final String error;
+
+	/**
+	 * Construct a probe from what was read
+	 */
+	private AtomProbe(File file, long length, String majorBrand, long minorVersion, List<String> compatibleBrands,
+			int[] types, long[] starts, long[] lengths, String error) {
+		this.file = file;
+		this.length = length;
+		this.majorBrand = majorBrand;
+		this.minorVersion = minorVersion;
+		this.compatibleBrands = compatibleBrands;
+		this.types = types;
+		this.starts = starts;
+		this.lengths = lengths;
+		this.error = error;
+	}
+
+	/**
+	 * Probe a file
+	 * @param file	The file to probe
+	 * @return	The summary of the file
+	 * @throws IOException	Reading the file failed
+	 */
+	public static AtomProbe probe(File file) throws IOException {
+		final AtomSource source = new AtomSource(file);
+		try {
+			return probe(source);
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Probe a file through a shared source.
+	 * The start of the file is read at once, further headers are read separately.
+	 * @param source	The source to probe
+	 * @return	The summary of the file
+	 * @throws IOException	Reading the file failed
+	 */
+	public static AtomProbe probe(AtomSource source) throws IOException {
+		final long length = source.length();
+		final ByteBuffer head = ByteBuffer.allocate((int) Math.min(HEAD, length));
+		source.read(head, 0);
+		head.flip();
+		final ByteBuffer header = ByteBuffer.allocate(ParentAtom.LARGE_HEADER);
+		int[] types = new int[8];
+		long[] starts = new long[8];
+		long[] lengths = new long[8];
+		int count = 0;
+		String majorBrand = null;
+		long minorVersion = 0;
+		List<String> compatibleBrands = Collections.emptyList();
+		String error = null;
+		long pointer = 0;
+		while(pointer < length) {
+			final ByteBuffer buffer;
+			final int rel;
+			if (pointer < head.limit() && (pointer + ParentAtom.LARGE_HEADER <= head.limit() || head.limit() == length)) {
+				buffer = head;
+				rel = (int) pointer;
+			} else {
+				header.clear();
+				source.read(header, pointer);
+				header.flip();
+				buffer = header;
+				rel = 0;
+			}
+			if (buffer.limit()-rel < ParentAtom.HEADER) {
+				error = "Atom header exceeds file length at "+pointer;
+				break;
+			}
+			long len = buffer.getInt(rel) & 0x00000000FFFFFFFFL; // Unsigned positive integer
+			final int type = buffer.getInt(rel+4);
+			int headerLength = ParentAtom.HEADER;
+			if (len == 1) {
+				if (buffer.limit()-rel < ParentAtom.LARGE_HEADER) {
+					error = "Atom header exceeds file length at "+pointer;
+					break;
+				}
+				len = buffer.getLong(rel+ParentAtom.HEADER);
+				headerLength = ParentAtom.LARGE_HEADER;
+			} else if (len == 0) // extends to the end of the file
+				len = length-pointer;
+			if (len < headerLength) {
+				error = "Invalid Atom length ("+len+") at "+pointer;
+				break;
+			}
+			if (!FourCC.isValid(type)) {
+				error = "Invalid Atom name at "+pointer;
+				break;
+			}
+			if (count == types.length) {
+				types = Arrays.copyOf(types, count*2);
+				starts = Arrays.copyOf(starts, count*2);
+				lengths = Arrays.copyOf(lengths, count*2);
+			}
+			types[count] = type;
+			starts[count] = pointer;
+			lengths[count] = len;
+			count++;
+			if (type == FourCC.FTYP && majorBrand == null && Math.min(len, length-pointer) >= headerLength+8) {
+				final int size = (int) Math.min(Math.min(len, length-pointer)-headerLength, MAX_FTYP) & ~3;
+				final long payload = pointer+headerLength;
+				final ByteBuffer ftyp;
+				final int base;
+				if (payload+size <= head.limit()) {
+					ftyp = head;
+					base = (int) payload;
+				} else {
+					ftyp = ByteBuffer.allocate(size);
+					source.readFully(ftyp, payload);
+					base = 0;
+				}
+				majorBrand = FourCC.toString(ftyp.getInt(base));
+				minorVersion = ftyp.getInt(base+4) & 0x00000000FFFFFFFFL;
+				final List<String> brands = new ArrayList<String>((size-8)/4);
+				for(int i=8;i<size;i+=4)
+					brands.add(FourCC.toString(ftyp.getInt(base+i)));
+				compatibleBrands = Collections.unmodifiableList(brands);
+			}
+			if (len > length-pointer) {
+				error = "Atom start+length exceeds file length at "+pointer;
+				break;
+			}
+			pointer += len;
+		}
+		return new AtomProbe(source.file, length, majorBrand, minorVersion, compatibleBrands,
+				Arrays.copyOf(types, count), Arrays.copyOf(starts, count), Arrays.copyOf(lengths, count), error);
+	}
+
+	/**
+	 * @return	The amount of top level {@link Atom}s found
+	 */
+	public int getAtomCount() {
+		return types.length;
+	}
+
+	/**
+	 * @param index	Index of the top level {@link Atom}
+	 * @return	The name of the {@link Atom}, packed as {@link FourCC}
+	 */
+	public int getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * @param index	Index of the top level {@link Atom}
+	 * @return	The 4-character name of the {@link Atom}
+	 */
+	public String getName(int index) {
+		return FourCC.toString(types[index]);
+	}
+
+	/**
+	 * @param index	Index of the top level {@link Atom}
+	 * @return	The starting pointer of the {@link Atom}
+	 */
+	public long getStart(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * @param index	Index of the top level {@link Atom}
+	 * @return	The length of the {@link Atom}, including its header
+	 */
+	public long getLength(int index) {
+		return lengths[index];
+	}
+
+	/**
+	 * @param type	The name, packed as {@link FourCC}
+	 * @return	The index of the first top level {@link Atom} with the name, -1 if there is none
+	 */
+	public int indexOf(int type) {
+		for(int i=0;i<types.length;i++)
+			if (types[i] == type)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return	Whether the file has a top level <code>moov</code> {@link Atom}
+	 */
+	public boolean hasMoov() {
+		return indexOf(FourCC.MOOV) >= 0;
+	}
+
+	/**
+	 * Check whether the file can be played while it is downloaded,
+	 * because the <code>moov</code> {@link Atom} comes before the media data
+	 * @return	Whether there is a <code>moov</code> {@link Atom} before the first <code>mdat</code> {@link Atom},
+	 *        	or a <code>moov</code> {@link Atom} and no <code>mdat</code> {@link Atom}s
+	 */
+	public boolean isMoovFirst() {
+		final int moov = indexOf(FourCC.MOOV);
+		final int mdat = indexOf(FourCC.MDAT);
+		return moov >= 0 && (mdat < 0 || moov < mdat);
+	}
+
+	/**
+	 * Check whether the file is fragmented.
+	 * Only the top level is probed, so a file of which the <code>moov</code> announces fragments
+	 * that are not there (yet) is not recognised.
+	 * @return	Whether the file has a top level <code>moof</code> {@link Atom}
+	 */
+	public boolean isFragmented() {
+		return indexOf(FourCC.MOOF) >= 0;
+	}
+
+	/**
+	 * @return	Why not all top level {@link Atom}s were found, <code>null</code> if they were
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder().append(file).append(": ");
+		if (majorBrand != null)
+			result.append(majorBrand).append('/').append(minorVersion).append(' ').append(compatibleBrands).append(", ");
+		result.append(!hasMoov() ? "no moov" : isMoovFirst() ? "moov first" : "moov last");
+		result.append(isFragmented() ? ", fragmented" : "");
+		for(int i=0;i<types.length;i++)
+			result.append(i == 0 ? ", atoms " : " ").append(getName(i)).append(':').append(lengths[i]);
+		if (error != null)
+			result.append(", ").append(error);
+		return result.toString();
+	}
+
+}
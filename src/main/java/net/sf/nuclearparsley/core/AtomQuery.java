@@ -0,0 +1,516 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled path to {@link Atom}s in a tree.
+ * A path consists of steps separated by dots, each selecting children of the {@link Atom}s found so far:
+ * <dl>
+ * <dt><code>moov</code></dt><dd>the first child named <code>moov</code></dd>
+ * <dt><code>*</code></dt><dd>the first child, regardless of its name</dd>
+ * <dt><code>**</code></dt><dd>the {@link Atom} itself and all its descendants</dd>
+ * </dl>
+ * A name or <code>*</code> may be followed by conditions in square brackets:
+ * <dl>
+ * <dt><code>[2]</code></dt><dd>the third match instead of the first</dd>
+ * <dt><code>[*]</code></dt><dd>all matches instead of the first</dd>
+ * <dt><code>[handler=vide]</code></dt><dd>only {@link Atom}s with a <code>hdlr</code> of the given type,
+ * either as a child or inside their <code>mdia</code> child, such as tracks</dd>
+ * <dt><code>[size&gt;1000]</code></dt><dd>only {@link Atom}s of which the length compares as given,
+ * using <code>=</code>, <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> or <code>&gt;=</code></dd>
+ * </dl>
+ * The other conditions are applied before the index, so <code>trak[handler=soun]</code> is the first sound track,
+ * <code>moov.trak[*].mdia.hdlr</code> are the handlers of all tracks and <code>**.covr</code> are all cover art lists.
+ * The empty path selects the root.
+ * <p>
+ * When a file is queried, only the headers of the children of matching {@link Atom}s are read,
+ * so branches which cannot match are never parsed, and only the {@link Atom}s found are created.
+ * {@link #select(File, AtomQuery...)} evaluates several queries while reading every header at most once.
+ * A query is immutable and can be used from several threads at once.
+ * </p>
+ */
+public final class AtomQuery {
+
+	/** Index of a step which selects all matches */
+	private static final int ALL = -1;
+
+	/** The path this query was compiled from */
+	public final String path;
+	/** The steps of the path */
+	private final Step[] steps;
+
+	/**
+	 * Construct a compiled query
+	 * @param path	The path
+	 * @param steps	The steps of the path
+	 */
+	private AtomQuery(String path, Step[] steps) {
+		this.path = path;
+		this.steps = steps;
+	}
+
+	/**
+	 * Compile a path
+	 * @param path	The path, see {@link AtomQuery}
+	 * @return	The compiled query
+	 * @throws IllegalArgumentException	The path is invalid
+	 */
+	public static AtomQuery compile(String path) {
+		final List<Step> steps = new ArrayList<Step>();
+		int i = 0;
+		while(i < path.length()) {
+			if (i > 0) {
+				if (path.charAt(i) != '.' || i+1 == path.length())
+					throw invalid(path, i, "Expected a dot followed by a step");
+				i++;
+			}
+			final Step step;
+			if (path.startsWith("**", i) && (i+2 == path.length() || path.charAt(i+2) == '.')) {
+				steps.add(new Step(true, false, 0));
+				i += 2;
+				continue;
+			} else if (path.charAt(i) == '*' && (i+1 == path.length() || path.charAt(i+1) == '.' || path.charAt(i+1) == '[')) {
+				step = new Step(false, true, 0);
+				i++;
+			} else if (i+4 <= path.length()) {
+				step = new Step(false, false, FourCC.pack(path.substring(i, i+4)));
+				i += 4;
+			} else
+				throw invalid(path, i, "An atom name consists of four bytes");
+			while(i < path.length() && path.charAt(i) == '[') {
+				final int end = path.indexOf(']', i);
+				if (end < 0)
+					throw invalid(path, i, "Missing ]");
+				condition(step, path, i+1, path.substring(i+1, end));
+				i = end+1;
+			}
+			steps.add(step);
+		}
+		return new AtomQuery(path, steps.toArray(new Step[steps.size()]));
+	}
+
+	/**
+	 * Add a condition to a step
+	 * @param step	The step
+	 * @param path	The path, for error messages
+	 * @param position	The position of the condition in the path, for error messages
+	 * @param condition	The text between the square brackets
+	 * @throws IllegalArgumentException	The condition is invalid
+	 */
+	private static void condition(Step step, String path, int position, String condition) {
+		if (condition.equals("*") || !condition.isEmpty() && condition.chars().allMatch(Character::isDigit)) {
+			if (step.indexed)
+				throw invalid(path, position, "Only one index is allowed");
+			step.indexed = true;
+			step.index = condition.equals("*") ? ALL : Integer.parseInt(condition);
+		} else if (condition.startsWith("handler=")) {
+			if (condition.length() != 12)
+				throw invalid(path, position, "A handler type consists of four bytes");
+			final int handler = FourCC.pack(condition.substring(8));
+			step.conditions.add(node -> node.handler() == handler);
+		} else if (condition.startsWith("size")) {
+			int operator = 4;
+			while(operator < condition.length() && "=!<>".indexOf(condition.charAt(operator)) >= 0)
+				operator++;
+			final long size;
+			try {
+				size = Long.parseLong(condition.substring(operator));
+			} catch (NumberFormatException e) {
+				throw invalid(path, position, "Invalid size");
+			}
+			switch(condition.substring(4, operator)) {
+			case "=": step.conditions.add(node -> node.length == size);break;
+			case "!=":step.conditions.add(node -> node.length != size);break;
+			case "<": step.conditions.add(node -> node.length < size);break;
+			case "<=":step.conditions.add(node -> node.length <= size);break;
+			case ">": step.conditions.add(node -> node.length > size);break;
+			case ">=":step.conditions.add(node -> node.length >= size);break;
+			default:throw invalid(path, position, "Invalid comparison");
+			}
+		} else
+			throw invalid(path, position, "Unknown condition ["+condition+"]");
+	}
+
+	/**
+	 * @return	An exception for an invalid path
+	 */
+	private static IllegalArgumentException invalid(String path, int position, String message) {
+		return new IllegalArgumentException(message+" at position "+position+" of \""+path+"\"");
+	}
+
+	/**
+	 * Find all matching {@link Atom}s in a file, reading only the branches which can match
+	 * @param file	The file to read
+	 * @return	The matching {@link Atom}s, which parse their own children lazily;
+	 *        	close it to release the file handle they share
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public Selection select(File file) throws AtomException, IOException {
+		return select(file, this);
+	}
+
+	/**
+	 * Find all {@link Atom}s matching any of several queries in a file, reading every header at most once
+	 * @param file	The file to read
+	 * @param queries	The queries
+	 * @return	The matching {@link Atom}s of every query, in the order of the queries.
+	 *        	An {@link Atom} matched by several queries is the same object in every result.
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public static Selection select(File file, AtomQuery... queries) throws AtomException, IOException {
+		final AtomSource source = new AtomSource(file, ParseMode.LAZY);
+		try {
+			final Node root = new Node(source, 0, source.length(), 0, 0);
+			final List<List<Atom>> result = new ArrayList<List<Atom>>(queries.length);
+			for(AtomQuery query : queries) {
+				final List<Atom> atoms = new ArrayList<Atom>();
+				for(Node node : query.evaluate(root))
+					atoms.add(node == root ? new RootAtom(source) : node.toAtom());
+				result.add(Collections.unmodifiableList(atoms));
+			}
+			return new Selection(source, result);
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * The {@link Atom}s found in a file by one or more queries.
+	 * The {@link Atom}s share an {@link AtomSource}, which is opened again when they are read;
+	 * like {@link RootAtom#close()}, {@link #close()} releases its file handle.
+	 */
+	public static final class Selection implements Closeable {
+
+		/** The datasource shared by all selected {@link Atom}s */
+		public final AtomSource source;
+		/** The matching {@link Atom}s of every query */
+		private final List<List<Atom>> atoms;
+
+		/**
+		 * Construct a new {@link Selection}
+		 * @param source	The datasource shared by all selected {@link Atom}s
+		 * @param atoms	The matching {@link Atom}s of every query
+		 */
+		private Selection(AtomSource source, List<List<Atom>> atoms) {
+			this.source = source;
+			this.atoms = atoms;
+		}
+
+		/**
+		 * @return	The matching {@link Atom}s of the first query
+		 */
+		public List<Atom> get() {
+			return atoms.get(0);
+		}
+
+		/**
+		 * @param query	Index of the query, in the order the queries were given
+		 * @return	The matching {@link Atom}s of the query
+		 */
+		public List<Atom> get(int query) {
+			return atoms.get(query);
+		}
+
+		/**
+		 * Release the file handle held by the shared {@link AtomSource}.
+		 * The {@link Atom}s remain usable; the file is opened again when they are read.
+		 */
+		@Override
+		public void close() throws IOException {
+			source.close();
+		}
+
+	}
+
+	/**
+	 * Find all matching {@link Atom}s in a tree.
+	 * Only the {@link ParentAtom}s of branches which can match are used as {@link List},
+	 * so lazily parsed branches which cannot match are not parsed.
+	 * @param root	The root of the tree
+	 * @return	The matching {@link Atom}s
+	 * @throws AtomException	Reading the tree failed
+	 */
+	public List<Atom> select(Atom root) throws AtomException {
+		final List<Atom> result = new ArrayList<Atom>();
+		try {
+			for(Node node : evaluate(new Node(root)))
+				result.add(node.atom);
+		} catch (IOException e) {
+			throw new AtomException(root.file, root.start, "Unable to read handler", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the first matching {@link Atom} in a tree
+	 * @param root	The root of the tree
+	 * @return	The first matching {@link Atom}, <code>null</code> if there is none
+	 * @throws AtomException	Reading the tree failed
+	 * @see #select(Atom)
+	 */
+	public Atom first(Atom root) throws AtomException {
+		final List<Atom> result = select(root);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Apply the steps of this query
+	 * @param root	The node to start from
+	 * @return	The matching nodes, without duplicates
+	 * @throws IOException	Reading the file failed
+	 */
+	private List<Node> evaluate(Node root) throws IOException {
+		List<Node> context = Collections.singletonList(root);
+		for(Step step : steps) {
+			final List<Node> next = new ArrayList<Node>();
+			final Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+			for(Node node : context) {
+				if (step.descendants) {
+					descendants(node, next, seen);
+					continue;
+				}
+				int matched = 0;
+				for(Node child : node.children()) {
+					if (!step.matches(child))
+						continue;
+					if (step.index == ALL || matched++ == step.index) {
+						if (seen.add(child))
+							next.add(child);
+						if (step.index != ALL)
+							break;
+					}
+				}
+			}
+			context = next;
+		}
+		return context;
+	}
+
+	/**
+	 * Add a node and all its descendants, depth first
+	 * @param node	The node
+	 * @param result	Receives the nodes
+	 * @param seen	The nodes already in result
+	 * @throws IOException	Reading the file failed
+	 */
+	private static void descendants(Node node, List<Node> result, Set<Node> seen) throws IOException {
+		if (!seen.add(node))
+			return;
+		result.add(node);
+		for(Node child : node.children())
+			descendants(child, result, seen);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	/**
+	 * Tests a node against a condition
+	 */
+	private interface Condition {
+		/**
+		 * @param node	The node
+		 * @return	Whether the node matches
+		 * @throws IOException	Reading the file failed
+		 */
+		boolean test(Node node) throws IOException;
+	}
+
+	/**
+	 * One step of a path
+	 */
+	private static final class Step {
+		/** Whether this step selects the nodes themselves and all their descendants */
+		final boolean descendants;
+		/** Whether children with any name match */
+		final boolean anyType;
+		/** The name of matching children, packed as {@link FourCC} */
+		final int type;
+		/** Whether an index was given */
+		boolean indexed;
+		/** Which of the matching children is selected, or {@link AtomQuery#ALL} */
+		int index;
+		/** The conditions children have to meet */
+		final List<Condition> conditions = new ArrayList<Condition>(1);
+
+		Step(boolean descendants, boolean anyType, int type) {
+			this.descendants = descendants;
+			this.anyType = anyType;
+			this.type = type;
+		}
+
+		/**
+		 * @param node	A child of a node in the context
+		 * @return	Whether the child matches the name and conditions of this step
+		 * @throws IOException	Reading the file failed
+		 */
+		boolean matches(Node node) throws IOException {
+			if (!anyType && node.type != type)
+				return false;
+			for(Condition condition : conditions)
+				if (!condition.test(node))
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * An {@link Atom} during evaluation, either an existing {@link Atom} or a header read from a file.
+	 * The children of a node are found once, so several queries can share the nodes.
+	 */
+	private static final class Node {
+		/** The {@link Atom}, <code>null</code> until it is created for a header */
+		private Atom atom;
+		/** The datasource of a header, <code>null</code> for an existing {@link Atom} */
+		private final AtomSource source;
+		/** Starting pointer of the {@link Atom} */
+		final long start;
+		/** Length of the {@link Atom} */
+		final long length;
+		/** Length of the header of the {@link Atom}, or the location of the payload for an existing {@link Atom} */
+		final int offset;
+		/** Name of the {@link Atom}, packed as {@link FourCC} */
+		final int type;
+		/** The children, <code>null</code> until they are found */
+		private List<Node> children;
+
+		/**
+		 * Construct a node for an existing {@link Atom}
+		 * @param atom	The {@link Atom}
+		 */
+		Node(Atom atom) {
+			this.atom = atom;
+			this.source = null;
+			this.start = atom.start;
+			this.length = atom.length;
+			this.offset = atom.offset;
+			this.type = atom.type;
+		}
+
+		/**
+		 * Construct a node for a header
+		 * @param source	The datasource
+		 * @param start	Starting pointer of the {@link Atom}
+		 * @param length	Length of the {@link Atom}
+		 * @param offset	Length of the header
+		 * @param type	Name of the {@link Atom}, packed as {@link FourCC}
+		 */
+		Node(AtomSource source, long start, long length, int offset, int type) {
+			this.source = source;
+			this.start = start;
+			this.length = length;
+			this.offset = offset;
+			this.type = type;
+		}
+
+		/**
+		 * Get the children, reading their headers if needed.
+		 * Like {@link Atom#instantiate(int, AtomSource, long, long, int)},
+		 * unknown {@link Atom}s of which the payload does not consist of {@link Atom}s have no children.
+		 * @return	The children
+		 * @throws AtomException	The payload of the root is not valid
+		 * @throws IOException	Reading the file failed
+		 */
+		List<Node> children() throws IOException {
+			if (children != null)
+				return children;
+			final List<Node> result = new ArrayList<Node>();
+			if (source == null) {
+				if (atom instanceof ParentAtom)
+					for(Atom child : (ParentAtom) atom)
+						result.add(new Node(child));
+			} else if (!AtomRegistry.isKnown(type) || AtomRegistry.isContainer(type)) {
+				try {
+					ParentAtom.scan(source, start, length, offset+AtomRegistry.payloadOffset(type),
+							(pointer, len, offset, type) -> result.add(new Node(source, pointer, len, offset, type)));
+				} catch (AtomException e) {
+					if (start == 0 && offset == 0) // the root is always a container
+						throw e;
+					result.clear();
+				}
+			}
+			return children = result;
+		}
+
+		/**
+		 * @param type	Name of the child, packed as {@link FourCC}
+		 * @return	The first child with the name, <code>null</code> if there is none
+		 * @throws IOException	Reading the file failed
+		 */
+		Node child(int type) throws IOException {
+			for(Node child : children())
+				if (child.type == type)
+					return child;
+			return null;
+		}
+
+		/**
+		 * Get the handler type of this node, which is read from its <code>hdlr</code> child,
+		 * or from the <code>hdlr</code> child of its <code>mdia</code> child
+		 * @return	The handler type, packed as {@link FourCC}, or 0 if there is none
+		 * @throws IOException	Reading the file failed
+		 */
+		int handler() throws IOException {
+			Node hdlr = child(FourCC.HDLR);
+			if (hdlr == null) {
+				final Node mdia = child(FourCC.MDIA);
+				if (mdia == null || (hdlr = mdia.child(FourCC.HDLR)) == null)
+					return 0;
+			}
+			if (hdlr.source == null) {
+				final byte[] payload = hdlr.atom.getPayload();
+				return payload.length < 12 ? 0 : FourCC.pack(new byte[]{payload[8], payload[9], payload[10], payload[11]});
+			}
+			final long payload = hdlr.start+hdlr.offset+AtomRegistry.payloadOffset(FourCC.HDLR);
+			if (payload+12 > hdlr.start+hdlr.length)
+				return 0;
+			final ByteBuffer buffer = ByteBuffer.allocate(4);
+			hdlr.source.readFully(buffer, payload+8);
+			return buffer.getInt(0);
+		}
+
+		/**
+		 * Get the {@link Atom} of this node, creating it from its header if needed
+		 * @return	The {@link Atom}
+		 * @throws IOException	Reading the file failed
+		 */
+		Atom toAtom() throws IOException {
+			if (atom == null)
+				atom = Atom.instantiate(type, source, start, length, offset);
+			return atom;
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Cursor for reading big-endian binary fields from the payload of an {@link Atom}.
+ * None of the read methods allocate, so a single reader can decode large tables cheaply;
+ * use {@link #reset(ByteBuffer, long)} to reuse a reader for another buffer.
+ * Reading past the end of the buffer throws an {@link AtomException}.
+ */
+public final class AtomReader {
+
+	/** The file being read, <code>null</code> when unknown */
+	private final File file;
+	/** The buffer being read */
+	private ByteBuffer buffer;
+	/** Position of the {@link Atom} in the file, used in error messages */
+	private long start;
+
+	/**
+	 * Construct a new reader for a buffer
+	 * @param buffer	The buffer to read, from its current position
+	 */
+	public AtomReader(ByteBuffer buffer) {
+		this(buffer, null, 0);
+	}
+
+	/**
+	 * Construct a new reader for a buffer read from an {@link Atom}
+	 * @param buffer	The buffer to read, from its current position
+	 * @param file	The file containing the {@link Atom}
+	 * @param start	The position of the {@link Atom} in the file
+	 */
+	public AtomReader(ByteBuffer buffer, File file, long start) {
+		this.file = file;
+		reset(buffer, start);
+	}
+
+	/**
+	 * Read another buffer
+	 * @param buffer	The buffer to read, from its current position
+	 * @param start	The position of the {@link Atom} in the file
+	 * @return	this reader
+	 */
+	public AtomReader reset(ByteBuffer buffer, long start) {
+		this.buffer = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.start = start;
+		return this;
+	}
+
+	/**
+	 * Make sure enough bytes remain
+	 * @param n	the amount of bytes that will be read
+	 * @throws AtomException	less than <code>n</code> bytes remain
+	 */
+	private void require(int n) throws AtomException {
+		if (buffer.remaining() < n)
+			throw new AtomException(file, start,
+					"Unexpected end of atom: "+n+" bytes needed at "+buffer.position()+", "+buffer.remaining()+" left");
+	}
+
+	/**
+	 * Get the position in the buffer
+	 * @return	the position
+	 */
+	public int position() {
+		return buffer.position();
+	}
+
+	/**
+	 * Move to a position in the buffer
+	 * @param position	the new position
+	 * @return	this reader
+	 */
+	public AtomReader position(int position) {
+		if (position < 0 || position > buffer.limit())
+			throw new AtomException(file, start, "Position "+position+" is outside the atom");
+		buffer.position(position);
+		return this;
+	}
+
+	/**
+	 * Get the amount of bytes that can still be read
+	 * @return	the amount of bytes
+	 */
+	public int remaining() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * Check whether bytes can still be read
+	 * @return	<code>true</code> if at least one byte remains
+	 */
+	public boolean hasRemaining() {
+		return buffer.hasRemaining();
+	}
+
+	/**
+	 * Skip bytes
+	 * @param n	the amount of bytes
+	 * @return	this reader
+	 * @throws AtomException	less than <code>n</code> bytes remain
+	 */
+	public AtomReader skip(int n) throws AtomException {
+		require(n);
+		buffer.position(buffer.position()+n);
+		return this;
+	}
+
+	/** @return the next byte, unsigned */
+	public int readUnsignedByte() throws AtomException {
+		require(1);
+		return buffer.get() & 0xFF;
+	}
+
+	/** @return the next byte, signed */
+	public int readSignedByte() throws AtomException {
+		require(1);
+		return buffer.get();
+	}
+
+	/** @return the next 16 bits, unsigned */
+	public int readUnsignedWord() throws AtomException {
+		require(2);
+		return buffer.getShort() & 0xFFFF;
+	}
+
+	/** @return the next 16 bits, signed */
+	public int readSignedWord() throws AtomException {
+		require(2);
+		return buffer.getShort();
+	}
+
+	/** @return the next 24 bits, unsigned */
+	public int readUnsigned24() throws AtomException {
+		require(3);
+		return (buffer.get() & 0xFF) << 16 | (buffer.getShort() & 0xFFFF);
+	}
+
+	/** @return the next 24 bits, signed */
+	public int readSigned24() throws AtomException {
+		require(3);
+		return buffer.get() << 16 | (buffer.getShort() & 0xFFFF);
+	}
+
+	/** @return the next 32 bits, unsigned */
+	public long readUnsignedInteger() throws AtomException {
+		require(4);
+		return buffer.getInt() & 0xFFFFFFFFL;
+	}
+
+	/** @return the next 32 bits, signed */
+	public int readSignedInteger() throws AtomException {
+		require(4);
+		return buffer.getInt();
+	}
+
+	/**
+	 * @return the next 64 bits, unsigned
+	 * @throws ArithmeticException	the value does not fit in 63 bits
+	 */
+	public long readUnsignedLong() throws AtomException, ArithmeticException {
+		final long result = readSignedLong();
+		if (result < 0)
+			throw new ArithmeticException("Long value greater than 63 bits; no primitive type can hold this.");
+		return result;
+	}
+
+	/** @return the next 64 bits, signed */
+	public long readSignedLong() throws AtomException {
+		require(8);
+		return buffer.getLong();
+	}
+
+	/**
+	 * Read a 32 or 64 bit unsigned value, as used by full boxes of which the version selects the field size
+	 * @param large	<code>true</code> for 64 bits
+	 * @return	the value
+	 */
+	public long readUnsigned(boolean large) throws AtomException {
+		return large ? readUnsignedLong() : readUnsignedInteger();
+	}
+
+	/** @return the next 16.16 fixed point number */
+	public double readFixed16() throws AtomException {
+		return readSignedInteger() / 65536.0;
+	}
+
+	/** @return the next 8.8 fixed point number */
+	public double readFixed8() throws AtomException {
+		return readSignedWord() / 256.0;
+	}
+
+	/** @return the next 2.30 fixed point number, as used in transformation matrices */
+	public double readFixed30() throws AtomException {
+		return readSignedInteger() / 1073741824.0;
+	}
+
+	/** @return the next four bytes as packed {@link FourCC} */
+	public int readFourCC() throws AtomException {
+		return readSignedInteger();
+	}
+
+	/**
+	 * Read the version and flags of a full box
+	 * @return	the version in the highest 8 bits and the flags in the lowest 24 bits
+	 */
+	public int readVersionAndFlags() throws AtomException {
+		return readSignedInteger();
+	}
+
+	/**
+	 * Read bytes into an array
+	 * @param dst	the array to fill
+	 * @return	this reader
+	 */
+	public AtomReader readBytes(byte[] dst) throws AtomException {
+		return readBytes(dst, 0, dst.length);
+	}
+
+	/**
+	 * Read bytes into an array
+	 * @param dst	the array
+	 * @param off	the first index in the array
+	 * @param len	the amount of bytes
+	 * @return	this reader
+	 */
+	public AtomReader readBytes(byte[] dst, int off, int len) throws AtomException {
+		require(len);
+		buffer.get(dst, off, len);
+		return this;
+	}
+
+	/**
+	 * Read a string of a known length
+	 * @param length	the amount of bytes
+	 * @param charset	the encoding of the string
+	 * @return	the string
+	 */
+	public String readString(int length, Charset charset) throws AtomException {
+		require(length);
+		final ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(bytes.position()+length);
+		buffer.position(buffer.position()+length);
+		return charset.decode(bytes).toString();
+	}
+
+}
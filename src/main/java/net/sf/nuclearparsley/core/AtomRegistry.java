@@ -0,0 +1,305 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry which maps {@link Atom} names to the {@link AtomFactory} that creates them.
+ * Names which are not registered are parsed heuristically:
+ * {@link Atom#instantiate(String, AtomSource, long, long, int)} tries to parse them
+ * as a {@link ParentAtom} and falls back to a generic {@link Atom}.
+ * Registering the known leaf types avoids this trial parse,
+ * which is expensive on big atoms like <code>mdat</code>.
+ */
+public final class AtomRegistry {
+
+	/** Creates a generic {@link Atom} without looking at its payload */
+	public static final AtomFactory LEAF = (name, source, start, length, offset) ->
+			new Atom(name, source, start, length, offset);
+	/** Creates a {@link ParentAtom} */
+	public static final AtomFactory CONTAINER = (name, source, start, length, offset) ->
+			new ParentAtom(name, source, start, length, offset);
+
+	/** Container atoms which don't need a specific type */
+	private static final int[] CONTAINERS = {
+		FourCC.MOOV, FourCC.TRAK, FourCC.EDTS, FourCC.MDIA, FourCC.MINF, FourCC.DINF, FourCC.STBL,
+		FourCC.UDTA, FourCC.ILST, FourCC.TREF, FourCC.MVEX, FourCC.MOOF, FourCC.TRAF, FourCC.MFRA,
+		FourCC.SINF, FourCC.SCHI, FourCC.GMHD, FourCC.RINF, FourCC.TAPT,
+	};
+	/** Leaf atoms which don't need a specific type */
+	private static final int[] LEAVES = {
+		FourCC.FTYP, FourCC.STYP, FourCC.MDAT, FourCC.FREE, FourCC.SKIP, FourCC.WIDE, FourCC.PDIN,
+		FourCC.UUID, FourCC.PNOT, FourCC.SIDX, FourCC.MVHD, FourCC.TKHD, FourCC.MDHD, FourCC.HDLR,
+		FourCC.IODS, FourCC.ELST, FourCC.VMHD, FourCC.SMHD, FourCC.HMHD, FourCC.NMHD, FourCC.GMIN,
+		FourCC.URL_, FourCC.URN_, FourCC.STPS, FourCC.SDTP, FourCC.SBGP, FourCC.SGPD, FourCC.SUBS,
+		FourCC.MEHD, FourCC.MFHD, FourCC.MFRO, FourCC.ESDS, FourCC.AVCC, FourCC.HVCC, FourCC.BTRT,
+		FourCC.PASP, FourCC.COLR, FourCC.CHPL, FourCC.LOAD, FourCC.KEYS, FourCC.FRMA, FourCC.SCHM,
+		FourCC.TENC, FourCC.PSSH, FourCC.SAIZ, FourCC.SAIO,
+	};
+
+	/** The registrations by packed name, used for registering */
+	private static final Map<Integer, Registration> REGISTRATIONS = new HashMap<Integer, Registration>();
+	/**
+	 * Copy of {@link #REGISTRATIONS} as open addressing table, used for lookups.
+	 * The table is replaced on every change, so lookups need neither locking nor boxing.
+	 */
+	private static volatile Registration[] table = new Registration[0];
+
+	static {
+		for(int type : CONTAINERS)
+			register(type, CONTAINER, true, 0);
+		for(int type : LEAVES)
+			register(type, LEAF, false, 0);
+		register(AVC1Atom.NAME, (name, source, start, length, offset) -> new AVC1Atom(source, start, length, offset), true, AVC1Atom.OFFSET);
+		register(CTTSAtom.NAME, (name, source, start, length, offset) -> new CTTSAtom(source, start, length, offset), false, CTTSAtom.OFFSET);
+		register(DataAtom.NAME, (name, source, start, length, offset) -> new DataAtom(source, start, length, offset), false, DataAtom.OFFSET);
+		register(DRefAtom.NAME, (name, source, start, length, offset) -> new DRefAtom(source, start, length, offset), true, DRefAtom.OFFSET);
+		register(FTabAtom.NAME, (name, source, start, length, offset) -> new FTabAtom(source, start, length, offset), false, FTabAtom.OFFSET);
+		register(MeanAtom.NAME, (name, source, start, length, offset) -> new MeanAtom(source, start, length, offset), false, MeanAtom.OFFSET);
+		register(MetaAtom.NAME, (name, source, start, length, offset) -> new MetaAtom(source, start, length, offset), true, MetaAtom.OFFSET);
+		register(MP4AAtom.NAME, (name, source, start, length, offset) -> new MP4AAtom(source, start, length, offset), true, MP4AAtom.OFFSET);
+		register(NameAtom.NAME, (name, source, start, length, offset) -> new NameAtom(source, start, length, offset), false, NameAtom.OFFSET);
+		register(STCOAtom.NAME, (name, source, start, length, offset) -> new STCOAtom(name, source, start, length, offset), false, STCOAtom.OFFSET);
+		register(STCOAtom.LARGE_NAME, (name, source, start, length, offset) -> new STCOAtom(name, source, start, length, offset), false, STCOAtom.OFFSET);
+		register(STSCAtom.NAME, (name, source, start, length, offset) -> new STSCAtom(source, start, length, offset), false, STSCAtom.OFFSET);
+		register(STSDAtom.NAME, (name, source, start, length, offset) -> new STSDAtom(source, start, length, offset), true, STSDAtom.OFFSET);
+		register(STSSAtom.NAME, (name, source, start, length, offset) -> new STSSAtom(source, start, length, offset), false, STSSAtom.OFFSET);
+		register(STSZAtom.NAME, (name, source, start, length, offset) -> new STSZAtom(name, source, start, length, offset), false, STSZAtom.OFFSET);
+		register(STSZAtom.COMPACT_NAME, (name, source, start, length, offset) -> new STSZAtom(name, source, start, length, offset), false, STSZAtom.OFFSET);
+		register(STTSAtom.NAME, (name, source, start, length, offset) -> new STTSAtom(source, start, length, offset), false, STTSAtom.OFFSET);
+		register(TFDTAtom.NAME, (name, source, start, length, offset) -> new TFDTAtom(source, start, length, offset), false, TFDTAtom.OFFSET);
+		register(TFHDAtom.NAME, (name, source, start, length, offset) -> new TFHDAtom(source, start, length, offset), false, TFHDAtom.OFFSET);
+		register(TFRAAtom.NAME, (name, source, start, length, offset) -> new TFRAAtom(source, start, length, offset), false, TFRAAtom.OFFSET);
+		register(TREXAtom.NAME, (name, source, start, length, offset) -> new TREXAtom(source, start, length, offset), false, TREXAtom.OFFSET);
+		register(TRUNAtom.NAME, (name, source, start, length, offset) -> new TRUNAtom(source, start, length, offset), false, TRUNAtom.OFFSET);
+		register(TX3GAtom.NAME, (name, source, start, length, offset) -> new TX3GAtom(source, start, length, offset), true, TX3GAtom.OFFSET);
+	}
+
+	private AtomRegistry() {/* no instantiating */}
+
+	/**
+	 * Register the factory for an {@link Atom} name, replacing any previous registration.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param factory	The factory creating {@link Atom}s with this name,
+	 * 		for example {@link #LEAF} or {@link #CONTAINER}
+	 * @param container	Whether the payload of these {@link Atom}s consists of child {@link Atom}s
+	 */
+	public static void register(String name, AtomFactory factory, boolean container) {
+		register(name, factory, container, 0);
+	}
+
+	/**
+	 * Register the factory for an {@link Atom} name which has some fields between its header and its payload,
+	 * replacing any previous registration.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param factory	The factory creating {@link Atom}s with this name
+	 * @param container	Whether the payload of these {@link Atom}s consists of child {@link Atom}s
+	 * @param payloadOffset	The amount of bytes between the header and the payload (or first child)
+	 */
+	public static void register(String name, AtomFactory factory, boolean container, int payloadOffset) {
+		if (name == null || name.length() != 4)
+			throw new IllegalArgumentException("An atom name consists of four bytes");
+		register(FourCC.pack(name), factory, container, payloadOffset);
+	}
+
+	/**
+	 * Register the factory for a packed {@link Atom} name, replacing any previous registration.
+	 * @param type	The packed name, see {@link FourCC}
+	 * @param factory	The factory creating {@link Atom}s with this name
+	 * @param container	Whether the payload of these {@link Atom}s consists of child {@link Atom}s
+	 * @param payloadOffset	The amount of bytes between the header and the payload (or first child)
+	 */
+	public static synchronized void register(int type, AtomFactory factory, boolean container, int payloadOffset) {
+		if (factory == null)
+			throw new NullPointerException("factory");
+		REGISTRATIONS.put(type, new Registration(type, factory, container, payloadOffset));
+		rebuild();
+	}
+
+	/**
+	 * Register an {@link Atom} name as a leaf, so it is created as a generic {@link Atom}
+	 * @param name	4-character name of the {@link Atom}
+	 */
+	public static void registerLeaf(String name) {
+		register(name, LEAF, false);
+	}
+
+	/**
+	 * Register an {@link Atom} name as a container, so it is created as a {@link ParentAtom}
+	 * @param name	4-character name of the {@link Atom}
+	 */
+	public static void registerContainer(String name) {
+		register(name, CONTAINER, true);
+	}
+
+	/**
+	 * Remove the registration for an {@link Atom} name,
+	 * so {@link Atom}s with this name are parsed heuristically.
+	 * @param name	4-character name of the {@link Atom}
+	 */
+	public static synchronized void unregister(String name) {
+		REGISTRATIONS.remove(FourCC.pack(name));
+		rebuild();
+	}
+
+	/**
+	 * Replace {@link #table} with a copy of {@link #REGISTRATIONS}
+	 */
+	private static void rebuild() {
+		int capacity = 16;
+		while(capacity < REGISTRATIONS.size()*2)
+			capacity <<= 1;
+		final Registration[] result = new Registration[capacity];
+		for(Registration registration : REGISTRATIONS.values()) {
+			int slot = slot(registration.type, capacity);
+			while(result[slot] != null)
+				slot = slot+1 & capacity-1;
+			result[slot] = registration;
+		}
+		table = result;
+	}
+
+	/**
+	 * @param type	The packed name
+	 * @param capacity	The size of the table
+	 * @return	the preferred slot for a packed name
+	 */
+	private static int slot(int type, int capacity) {
+		final int hash = type * 0x9E3779B9;
+		return (hash ^ hash >>> 16) & capacity-1;
+	}
+
+	/**
+	 * Look up a registration
+	 * @param type	The packed name
+	 * @return	The registration, or <code>null</code> if the name is unknown
+	 */
+	private static Registration lookup(int type) {
+		final Registration[] table = AtomRegistry.table;
+		if (table.length == 0)
+			return null;
+		int slot = slot(type, table.length);
+		Registration registration;
+		while((registration = table[slot]) != null) {
+			if (registration.type == type)
+				return registration;
+			slot = slot+1 & table.length-1;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the factory for an {@link Atom} name
+	 * @param name	4-character name of the {@link Atom}
+	 * @return	The registered factory, or <code>null</code> if the name is unknown
+	 */
+	public static AtomFactory get(String name) {
+		return get(FourCC.pack(name));
+	}
+
+	/**
+	 * Get the factory for a packed {@link Atom} name
+	 * @param type	The packed name, see {@link FourCC}
+	 * @return	The registered factory, or <code>null</code> if the name is unknown
+	 */
+	public static AtomFactory get(int type) {
+		final Registration registration = lookup(type);
+		return registration == null ? null : registration.factory;
+	}
+
+	/**
+	 * Check whether an {@link Atom} name is registered as a container
+	 * @param name	4-character name of the {@link Atom}
+	 * @return	<code>false</code> for registered leaves and unknown names
+	 */
+	public static boolean isContainer(String name) {
+		return isContainer(FourCC.pack(name));
+	}
+
+	/**
+	 * Check whether a packed {@link Atom} name is registered as a container
+	 * @param type	The packed name, see {@link FourCC}
+	 * @return	<code>false</code> for registered leaves and unknown names
+	 */
+	public static boolean isContainer(int type) {
+		final Registration registration = lookup(type);
+		return registration != null && registration.container;
+	}
+
+	/**
+	 * Get the amount of bytes between the header of a registered container and its first child
+	 * @param type	The packed name, see {@link FourCC}
+	 * @return	The offset, or -1 if the name is not registered as a container
+	 */
+	public static int childOffset(int type) {
+		final Registration registration = lookup(type);
+		return registration == null || !registration.container ? -1 : registration.payloadOffset;
+	}
+
+	/**
+	 * Get the amount of bytes between the header of a registered {@link Atom} and its payload
+	 * @param type	The packed name, see {@link FourCC}
+	 * @return	The offset, 0 for unknown names
+	 */
+	public static int payloadOffset(int type) {
+		final Registration registration = lookup(type);
+		return registration == null ? 0 : registration.payloadOffset;
+	}
+
+	/**
+	 * Check whether an {@link Atom} name is registered
+	 * @param name	4-character name of the {@link Atom}
+	 * @return	<code>false</code> if {@link Atom}s with this name are parsed heuristically
+	 */
+	public static boolean isKnown(String name) {
+		return isKnown(FourCC.pack(name));
+	}
+
+	/**
+	 * Check whether a packed {@link Atom} name is registered
+	 * @param type	The packed name, see {@link FourCC}
+	 * @return	<code>false</code> if {@link Atom}s with this name are parsed heuristically
+	 */
+	public static boolean isKnown(int type) {
+		return lookup(type) != null;
+	}
+
+	/**
+	 * What is known about a registered {@link Atom} name
+	 */
+	private static final class Registration {
+		/** The packed name */
+		final int type;
+		/** Creates the {@link Atom}s */
+		final AtomFactory factory;
+		/** Whether the payload consists of child {@link Atom}s */
+		final boolean container;
+		/** The amount of bytes between the header and the payload */
+		final int payloadOffset;
+
+		Registration(int type, AtomFactory factory, boolean container, int payloadOffset) {
+			this.type = type;
+			this.factory = factory;
+			this.container = container;
+			this.payloadOffset = payloadOffset;
+		}
+	}
+
+}
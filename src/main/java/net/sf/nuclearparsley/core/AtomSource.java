@@ -0,0 +1,181 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Shared datasource for all {@link Atom}s read from one file.
+ * The file is opened once and read through a single {@link FileChannel}
+ * using positional reads only, so the channel can be shared between
+ * all {@link Atom}s in the tree (and between threads) without seeking.
+ * The channel is opened on first use, and opened again when it is needed after {@link #close()}.
+ */
+public final class AtomSource implements Closeable {
+
+	/** The file being read */
+	public final File file;
+	/** When the children of {@link ParentAtom}s from this source are parsed */
+	public final ParseMode mode;
+	/** Where reads from this source are counted, <code>null</code> when metrics are disabled */
+	public final ParseMetrics metrics;
+	/** The channel, <code>null</code> when not opened (yet) */
+	private volatile FileChannel channel;
+
+	/**
+	 * Construct a new {@link AtomSource} for a file, which is parsed eagerly.
+	 * The file is not opened until it is read.
+	 * @param file	The file to read {@link Atom}s from
+	 */
+	public AtomSource(File file) {
+		this(file, ParseMode.EAGER);
+	}
+
+	/**
+	 * Construct a new {@link AtomSource} for a file.
+	 * The file is not opened until it is read.
+	 * Metrics are recorded when enabled with {@link ParseMetrics#setDefault(ParseMetrics)}.
+	 * @param file	The file to read {@link Atom}s from
+	 * @param mode	When the children of {@link ParentAtom}s are parsed
+	 */
+	public AtomSource(File file, ParseMode mode) {
+		this(file, mode, ParseMetrics.forParse());
+	}
+
+	/**
+	 * Construct a new {@link AtomSource} for a file.
+	 * The file is not opened until it is read.
+	 * @param file	The file to read {@link Atom}s from
+	 * @param mode	When the children of {@link ParentAtom}s are parsed
+	 * @param metrics	Where to record metrics, <code>null</code> to disable metrics
+	 */
+	public AtomSource(File file, ParseMode mode, ParseMetrics metrics) {
+		this.file = file;
+		this.mode = mode;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the channel for this source, opening it if needed.
+	 * @return	The open channel
+	 * @throws IOException	Opening the file failed
+	 */
+	public FileChannel channel() throws IOException {
+		FileChannel result = channel;
+		if (result == null || !result.isOpen()) {
+			synchronized (this) {
+				result = channel;
+				if (result == null || !result.isOpen()) {
+					final long begin = metrics == null ? 0 : System.nanoTime();
+					channel = result = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+					if (metrics != null) {
+						metrics.fileOpened();
+						metrics.time(ParseMetrics.Phase.OPEN, System.nanoTime() - begin);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the current length of the file.
+	 * @return	The length in bytes
+	 * @throws IOException	Reading the file size failed
+	 */
+	public long length() throws IOException {
+		return channel().size();
+	}
+
+	/**
+	 * Read from the file at an absolute position, without changing any file pointer.
+	 * Reading continues until <code>dst</code> is full or the end of the file is reached.
+	 * @param dst	The buffer to read into
+	 * @param position	Absolute position in the file
+	 * @return	The amount of bytes read, may be less than requested at the end of the file
+	 * @throws IOException	Reading the file failed
+	 */
+	public int read(ByteBuffer dst, long position) throws IOException {
+		final FileChannel channel = channel();
+		int total = 0;
+		while(dst.hasRemaining()) {
+			int read = channel.read(dst, position+total);
+			if (metrics != null)
+				metrics.read(Math.max(read, 0));
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Read exactly the remaining bytes of <code>dst</code> from an absolute position.
+	 * @param dst	The buffer to fill
+	 * @param position	Absolute position in the file
+	 * @throws EOFException	The end of the file was reached before <code>dst</code> was full
+	 * @throws IOException	Reading the file failed
+	 */
+	public void readFully(ByteBuffer dst, long position) throws IOException {
+		int expected = dst.remaining();
+		if (read(dst, position) < expected)
+			throw new EOFException("Unexpected end of file "+file+" at 0x"+Long.toHexString(position));
+	}
+
+	/**
+	 * Map a part of the file into memory, read-only.
+	 * The mapping stays valid until the buffer is garbage collected, also after {@link #close()}.
+	 * @param position	Absolute position in the file
+	 * @param size	The amount of bytes to map
+	 * @return	The mapped buffer
+	 * @throws IOException	Mapping the file failed
+	 */
+	public MappedByteBuffer map(long position, long size) throws IOException {
+		final MappedByteBuffer result = channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+		if (metrics != null)
+			metrics.mapped(size);
+		return result;
+	}
+
+	/**
+	 * Close the channel.
+	 * The source remains usable, a new channel is opened when the file is read again.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null)
+			channel.close();
+		channel = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Parser which reads {@link Atom}s from a stream in a single forward pass,
+ * reporting them to an {@link AtomVisitor} instead of building a tree.
+ * Unlike {@link RootAtom}, this works on non-seekable input such as sockets and pipes,
+ * and never holds more than {@link #bufferSize} bytes of the stream in memory.
+ * <p>
+ * Since the stream cannot be read twice, only {@link Atom}s registered as container
+ * in the {@link AtomRegistry} are descended into; all other {@link Atom}s are reported as leaves.
+ * Content the {@link AtomVisitor} is not interested in is skipped,
+ * using {@link SeekableByteChannel#position(long)} when the channel supports it.
+ */
+public class AtomStreamParser {
+
+	/** Default size of the read buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 0x10000;
+
+	/** Size of the read buffer, and thus the maximum size of a payload chunk */
+	public final int bufferSize;
+
+	/**
+	 * Construct a new {@link AtomStreamParser} with a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes
+	 */
+	public AtomStreamParser() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Construct a new {@link AtomStreamParser}
+	 * @param bufferSize	Size of the read buffer in bytes
+	 */
+	public AtomStreamParser(int bufferSize) {
+		if (bufferSize < ParentAtom.LARGE_HEADER)
+			throw new IllegalArgumentException("The buffer must be able to hold an atom header");
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Parse all {@link Atom}s in a stream.
+	 * The stream is read until its end, but not closed.
+	 * @param input	The stream to read
+	 * @param visitor	Receives the {@link Atom}s
+	 * @return	The amount of bytes read
+	 * @throws AtomException	The stream does not contain valid {@link Atom}s
+	 * @throws IOException	Reading the stream failed
+	 */
+	public long parse(InputStream input, AtomVisitor visitor) throws AtomException, IOException {
+		return parse(Channels.newChannel(input), visitor);
+	}
+
+	/**
+	 * Parse all {@link Atom}s in a blocking channel.
+	 * The channel is read until its end, but not closed.
+	 * @param input	The channel to read
+	 * @param visitor	Receives the {@link Atom}s
+	 * @return	The amount of bytes read
+	 * @throws AtomException	The stream does not contain valid {@link Atom}s
+	 * @throws IOException	Reading the stream failed
+	 */
+	public long parse(ReadableByteChannel input, AtomVisitor visitor) throws AtomException, IOException {
+		return new Run(input, visitor).parse();
+	}
+
+	/**
+	 * State of a single call to {@link AtomStreamParser#parse(ReadableByteChannel, AtomVisitor)}
+	 */
+	private final class Run {
+
+		/** The channel being read */
+		private final ReadableByteChannel input;
+		/** Receives the {@link Atom}s */
+		private final AtomVisitor visitor;
+		/** Bytes read from input but not consumed yet */
+		private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+		/** Containers which have been entered but not exited */
+		private final Deque<Frame> stack = new ArrayDeque<Frame>();
+		/** Position in the stream of the next byte in buffer */
+		private long position;
+
+		Run(ReadableByteChannel input, AtomVisitor visitor) {
+			this.input = input;
+			this.visitor = visitor;
+			buffer.flip();
+		}
+
+		/**
+		 * Read the stream until its end
+		 * @return	The amount of bytes read
+		 * @throws IOException	Reading the stream failed
+		 */
+		long parse() throws IOException {
+			while(true) {
+				while(!stack.isEmpty() && position >= stack.peek().end) {
+					final Frame frame = stack.pop();
+					visitor.exitAtom(frame.name, frame.start, frame.length, stack.size());
+				}
+				if (!fill(ParentAtom.HEADER)) {
+					if (buffer.hasRemaining() || !stack.isEmpty())
+						throw new AtomException(null, position, "Unexpected end of stream");
+					return position;
+				}
+				final long start = position;
+				long length = buffer.getInt() & 0x00000000FFFFFFFFL; // Unsigned positive integer
+				final int type = buffer.getInt();
+				int offset = ParentAtom.HEADER;
+				if (length == 1) {
+					if (!fill(0x8))
+						throw new AtomException(null, start, "Unexpected end of stream");
+					length = buffer.getLong();
+					offset += 0x8;
+				}
+				position += offset;
+				if (length < offset)
+					throw new AtomException(null, start, "Invalid Atom length ("+length+")");
+				if (!FourCC.isValid(type))
+					throw new AtomException(null, start, "Invalid Atom name");
+				final String string = FourCC.toString(type);
+				if (!stack.isEmpty() && start+length > stack.peek().end)
+					throw new AtomException(null, stack.peek().start, "Atom "+string+" is larger than its enclosing atom.");
+				final int depth = stack.size();
+				final int childOffset = AtomRegistry.childOffset(type);
+				final boolean wanted = visitor.enterAtom(string, start, length, offset, depth);
+				if (wanted && childOffset >= 0 && offset+childOffset <= length) {
+					skip(childOffset);
+					stack.push(new Frame(string, start, length));
+				} else {
+					if (wanted)
+						deliver(length-offset);
+					else
+						skip(length-offset);
+					visitor.exitAtom(string, start, length, depth);
+				}
+			}
+		}
+
+		/**
+		 * Make sure the buffer holds at least a number of unconsumed bytes
+		 * @param needed	the amount of bytes needed
+		 * @return	<code>false</code> if the end of the stream was reached first
+		 * @throws IOException	Reading the stream failed
+		 */
+		private boolean fill(int needed) throws IOException {
+			if (buffer.remaining() >= needed)
+				return true;
+			buffer.compact();
+			try {
+				while(buffer.position() < needed)
+					if (input.read(buffer) < 0)
+						return false;
+				return true;
+			} finally {
+				buffer.flip();
+			}
+		}
+
+		/**
+		 * Pass bytes to {@link AtomVisitor#payload(ByteBuffer, long)}, one buffer at a time
+		 * @param remaining	the amount of bytes to pass
+		 * @throws IOException	Reading the stream failed
+		 */
+		private void deliver(long remaining) throws IOException {
+			while(remaining > 0) {
+				if (!fill(1))
+					throw new AtomException(null, position, "Unexpected end of stream");
+				final int count = (int) Math.min(remaining, buffer.remaining());
+				final ByteBuffer chunk = buffer.slice();
+				chunk.limit(count);
+				visitor.payload(chunk.asReadOnlyBuffer(), position);
+				buffer.position(buffer.position()+count);
+				position += count;
+				remaining -= count;
+			}
+		}
+
+		/**
+		 * Skip bytes without passing them to the {@link AtomVisitor}
+		 * @param remaining	the amount of bytes to skip
+		 * @throws IOException	Reading the stream failed
+		 */
+		private void skip(long remaining) throws IOException {
+			final int buffered = (int) Math.min(remaining, buffer.remaining());
+			buffer.position(buffer.position()+buffered);
+			position += buffered;
+			remaining -= buffered;
+			if (remaining > 0 && input instanceof SeekableByteChannel) {
+				final SeekableByteChannel seekable = (SeekableByteChannel) input;
+				final long target = seekable.position()+remaining;
+				if (target > seekable.size())
+					throw new AtomException(null, position, "Unexpected end of stream");
+				seekable.position(target);
+				position += remaining;
+				return;
+			}
+			while(remaining > 0) {
+				if (!fill(1))
+					throw new AtomException(null, position, "Unexpected end of stream");
+				final int count = (int) Math.min(remaining, buffer.remaining());
+				buffer.position(buffer.position()+count);
+				position += count;
+				remaining -= count;
+			}
+		}
+
+	}
+
+	/**
+	 * A container which has been entered
+	 */
+	private static final class Frame {
+		/** 4-character name of the container */
+		final String name;
+		/** Starting pointer of the container in the stream */
+		final long start;
+		/** Length of the container in bytes */
+		final long length;
+		/** Position of the first byte after the container */
+		final long end;
+
+		Frame(String name, long start, long length) {
+			this.name = name;
+			this.start = start;
+			this.length = length;
+			this.end = start+length;
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the {@link Atom}s found by an {@link AtomStreamParser}, in file order.
+ * Every call to {@link #enterAtom(String, long, long, int, int)} is matched by a call to
+ * {@link #exitAtom(String, long, long, int)}; the children of a container
+ * and the payload of a leaf are reported in between.
+ */
+public interface AtomVisitor {
+
+	/**
+	 * An {@link Atom} header has been read.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param start	Starting pointer of the {@link Atom} in the stream
+	 * @param length	Length of the {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 * @param depth	Nesting depth, 0 for top level {@link Atom}s
+	 * @return	For containers, whether the children should be reported;
+	 * 		for leaves, whether the payload should be passed to {@link #payload(ByteBuffer, long)}.
+	 * 		When <code>false</code>, the content is skipped without being buffered.
+	 */
+	boolean enterAtom(String name, long start, long length, int offset, int depth);
+
+	/**
+	 * A chunk of the payload of the current leaf {@link Atom}.
+	 * The chunks of one payload are reported in order and are adjacent.
+	 * @param chunk	Read-only view of the data, only valid during this call
+	 * @param position	Position of the first byte of chunk in the stream
+	 */
+	default void payload(ByteBuffer chunk, long position) {
+		/* Not interested */
+	}
+
+	/**
+	 * The end of an {@link Atom} has been reached.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param start	Starting pointer of the {@link Atom} in the stream
+	 * @param length	Length of the {@link Atom} in bytes (including offset)
+	 * @param depth	Nesting depth, 0 for top level {@link Atom}s
+	 */
+	default void exitAtom(String name, long start, long length, int depth) {
+		/* Not interested */
+	}
+
+}
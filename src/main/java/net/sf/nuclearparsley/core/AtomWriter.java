@@ -0,0 +1,436 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a (modified) {@link RootAtom} tree to a new file.
+ * <p>
+ * {@link Atom}s which did not change are copied from their file using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the operating system can copy the media data without it passing through the Java heap.
+ * Only {@link ParentAtom}s which are modified, or which contain a chunk offset table, are written
+ * atom by atom.
+ * </p><p>
+ * Chunk offset tables (<code>stco</code> and <code>co64</code>) point to absolute positions in the file,
+ * usually inside <code>mdat</code>. When the {@link Atom}s they point into move, the offsets are patched.
+ * An <code>stco</code> table of which an offset no longer fits in 32 bits is written as <code>co64</code>.
+ * </p>
+ */
+public class AtomWriter {
+
+	/** Size of the version, flags and entry count of a chunk offset table */
+	private static final int TABLE_HEADER = 8;
+
+	/** The tree to write */
+	public final RootAtom root;
+	/** Size of the <code>free</code> {@link Atom} written after <code>moov</code>, 0 for none */
+	public final long padding;
+
+	/** Encoded lengths of the {@link Atom}s which are written atom by atom */
+	private final Map<Atom, Long> lengths = new IdentityHashMap<Atom, Long>();
+	/** Whether a {@link ParentAtom} contains a chunk offset table */
+	private final Map<Atom, Boolean> containsTable = new IdentityHashMap<Atom, Boolean>();
+	/** The original offsets of the chunk offset tables */
+	private final Map<Atom, long[]> tables = new IdentityHashMap<Atom, long[]>();
+	/** The chunk offset tables written as <code>co64</code> */
+	private final Map<Atom, Boolean> wide = new IdentityHashMap<Atom, Boolean>();
+	/** The copied {@link Atom}s of each source, sorted by their original position */
+	private final Map<AtomSource, List<Region>> regions = new HashMap<AtomSource, List<Region>>();
+
+	/**
+	 * Construct a new {@link AtomWriter}
+	 * @param root	The tree to write
+	 */
+	public AtomWriter(RootAtom root) {
+		this(root, 0);
+	}
+
+	/**
+	 * Construct a new {@link AtomWriter}
+	 * @param root	The tree to write
+	 * @param padding	Size of a <code>free</code> {@link Atom} to write after <code>moov</code>,
+	 *               	so later changes can be saved in place; 0 for none
+	 */
+	public AtomWriter(RootAtom root, long padding) {
+		if (padding != 0 && padding < ParentAtom.HEADER)
+			throw new IllegalArgumentException("Padding must be 0 or at least "+ParentAtom.HEADER+" bytes");
+		this.root = root;
+		this.padding = padding;
+	}
+
+	/**
+	 * Check whether the movie header of a file precedes its media data,
+	 * so the file can be played while it is being downloaded.
+	 * @param root	The tree of the file
+	 * @return	<code>false</code> if an <code>mdat</code> {@link Atom} comes before the <code>moov</code> {@link Atom}
+	 */
+	public static boolean isFastStart(RootAtom root) {
+		for(Atom child : root) {
+			if (child.type == FourCC.MOOV)
+				return true;
+			if (child.type == FourCC.MDAT)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write a file with the <code>moov</code> {@link Atom} moved directly before the first <code>mdat</code> {@link Atom}.
+	 * The chunk offsets are computed from the tree before anything is written,
+	 * so the file is written in a single pass: the patched <code>moov</code> first,
+	 * and then the media data, which is copied without passing through the Java heap.
+	 * Only the chunk offset tables are kept in memory.
+	 * The tree itself is not changed.
+	 * @param root	The tree of the file, preferably parsed in {@link ParseMode#LAZY} mode
+	 * @param destination	The file to write
+	 * @param padding	Size of a <code>free</code> {@link Atom} to write after <code>moov</code>; 0 for none
+	 * @return	The amount of bytes written
+	 * @throws AtomException	The file has no <code>moov</code> {@link Atom}, or its chunk offsets are invalid
+	 * @throws IOException	Reading or writing a file failed
+	 */
+	public static long fastStart(RootAtom root, File destination, long padding) throws AtomException, IOException {
+		final List<Atom> children = new ArrayList<Atom>(root);
+		Atom moov = null;
+		for(Atom child : children)
+			if (child.type == FourCC.MOOV)
+				moov = child;
+		if (moov == null)
+			throw new AtomException(root.file, 0, "File has no moov atom");
+		children.remove(moov);
+		int index = 0;
+		while(index < children.size() && children.get(index).type != FourCC.MDAT)
+			index++;
+		children.add(index, moov);
+		return new AtomWriter(new RootAtom(root.source, root.length, children), padding).write(destination);
+	}
+
+	/**
+	 * Write the tree to a file, replacing its content.
+	 * The file must not be the file the tree was read from.
+	 * @param destination	The file to write
+	 * @return	The amount of bytes written
+	 * @throws AtomException	A chunk offset table is invalid, or points outside the copied {@link Atom}s
+	 * @throws IOException	Reading or writing a file failed
+	 */
+	public long write(File destination) throws AtomException, IOException {
+		if (root.file != null && destination.getCanonicalFile().equals(root.file.getCanonicalFile()))
+			throw new IllegalArgumentException("Cannot write "+destination+" while reading from it");
+		prepare(root);
+		long length;
+		do {
+			regions.clear();
+			length = measure(root);
+			place(root, 0);
+			for(List<Region> list : regions.values())
+				list.sort(Comparator.comparingLong(region -> region.start));
+		} while (widen());
+		try (FileChannel output = FileChannel.open(destination.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for(Atom child : root) {
+				write(child, output);
+				if (child.type == FourCC.MOOV && padding > 0)
+					writePadding(output);
+			}
+			if (output.position() != length)
+				throw new IOException("Wrote "+output.position()+" bytes instead of "+length);
+			output.force(false);
+		}
+		return length;
+	}
+
+	/**
+	 * Find the chunk offset tables and the {@link ParentAtom}s containing them, and read the tables
+	 * @param atom	The {@link Atom} to search
+	 * @return	<code>true</code> if the {@link Atom} is or contains a chunk offset table
+	 * @throws IOException	Reading the file failed
+	 */
+	private boolean prepare(Atom atom) throws IOException {
+		if (isTable(atom)) {
+			tables.put(atom, readTable(atom));
+			wide.put(atom, atom.type == FourCC.CO64);
+			return true;
+		}
+		if (!(atom instanceof ParentAtom))
+			return false;
+		boolean result = false;
+		for(Atom child : (ParentAtom) atom)
+			result |= prepare(child);
+		containsTable.put(atom, result);
+		return result;
+	}
+
+	/**
+	 * Check whether an {@link Atom} is a chunk offset table which is read from a file
+	 * @param atom	The {@link Atom}
+	 * @return	<code>true</code> for unmodified <code>stco</code> and <code>co64</code> {@link Atom}s
+	 */
+	private static boolean isTable(Atom atom) {
+		return (atom.type == FourCC.STCO || atom.type == FourCC.CO64) && atom.source != null && !atom.isModified();
+	}
+
+	/**
+	 * Check whether a {@link ParentAtom} is written atom by atom instead of copied
+	 * @param atom	The {@link Atom}
+	 * @return	<code>true</code> if the {@link Atom} is modified or contains a chunk offset table
+	 */
+	private boolean isRebuilt(Atom atom) {
+		return atom instanceof ParentAtom && (atom.isModified() || containsTable.get(atom) == Boolean.TRUE);
+	}
+
+	/**
+	 * Read the offsets in a chunk offset table
+	 * @param table	The <code>stco</code> or <code>co64</code> {@link Atom}
+	 * @return	The offsets
+	 * @throws AtomException	The table is invalid
+	 * @throws IOException	Reading the file failed
+	 */
+	private static long[] readTable(Atom table) throws AtomException, IOException {
+		final long size = table.length - table.offset;
+		if (size < TABLE_HEADER || size > Integer.MAX_VALUE)
+			throw new AtomException(table.file, table.start, "Invalid chunk offset table length ("+size+")");
+		final ByteBuffer payload = ByteBuffer.allocate((int) size);
+		table.source.readFully(payload, table.start+table.offset);
+		final int width = table.type == FourCC.CO64 ? 8 : 4;
+		final long count = payload.getInt(4) & 0xFFFFFFFFL;
+		if (count * width > size - TABLE_HEADER)
+			throw new AtomException(table.file, table.start, "Chunk offset table has "+count+" entries");
+		final long[] result = new long[(int) count];
+		for(int i=0;i<result.length;i++)
+			result[i] = width == 8 ? payload.getLong(TABLE_HEADER+8*i) : payload.getInt(TABLE_HEADER+4*i) & 0xFFFFFFFFL;
+		return result;
+	}
+
+	/**
+	 * Compute the length of an {@link Atom} in the new file
+	 * @param atom	The {@link Atom}
+	 * @return	The length of the {@link Atom} in the new file
+	 * @throws IOException	Reading the file failed
+	 */
+	private long measure(Atom atom) throws IOException {
+		long result;
+		if (tables.containsKey(atom)) {
+			result = ParentAtom.HEADER + TABLE_HEADER + (long) tables.get(atom).length * (wide.get(atom) ? 8 : 4);
+		} else if (atom == root) {
+			result = 0;
+			for(Atom child : root)
+				result += measure(child) + (child.type == FourCC.MOOV ? padding : 0);
+		} else if (isRebuilt(atom)) {
+			final ParentAtom parent = (ParentAtom) atom;
+			result = ParentAtom.HEADER + parent.offset - parent.headerLength();
+			for(Atom child : parent)
+				result += measure(child);
+			if (result > 0xFFFFFFFFL)
+				result += ParentAtom.LARGE_HEADER - ParentAtom.HEADER;
+		} else {
+			result = atom.getEncodedLength();
+		}
+		lengths.put(atom, result);
+		return result;
+	}
+
+	/**
+	 * Remember where the copied {@link Atom}s end up in the new file
+	 * @param atom	The {@link Atom}, of which the length has been measured
+	 * @param position	The position of the {@link Atom} in the new file
+	 */
+	private void place(Atom atom, long position) {
+		if (atom == root || isRebuilt(atom)) {
+			final ParentAtom parent = (ParentAtom) atom;
+			/* The children follow the header and the bytes before the first child */
+			long pointer = position;
+			if (atom != root) {
+				pointer += lengths.get(atom);
+				for(Atom child : parent)
+					pointer -= lengths.get(child);
+			}
+			for(Atom child : parent) {
+				place(child, pointer);
+				pointer += lengths.get(child) + (atom == root && child.type == FourCC.MOOV ? padding : 0);
+			}
+		} else if (atom.source != null && !atom.isModified() && !tables.containsKey(atom)) {
+			List<Region> list = regions.get(atom.source);
+			if (list == null)
+				regions.put(atom.source, list = new ArrayList<Region>());
+			list.add(new Region(atom.start, atom.length, position));
+		}
+	}
+
+	/**
+	 * Switch the <code>stco</code> tables of which an offset does not fit in 32 bits to <code>co64</code>
+	 * @return	<code>true</code> if a table was switched, so the layout changed
+	 * @throws AtomException	An offset points outside the copied {@link Atom}s
+	 */
+	private boolean widen() throws AtomException {
+		boolean result = false;
+		for(Map.Entry<Atom, long[]> table : tables.entrySet()) {
+			if (wide.get(table.getKey()))
+				continue;
+			for(long offset : table.getValue()) {
+				if (map(table.getKey(), offset) > 0xFFFFFFFFL) {
+					wide.put(table.getKey(), true);
+					result = true;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the position of a chunk in the new file
+	 * @param table	The chunk offset table
+	 * @param offset	The original position of the chunk
+	 * @return	The new position of the chunk
+	 * @throws AtomException	The chunk is not inside a copied {@link Atom}
+	 */
+	private long map(Atom table, long offset) throws AtomException {
+		final List<Region> list = regions.get(table.source);
+		if (list != null) {
+			int low = 0;
+			int high = list.size()-1;
+			while(low <= high) {
+				final int middle = (low+high) >>> 1;
+				final Region region = list.get(middle);
+				if (offset < region.start)
+					high = middle-1;
+				else if (offset >= region.start+region.length)
+					low = middle+1;
+				else
+					return region.position + offset - region.start;
+			}
+		}
+		throw new AtomException(table.file, table.start,
+				"Chunk offset 0x"+Long.toHexString(offset)+" does not point into an atom that is copied");
+	}
+
+	/**
+	 * Write an {@link Atom} at the current position of the output
+	 * @param atom	The {@link Atom}
+	 * @param output	The file to write
+	 * @throws IOException	Reading or writing a file failed
+	 */
+	private void write(Atom atom, FileChannel output) throws IOException {
+		final long length = lengths.get(atom);
+		if (tables.containsKey(atom)) {
+			final long[] offsets = tables.get(atom);
+			final boolean wide = this.wide.get(atom);
+			final ByteBuffer result = ByteBuffer.allocate((int) length);
+			Atom.writeHeader(result, wide ? FourCC.CO64 : FourCC.STCO, length);
+			final ByteBuffer flags = ByteBuffer.allocate(4);
+			atom.source.readFully(flags, atom.start+atom.offset);
+			result.put(flags.array()).putInt(offsets.length);
+			for(long offset : offsets) {
+				if (wide)
+					result.putLong(map(atom, offset));
+				else
+					result.putInt((int) map(atom, offset));
+			}
+			result.flip();
+			writeFully(result, output);
+		} else if (isRebuilt(atom)) {
+			final ParentAtom parent = (ParentAtom) atom;
+			final ByteBuffer header = ByteBuffer.allocate(ParentAtom.LARGE_HEADER + parent.offset);
+			Atom.writeHeader(header, atom.type, length);
+			final int headerLength = parent.headerLength();
+			if (parent.offset > headerLength) {
+				header.limit(header.position() + parent.offset - headerLength);
+				parent.source.readFully(header, parent.start + headerLength);
+			}
+			header.flip();
+			writeFully(header, output);
+			for(Atom child : parent)
+				write(child, output);
+		} else if (atom.source != null && !atom.isModified()) {
+			final FileChannel input = atom.source.channel();
+			long done = 0;
+			while(done < atom.length) {
+				final long transferred = input.transferTo(atom.start+done, atom.length-done, output);
+				if (transferred <= 0)
+					throw new IOException("Unexpected end of file "+atom.file+" at 0x"+Long.toHexString(atom.start+done));
+				done += transferred;
+			}
+		} else {
+			final ByteBuffer result = ByteBuffer.allocate((int) length);
+			atom.encode(result);
+			result.flip();
+			writeFully(result, output);
+		}
+	}
+
+	/**
+	 * Write a <code>free</code> {@link Atom} of {@link #padding} bytes
+	 * @param output	The file to write
+	 * @throws IOException	Writing the file failed
+	 */
+	private void writePadding(FileChannel output) throws IOException {
+		final ByteBuffer free = ByteBuffer.allocate((int) Math.min(padding, 0x10000));
+		Atom.writeHeader(free, FourCC.FREE, padding);
+		free.position(0);
+		long remaining = padding;
+		while(remaining > 0) {
+			free.limit((int) Math.min(free.capacity(), remaining));
+			remaining -= free.remaining();
+			writeFully(free, output);
+			free.clear();
+			Arrays.fill(free.array(), (byte) 0);
+		}
+	}
+
+	/**
+	 * Write all remaining bytes of a buffer
+	 * @param buffer	The bytes to write
+	 * @param output	The file to write
+	 * @throws IOException	Writing the file failed
+	 */
+	private static void writeFully(ByteBuffer buffer, FileChannel output) throws IOException {
+		while(buffer.hasRemaining())
+			output.write(buffer);
+	}
+
+	/**
+	 * An {@link Atom} which is copied to the new file
+	 */
+	private static final class Region {
+		/** the original position of the {@link Atom} */
+		final long start;
+		/** the length of the {@link Atom} */
+		final long length;
+		/** the position of the {@link Atom} in the new file */
+		long position;
+
+		Region(long start, long length, long position) {
+			this.start = start;
+			this.length = length;
+			this.position = position;
+		}
+	}
+
+}
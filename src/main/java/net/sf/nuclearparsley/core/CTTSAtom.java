@@ -0,0 +1,99 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Composition Time to Sample Atom (<code>ctts</code>).
+ * Runs of samples with the same offset between decode time and composition (presentation) time.
+ * Version 0 tables have unsigned offsets, version 1 tables have signed offsets.
+ */
+public class CTTSAtom extends TableAtom {
+
+	public static final String NAME = "ctts";
+
+	public static final int OFFSET = 0;
+
+	/** Amount of samples in each run */
+	private int[] counts;
+	/** Composition offset of the samples in each run */
+	private long[] offsets;
+	/** Index of the first sample of each run */
+	private long[] firstSamples;
+	/** Total amount of samples */
+	private long sampleCount;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected CTTSAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		final boolean signed = version > 0;
+		final int count = entries(reader, reader.readUnsignedInteger(), 8);
+		counts = new int[count];
+		offsets = new long[count];
+		firstSamples = new long[count];
+		long sample = 0;
+		for(int i=0;i<count;i++) {
+			counts[i] = reader.readSignedInteger();
+			offsets[i] = signed ? reader.readSignedInteger() : reader.readUnsignedInteger();
+			firstSamples[i] = sample;
+			sample += counts[i] & 0xFFFFFFFFL;
+		}
+		sampleCount = sample;
+	}
+
+	/**
+	 * @return	The amount of runs in the table
+	 */
+	public int getEntryCount() {
+		decoded();
+		return counts.length;
+	}
+
+	/**
+	 * @return	The amount of samples described by the table
+	 */
+	public long getSampleCount() {
+		decoded();
+		return sampleCount;
+	}
+
+	/**
+	 * Get the composition offset of a sample, in O(log n) for n runs
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	The offset to add to the decode time, in media timescale units;
+	 *        	0 for samples not described by the table
+	 */
+	public long getOffset(long sample) {
+		decoded();
+		if (sample < 0 || sample >= sampleCount)
+			return 0;
+		return offsets[floor(firstSamples, sample)];
+	}
+
+}
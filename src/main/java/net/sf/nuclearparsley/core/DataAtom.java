@@ -1,6 +1,5 @@
 package net.sf.nuclearparsley.core;
 
-import java.io.File;
 import java.io.IOException;
 
 /**
@@ -11,19 +10,30 @@ public class DataAtom extends Atom {
 
 	public static final String NAME = "data";
 
+	/** The type indicator and locale precede the value */
 	public static final int OFFSET = 8;
 
+	/** The version (highest 8 bits) and well-known type of the value (lowest 24 bits) */
+	public final int dataType;
+	/** The locale of the value, 0 for the default */
+	public final int locale;
+
 	/**
-	 * @param input	Atoms are read from this file
+	 * @param input	Atoms are read from this source
 	 * @param start	Starting pointer of this {@link Atom} in input file
 	 * @param length	Length of this {@link Atom} in bytes (including offset)
 	 * @param offset	The starting point of the atom payload from the start of the atom
 	 * @throws AtomException	Reading the {@link Atom} failed
 	 * @throws IOException	Reading the file failed
 	 */
-	protected DataAtom(File input, long start, long length, int offset)
+	protected DataAtom(AtomSource input, long start, long length, int offset)
 			throws AtomException, IOException {
 		super(NAME, input, start, length, offset+OFFSET);
+		if (length < this.offset)
+			throw new AtomException(file, start, "Atom data is too short for its type and locale");
+		final AtomReader reader = new AtomReader(getHeaderBuffer(), file, start).skip(offset);
+		dataType = reader.readSignedInteger();
+		locale = reader.readSignedInteger();
 	}
 
 }
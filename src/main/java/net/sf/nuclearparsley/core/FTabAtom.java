@@ -1,8 +1,7 @@
 package net.sf.nuclearparsley.core;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -16,7 +15,8 @@ public class FTabAtom extends Atom implements Map<Integer, String> {
 
 	public static final String NAME = "ftab";
 
-	public static final int OFFSET = 8;
+	/** The payload starts directly after the header, with the amount of fonts */
+	public static final int OFFSET = 0;
 
 	protected static final Map<Integer, String> M_SERIF;
 	protected static final Map<Integer, String> M_SANS_SERIF;
@@ -27,20 +27,23 @@ public class FTabAtom extends Atom implements Map<Integer, String> {
 	private final LinkedHashMap<Integer, String> fonts;
 
 	/**
-	 * @param input	Atoms are read from this file
+	 * @param input	Atoms are read from this source
 	 * @param start	Starting pointer of this {@link Atom} in input file
 	 * @param length	Length of this {@link Atom} in bytes (including offset)
 	 * @param offset	The starting point of the atom payload from the start of the atom
 	 * @throws AtomException	Reading the {@link Atom} failed
 	 * @throws IOException	Reading the file failed
 	 */
-	protected FTabAtom(File input, long start, long length, int offset)
+	protected FTabAtom(AtomSource input, long start, long length, int offset)
 			throws AtomException, IOException {
-		super(NAME, input, start, length, offset+8);
+		super(NAME, input, start, length, offset+OFFSET);
 		fonts = new LinkedHashMap<Integer, String>();
-		InputStream stream = super.getPayloadStream();
-		int count = readUnsignedWord(stream);
-		
+		final AtomReader reader = getPayloadReader();
+		final int count = reader.readUnsignedWord();
+		for(int i=0;i<count;i++) {
+			final int id = reader.readUnsignedWord();
+			fonts.put(id, reader.readString(reader.readUnsignedByte(), StandardCharsets.UTF_8));
+		}
 	}
 	
 	static {
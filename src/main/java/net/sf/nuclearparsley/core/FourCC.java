@@ -0,0 +1,352 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Four character code identifying the type of an {@link Atom}, packed big-endian into an int.
+ * Comparing and dispatching on the packed value avoids decoding a {@link String} for every {@link Atom};
+ * the {@link String} form returned by {@link #toString(int)} is cached and interned.
+ * <p>
+ * The constants in this class are the packed values of well known {@link Atom} names,
+ * a space in the name is replaced by an underscore.
+ */
+public final class FourCC implements Comparable<FourCC> {
+
+	/** <code>ftyp</code> */
+	public static final int FTYP = 0x66747970;
+	/** <code>styp</code> */
+	public static final int STYP = 0x73747970;
+	/** <code>mdat</code> */
+	public static final int MDAT = 0x6D646174;
+	/** <code>free</code> */
+	public static final int FREE = 0x66726565;
+	/** <code>skip</code> */
+	public static final int SKIP = 0x736B6970;
+	/** <code>wide</code> */
+	public static final int WIDE = 0x77696465;
+	/** <code>pdin</code> */
+	public static final int PDIN = 0x7064696E;
+	/** <code>uuid</code> */
+	public static final int UUID = 0x75756964;
+	/** <code>pnot</code> */
+	public static final int PNOT = 0x706E6F74;
+	/** <code>sidx</code> */
+	public static final int SIDX = 0x73696478;
+	/** <code>moov</code> */
+	public static final int MOOV = 0x6D6F6F76;
+	/** <code>trak</code> */
+	public static final int TRAK = 0x7472616B;
+	/** <code>edts</code> */
+	public static final int EDTS = 0x65647473;
+	/** <code>mdia</code> */
+	public static final int MDIA = 0x6D646961;
+	/** <code>minf</code> */
+	public static final int MINF = 0x6D696E66;
+	/** <code>dinf</code> */
+	public static final int DINF = 0x64696E66;
+	/** <code>stbl</code> */
+	public static final int STBL = 0x7374626C;
+	/** <code>udta</code> */
+	public static final int UDTA = 0x75647461;
+	/** <code>ilst</code> */
+	public static final int ILST = 0x696C7374;
+	/** <code>tref</code> */
+	public static final int TREF = 0x74726566;
+	/** <code>mvex</code> */
+	public static final int MVEX = 0x6D766578;
+	/** <code>moof</code> */
+	public static final int MOOF = 0x6D6F6F66;
+	/** <code>traf</code> */
+	public static final int TRAF = 0x74726166;
+	/** <code>mfra</code> */
+	public static final int MFRA = 0x6D667261;
+	/** <code>sinf</code> */
+	public static final int SINF = 0x73696E66;
+	/** <code>schi</code> */
+	public static final int SCHI = 0x73636869;
+	/** <code>gmhd</code> */
+	public static final int GMHD = 0x676D6864;
+	/** <code>rinf</code> */
+	public static final int RINF = 0x72696E66;
+	/** <code>tapt</code> */
+	public static final int TAPT = 0x74617074;
+	/** <code>meta</code> */
+	public static final int META = 0x6D657461;
+	/** <code>mvhd</code> */
+	public static final int MVHD = 0x6D766864;
+	/** <code>tkhd</code> */
+	public static final int TKHD = 0x746B6864;
+	/** <code>mdhd</code> */
+	public static final int MDHD = 0x6D646864;
+	/** <code>hdlr</code> */
+	public static final int HDLR = 0x68646C72;
+	/** <code>iods</code> */
+	public static final int IODS = 0x696F6473;
+	/** <code>elst</code> */
+	public static final int ELST = 0x656C7374;
+	/** <code>vmhd</code> */
+	public static final int VMHD = 0x766D6864;
+	/** <code>smhd</code> */
+	public static final int SMHD = 0x736D6864;
+	/** <code>hmhd</code> */
+	public static final int HMHD = 0x686D6864;
+	/** <code>nmhd</code> */
+	public static final int NMHD = 0x6E6D6864;
+	/** <code>gmin</code> */
+	public static final int GMIN = 0x676D696E;
+	/** <code>url </code> */
+	public static final int URL_ = 0x75726C20;
+	/** <code>urn </code> */
+	public static final int URN_ = 0x75726E20;
+	/** <code>dref</code> */
+	public static final int DREF = 0x64726566;
+	/** <code>stsd</code> */
+	public static final int STSD = 0x73747364;
+	/** <code>stts</code> */
+	public static final int STTS = 0x73747473;
+	/** <code>ctts</code> */
+	public static final int CTTS = 0x63747473;
+	/** <code>stsc</code> */
+	public static final int STSC = 0x73747363;
+	/** <code>stsz</code> */
+	public static final int STSZ = 0x7374737A;
+	/** <code>stz2</code> */
+	public static final int STZ2 = 0x73747A32;
+	/** <code>stco</code> */
+	public static final int STCO = 0x7374636F;
+	/** <code>co64</code> */
+	public static final int CO64 = 0x636F3634;
+	/** <code>stss</code> */
+	public static final int STSS = 0x73747373;
+	/** <code>stps</code> */
+	public static final int STPS = 0x73747073;
+	/** <code>sdtp</code> */
+	public static final int SDTP = 0x73647470;
+	/** <code>sbgp</code> */
+	public static final int SBGP = 0x73626770;
+	/** <code>sgpd</code> */
+	public static final int SGPD = 0x73677064;
+	/** <code>subs</code> */
+	public static final int SUBS = 0x73756273;
+	/** <code>mehd</code> */
+	public static final int MEHD = 0x6D656864;
+	/** <code>trex</code> */
+	public static final int TREX = 0x74726578;
+	/** <code>mfhd</code> */
+	public static final int MFHD = 0x6D666864;
+	/** <code>tfhd</code> */
+	public static final int TFHD = 0x74666864;
+	/** <code>tfdt</code> */
+	public static final int TFDT = 0x74666474;
+	/** <code>trun</code> */
+	public static final int TRUN = 0x7472756E;
+	/** <code>tfra</code> */
+	public static final int TFRA = 0x74667261;
+	/** <code>mfro</code> */
+	public static final int MFRO = 0x6D66726F;
+	/** <code>esds</code> */
+	public static final int ESDS = 0x65736473;
+	/** <code>avcC</code> */
+	public static final int AVCC = 0x61766343;
+	/** <code>hvcC</code> */
+	public static final int HVCC = 0x68766343;
+	/** <code>btrt</code> */
+	public static final int BTRT = 0x62747274;
+	/** <code>pasp</code> */
+	public static final int PASP = 0x70617370;
+	/** <code>colr</code> */
+	public static final int COLR = 0x636F6C72;
+	/** <code>avc1</code> */
+	public static final int AVC1 = 0x61766331;
+	/** <code>mp4a</code> */
+	public static final int MP4A = 0x6D703461;
+	/** <code>tx3g</code> */
+	public static final int TX3G = 0x74783367;
+	/** <code>chpl</code> */
+	public static final int CHPL = 0x6368706C;
+	/** <code>load</code> */
+	public static final int LOAD = 0x6C6F6164;
+	/** <code>keys</code> */
+	public static final int KEYS = 0x6B657973;
+	/** <code>frma</code> */
+	public static final int FRMA = 0x66726D61;
+	/** <code>schm</code> */
+	public static final int SCHM = 0x7363686D;
+	/** <code>tenc</code> */
+	public static final int TENC = 0x74656E63;
+	/** <code>pssh</code> */
+	public static final int PSSH = 0x70737368;
+	/** <code>saiz</code> */
+	public static final int SAIZ = 0x7361697A;
+	/** <code>saio</code> */
+	public static final int SAIO = 0x7361696F;
+	/** <code>data</code> */
+	public static final int DATA = 0x64617461;
+	/** <code>mean</code> */
+	public static final int MEAN = 0x6D65616E;
+	/** <code>name</code> */
+	public static final int NAME = 0x6E616D65;
+	/** <code>ftab</code> */
+	public static final int FTAB = 0x66746162;
+
+	/** Size of the name cache, must be a power of two */
+	private static final int CACHE_SIZE = 0x2000;
+	/** Maximum amount of slots looked at in the name cache */
+	private static final int MAX_PROBE = 8;
+	/**
+	 * Cache of decoded names, using open addressing.
+	 * Entries are never removed; a slot may be overwritten when two threads race,
+	 * which is harmless because the {@link String}s are immutable and verified on lookup.
+	 */
+	private static final String[] NAMES = new String[CACHE_SIZE];
+
+	/** The packed value */
+	public final int value;
+
+	/**
+	 * Construct a new {@link FourCC}
+	 * @param value	The packed value
+	 */
+	private FourCC(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * Get the {@link FourCC} for a packed value
+	 * @param value	The packed value
+	 * @return	The {@link FourCC}
+	 */
+	public static FourCC valueOf(int value) {
+		return new FourCC(value);
+	}
+
+	/**
+	 * Get the {@link FourCC} for a name
+	 * @param name	4-character name
+	 * @return	The {@link FourCC}
+	 */
+	public static FourCC valueOf(String name) {
+		return new FourCC(pack(name));
+	}
+
+	/**
+	 * Pack a 4-character name into an int.
+	 * Every character is truncated to 8 bits, so names are read as ISO-8859-1.
+	 * @param name	4-character name, may be <code>null</code>
+	 * @return	The packed name, 0 for <code>null</code>
+	 */
+	public static int pack(String name) {
+		if (name == null)
+			return 0;
+		if (name.length() != 4)
+			throw new IllegalArgumentException("An atom name consists of four bytes");
+		return (name.charAt(0) & 0xFF) << 24 | (name.charAt(1) & 0xFF) << 16
+		     | (name.charAt(2) & 0xFF) <<  8 | (name.charAt(3) & 0xFF);
+	}
+
+	/**
+	 * Pack 4 bytes into an int
+	 * @param name	4 bytes name
+	 * @return	The packed name
+	 */
+	public static int pack(byte[] name) {
+		return (name[0] & 0xFF) << 24 | (name[1] & 0xFF) << 16 | (name[2] & 0xFF) << 8 | (name[3] & 0xFF);
+	}
+
+	/**
+	 * Check if a packed name is valid.
+	 * A valid name only contains printable ASCII characters, or 0xA9
+	 * @param type	the packed name
+	 * @return	whether the name is valid
+	 */
+	public static boolean isValid(int type) {
+		for(int shift=0;shift<32;shift+=8) {
+			final int c = type >>> shift & 0xFF;
+			if ((c < 32 || c > 126) && c != 0xA9)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the name for a packed value.
+	 * The result is interned and cached, so most calls don't allocate.
+	 * @param type	The packed value
+	 * @return	The 4-character name, decoded as ISO-8859-1
+	 */
+	public static String toString(int type) {
+		int slot = (type * 0x9E3779B9) >>> 19 & CACHE_SIZE-1;
+		for(int probe=0;probe<MAX_PROBE;probe++) {
+			String name = NAMES[slot];
+			if (name == null) {
+				name = decode(type).intern();
+				NAMES[slot] = name;
+				return name;
+			}
+			if (pack(name) == type)
+				return name;
+			slot = slot+1 & CACHE_SIZE-1;
+		}
+		return decode(type).intern();
+	}
+
+	/**
+	 * Decode a packed value
+	 * @param type	The packed value
+	 * @return	The 4-character name
+	 */
+	private static String decode(int type) {
+		return new String(new char[]{
+				(char) (type >>> 24 & 0xFF), (char) (type >>> 16 & 0xFF),
+				(char) (type >>>  8 & 0xFF), (char) (type & 0xFF)
+			});
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(FourCC o) {
+		return Integer.compareUnsigned(value, o.value);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return value;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof FourCC && ((FourCC) obj).value == value;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return toString(value);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * The samples of one track in one <code>moof</code> {@link Atom}, as described by a <code>traf</code> {@link Atom}.
+ * Times are decode times in media timescale units.
+ */
+public final class Fragment {
+
+	/** The ID of the track */
+	public final int trackId;
+	/** The position of the <code>moof</code> {@link Atom} in the file */
+	public final long moof;
+	/** The decode time of the first sample, -1 when not known yet */
+	public final long decodeTime;
+	/** The total duration of the samples */
+	public final long duration;
+	/** The amount of samples */
+	public final int sampleCount;
+	/** The position of the data of the first sample in the file */
+	public final long dataStart;
+	/** The position after the data of the last sample in the file */
+	public final long dataEnd;
+	/** Whether the first sample is a sync sample */
+	public final boolean sync;
+
+	/**
+	 * Construct a new {@link Fragment}
+	 * @param trackId	The ID of the track
+	 * @param moof	The position of the <code>moof</code> {@link Atom}
+	 * @param decodeTime	The decode time of the first sample, -1 when not known yet
+	 * @param duration	The total duration of the samples
+	 * @param sampleCount	The amount of samples
+	 * @param dataStart	The position of the data of the first sample
+	 * @param dataEnd	The position after the data of the last sample
+	 * @param sync	Whether the first sample is a sync sample
+	 */
+	Fragment(int trackId, long moof, long decodeTime, long duration, int sampleCount,
+			long dataStart, long dataEnd, boolean sync) {
+		this.trackId = trackId;
+		this.moof = moof;
+		this.decodeTime = decodeTime;
+		this.duration = duration;
+		this.sampleCount = sampleCount;
+		this.dataStart = dataStart;
+		this.dataEnd = dataEnd;
+		this.sync = sync;
+	}
+
+	/**
+	 * @param decodeTime	The decode time of the first sample
+	 * @return	A copy of this {@link Fragment} with the decode time set
+	 */
+	Fragment at(long decodeTime) {
+		return new Fragment(trackId, moof, decodeTime, duration, sampleCount, dataStart, dataEnd, sync);
+	}
+
+	/**
+	 * @return	The decode time after the last sample
+	 */
+	public long getEndTime() {
+		return decodeTime + duration;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Fragment of track "+trackId+" at 0x"+Long.toHexString(moof)
+				+": "+sampleCount+" samples from "+decodeTime+" to "+getEndTime()
+				+", data 0x"+Long.toHexString(dataStart)+"-0x"+Long.toHexString(dataEnd);
+	}
+
+}
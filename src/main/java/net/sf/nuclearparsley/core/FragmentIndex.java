@@ -0,0 +1,374 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the {@link Fragment}s of a fragmented file.
+ * The <code>moof</code> {@link Atom}s are found from the headers of the top level {@link Atom}s,
+ * but each of them is only created and parsed when one of its {@link Fragment}s is needed; the result is kept.
+ * To find the {@link Fragment}s covering a time, the <code>tfra</code> {@link Atom} of the track is used when the file has one,
+ * otherwise the <code>moof</code> {@link Atom}s are searched with a binary search on their <code>tfdt</code> {@link Atom}s.
+ * Only when a <code>traf</code> {@link Atom} has no <code>tfdt</code>, the earlier <code>moof</code> {@link Atom}s are walked to find its decode time.
+ * Use a {@link RootAtom} with {@link ParseMode#LAZY} so the top level {@link Atom}s are not created up front.
+ */
+public class FragmentIndex {
+
+	/** The file, <code>null</code> when all <code>moof</code> {@link Atom}s are added as {@link Atom}s */
+	private final AtomSource source;
+	/** The <code>moof</code> {@link Atom}s in file order, <code>null</code> when not created yet */
+	private final List<ParentAtom> moofs = new ArrayList<ParentAtom>();
+	/** The position of every <code>moof</code> {@link Atom}, for binary searches */
+	private long[] moofStarts = new long[16];
+	/** The length of every <code>moof</code> {@link Atom} */
+	private long[] moofLengths = new long[16];
+	/** The header length of every <code>moof</code> {@link Atom} */
+	private int[] moofHeaders = new int[16];
+	/** The {@link Fragment}s of every <code>moof</code> {@link Atom}, <code>null</code> when not parsed yet */
+	private final List<List<Fragment>> fragments = new ArrayList<List<Fragment>>();
+	/** The defaults of the tracks, by track ID */
+	private final Map<Integer, TREXAtom> defaults = new HashMap<Integer, TREXAtom>();
+	/** The random access tables of the tracks, by track ID */
+	private final Map<Integer, TFRAAtom> randomAccess = new HashMap<Integer, TFRAAtom>();
+
+	/**
+	 * Construct a new {@link FragmentIndex}.
+	 * When the top level {@link Atom}s have not been created yet, only the <code>moov</code> and <code>mfra</code> {@link Atom}s are,
+	 * and the <code>moof</code> {@link Atom}s are recorded from the headers the {@link RootAtom} already found.
+	 * @param root	The file
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 */
+	public FragmentIndex(RootAtom root) throws AtomException {
+		source = root.source;
+		final boolean pending;
+		try {
+			pending = root.pendingHeaders((pointer, len, offset, type) -> {
+				if (type == FourCC.MOOF)
+					addMoof(pointer, len, offset, null);
+				else if (type == FourCC.MOOV || type == FourCC.MFRA)
+					add(Atom.instantiate(type, source, pointer, len, offset));
+			});
+		} catch (AtomException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new AtomException(root.file, root.start, "Unable to read the top level atoms", e);
+		}
+		if (!pending)
+			for(Atom atom : root)
+				add(atom);
+	}
+
+	/**
+	 * Construct a new empty {@link FragmentIndex}, to which top level {@link Atom}s are added as they are found
+	 */
+	FragmentIndex() {
+		source = null;
+	}
+
+	/**
+	 * Add a top level {@link Atom} after the ones already in the index.
+	 * <code>moof</code> {@link Atom}s are indexed, and the track defaults and random access tables are read
+	 * from <code>moov</code> and <code>mfra</code> {@link Atom}s. Other {@link Atom}s are ignored.
+	 * @param atom	The {@link Atom}
+	 * @throws AtomException	A <code>moov</code> or <code>mfra</code> {@link Atom} is invalid
+	 * @throws IllegalArgumentException	A <code>moof</code> {@link Atom} is not after the last one in the index
+	 */
+	synchronized void add(Atom atom) throws AtomException {
+		if (!(atom instanceof ParentAtom))
+			return;
+		if (atom.type == FourCC.MOOF) {
+			addMoof(atom.start, atom.length, atom.offset, (ParentAtom) atom);
+		} else if (atom.type == FourCC.MOOV) {
+			for(Atom mvex : (ParentAtom) atom)
+				if (mvex.type == FourCC.MVEX)
+					for(Atom trex : (ParentAtom) mvex)
+						if (trex instanceof TREXAtom)
+							defaults.put(((TREXAtom) trex).getTrackId(), (TREXAtom) trex);
+		} else if (atom.type == FourCC.MFRA) {
+			for(Atom tfra : (ParentAtom) atom)
+				if (tfra instanceof TFRAAtom)
+					randomAccess.put(((TFRAAtom) tfra).getTrackId(), (TFRAAtom) tfra);
+		}
+	}
+
+	/**
+	 * Add a <code>moof</code> {@link Atom} after the ones already in the index
+	 * @param start	The position of the <code>moof</code> {@link Atom}
+	 * @param length	The length of the <code>moof</code> {@link Atom}
+	 * @param header	The header length of the <code>moof</code> {@link Atom}
+	 * @param moof	The <code>moof</code> {@link Atom}, <code>null</code> to create it when it is needed
+	 * @throws IllegalArgumentException	The <code>moof</code> {@link Atom} is not after the last one in the index
+	 */
+	private void addMoof(long start, long length, int header, ParentAtom moof) {
+		final int count = moofs.size();
+		if (count > 0 && start <= moofStarts[count-1])
+			throw new IllegalArgumentException("Atom at 0x"+Long.toHexString(start)+" is not after the last moof");
+		if (count == moofStarts.length) {
+			moofStarts = Arrays.copyOf(moofStarts, count*2);
+			moofLengths = Arrays.copyOf(moofLengths, count*2);
+			moofHeaders = Arrays.copyOf(moofHeaders, count*2);
+		}
+		moofStarts[count] = start;
+		moofLengths[count] = length;
+		moofHeaders[count] = header;
+		moofs.add(moof);
+		fragments.add(null);
+	}
+
+	/**
+	 * @return	The amount of <code>moof</code> {@link Atom}s
+	 */
+	public synchronized int getMoofCount() {
+		return moofs.size();
+	}
+
+	/**
+	 * Get a <code>moof</code> {@link Atom}, creating it if needed
+	 * @param moof	The index of the <code>moof</code> {@link Atom}
+	 * @return	The <code>moof</code> {@link Atom}
+	 * @throws AtomException	The <code>moof</code> {@link Atom} is invalid
+	 */
+	public synchronized ParentAtom getMoof(int moof) throws AtomException {
+		ParentAtom result = moofs.get(moof);
+		if (result == null) {
+			final Atom atom;
+			try {
+				atom = Atom.instantiate(FourCC.MOOF, source, moofStarts[moof], moofLengths[moof], moofHeaders[moof]);
+			} catch (IOException e) {
+				throw new AtomException(source.file, moofStarts[moof], "Unable to read moof", e);
+			}
+			if (!(atom instanceof ParentAtom))
+				throw new AtomException(source.file, moofStarts[moof], "Atom moof does not consist of atoms", atom.error);
+			result = (ParentAtom) atom;
+			moofs.set(moof, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the {@link Fragment}s in a <code>moof</code> {@link Atom}, parsing it if needed
+	 * @param moof	The index of the <code>moof</code> {@link Atom}
+	 * @return	The {@link Fragment}s, one for every <code>traf</code> {@link Atom}
+	 * @throws AtomException	The <code>moof</code> {@link Atom} is invalid
+	 */
+	public synchronized List<Fragment> getFragments(int moof) throws AtomException {
+		final List<Fragment> parsed = parsed(moof);
+		boolean resolved = true;
+		for(Fragment fragment : parsed)
+			resolved &= fragment.decodeTime >= 0;
+		if (resolved)
+			return parsed;
+		final List<Fragment> result = new ArrayList<Fragment>(parsed.size());
+		for(Fragment fragment : parsed)
+			result.add(fragment.decodeTime >= 0 ? fragment : fragment.at(previousEnd(fragment.trackId, moof, result)));
+		fragments.set(moof, Collections.unmodifiableList(result));
+		return fragments.get(moof);
+	}
+
+	/**
+	 * Get the {@link Fragment}s in a <code>moof</code> {@link Atom} without resolving unknown decode times
+	 * @param moof	The index of the <code>moof</code> {@link Atom}
+	 * @return	The {@link Fragment}s
+	 * @throws AtomException	The <code>moof</code> {@link Atom} is invalid
+	 */
+	private List<Fragment> parsed(int moof) throws AtomException {
+		List<Fragment> result = fragments.get(moof);
+		if (result == null) {
+			result = Collections.unmodifiableList(parse(getMoof(moof)));
+			fragments.set(moof, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the decode time after the previous {@link Fragment} of a track
+	 * @param trackId	The ID of the track
+	 * @param moof	The index of the <code>moof</code> {@link Atom} of the {@link Fragment}
+	 * @param before	The {@link Fragment}s before it in the same <code>moof</code> {@link Atom}, with known times
+	 * @return	The decode time, 0 for the first {@link Fragment} of the track
+	 * @throws AtomException	An earlier <code>moof</code> {@link Atom} is invalid
+	 */
+	private long previousEnd(int trackId, int moof, List<Fragment> before) throws AtomException {
+		for(int i=before.size()-1;i>=0;i--)
+			if (before.get(i).trackId == trackId)
+				return before.get(i).getEndTime();
+		long pending = 0;
+		for(int i=moof-1;i>=0;i--) {
+			final List<Fragment> parsed = parsed(i);
+			for(int j=parsed.size()-1;j>=0;j--) {
+				final Fragment fragment = parsed.get(j);
+				if (fragment.trackId != trackId)
+					continue;
+				if (fragment.decodeTime >= 0)
+					return fragment.getEndTime() + pending;
+				pending += fragment.duration;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Read the {@link Fragment}s of a <code>moof</code> {@link Atom}
+	 * @param moof	The <code>moof</code> {@link Atom}
+	 * @return	The {@link Fragment}s, with a decode time of -1 when there is no <code>tfdt</code> {@link Atom}
+	 * @throws AtomException	The <code>moof</code> {@link Atom} is invalid
+	 */
+	private List<Fragment> parse(ParentAtom moof) throws AtomException {
+		final List<Fragment> result = new ArrayList<Fragment>();
+		long previousEnd = moof.start;
+		for(Atom traf : moof) {
+			if (traf.type != FourCC.TRAF)
+				continue;
+			TFHDAtom tfhd = null;
+			long decodeTime = -1;
+			final List<TRUNAtom> runs = new ArrayList<TRUNAtom>();
+			for(Atom child : (ParentAtom) traf)
+				if (child instanceof TFHDAtom)
+					tfhd = (TFHDAtom) child;
+				else if (child instanceof TFDTAtom)
+					decodeTime = ((TFDTAtom) child).getBaseMediaDecodeTime();
+				else if (child instanceof TRUNAtom)
+					runs.add((TRUNAtom) child);
+			if (tfhd == null)
+				throw new AtomException(traf.file, traf.start, "Atom "+traf.name+" has no tfhd atom");
+
+			final TREXAtom trex = defaults.get(tfhd.getTrackId());
+			final long defaultDuration = tfhd.getDefaultSampleDuration() >= 0 ? tfhd.getDefaultSampleDuration()
+					: trex != null ? trex.getDefaultSampleDuration() : 0;
+			final long defaultSize = tfhd.getDefaultSampleSize() >= 0 ? tfhd.getDefaultSampleSize()
+					: trex != null ? trex.getDefaultSampleSize() : 0;
+			final long defaultFlags = tfhd.getDefaultSampleFlags() >= 0 ? tfhd.getDefaultSampleFlags()
+					: trex != null ? trex.getDefaultSampleFlags() : 0;
+			final long base;
+			if (tfhd.getBaseDataOffset() >= 0)
+				base = tfhd.getBaseDataOffset();
+			else if ((tfhd.getFlags() & TFHDAtom.DEFAULT_BASE_IS_MOOF) != 0 || result.isEmpty())
+				base = moof.start;
+			else
+				base = previousEnd;
+
+			long position = base;
+			long dataStart = -1;
+			long duration = 0;
+			int sampleCount = 0;
+			boolean sync = false;
+			for(TRUNAtom run : runs) {
+				if (run.hasDataOffset())
+					position = base + run.getDataOffset();
+				if (dataStart < 0)
+					dataStart = position;
+				if (sampleCount == 0 && run.getSampleCount() > 0)
+					sync = (run.getSampleFlags(0, defaultFlags) & TRUNAtom.NON_SYNC_SAMPLE) == 0;
+				position += run.getSize(defaultSize);
+				duration += run.getDuration(defaultDuration);
+				sampleCount += run.getSampleCount();
+			}
+			if (dataStart < 0)
+				dataStart = position;
+			previousEnd = position;
+			result.add(new Fragment(tfhd.getTrackId(), moof.start, decodeTime, duration, sampleCount,
+					dataStart, position, sync));
+		}
+		return result;
+	}
+
+	/**
+	 * Find the first {@link Fragment} of a track in a <code>moof</code> {@link Atom}
+	 * @param moof	The index of the <code>moof</code> {@link Atom}
+	 * @param trackId	The ID of the track
+	 * @return	The {@link Fragment}, or <code>null</code> if the track has no samples in the <code>moof</code> {@link Atom}
+	 * @throws AtomException	The <code>moof</code> {@link Atom} is invalid
+	 */
+	private Fragment first(int moof, int trackId) throws AtomException {
+		for(Fragment fragment : getFragments(moof))
+			if (fragment.trackId == trackId)
+				return fragment;
+		return null;
+	}
+
+	/**
+	 * Find the last <code>moof</code> {@link Atom} with a {@link Fragment} of a track that starts at or before a time.
+	 * Uses the <code>tfra</code> {@link Atom} of the track if available, and a binary search otherwise.
+	 * @param trackId	The ID of the track
+	 * @param time	The decode time
+	 * @return	The index of the <code>moof</code> {@link Atom}, 0 if there is none
+	 * @throws AtomException	A <code>moof</code> {@link Atom} is invalid
+	 */
+	private int startIndex(int trackId, long time) throws AtomException {
+		final TFRAAtom tfra = randomAccess.get(trackId);
+		if (tfra != null && tfra.getEntryCount() > 0) {
+			final int entry = tfra.getEntryAt(time);
+			if (entry < 0)
+				return 0;
+			final int index = Arrays.binarySearch(moofStarts, 0, moofs.size(), tfra.getMoofOffset(entry));
+			if (index >= 0)
+				return index;
+			/* The tfra points to something else than a moof, fall back to searching */
+		}
+		int result = 0;
+		int low = 0;
+		int high = moofs.size()-1;
+		while(low <= high) {
+			final int middle = (low+high) >>> 1;
+			int probe = middle;
+			Fragment fragment = null;
+			while(probe <= high && (fragment = first(probe, trackId)) == null)
+				probe++;
+			if (fragment == null || fragment.decodeTime > time) {
+				high = middle-1;
+			} else {
+				result = probe;
+				low = probe+1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the {@link Fragment}s of a track which overlap a time range.
+	 * Only the <code>moof</code> {@link Atom}s needed to find them are parsed.
+	 * @param trackId	The ID of the track
+	 * @param start	The start of the range, as decode time in media timescale units
+	 * @param end	The end of the range (exclusive)
+	 * @return	The {@link Fragment}s in file order
+	 * @throws AtomException	A <code>moof</code> {@link Atom} is invalid
+	 */
+	public synchronized List<Fragment> find(int trackId, long start, long end) throws AtomException {
+		final List<Fragment> result = new ArrayList<Fragment>();
+		if (end <= start)
+			return result;
+		for(int i=startIndex(trackId, start);i<moofs.size();i++)
+			for(Fragment fragment : getFragments(i)) {
+				if (fragment.trackId != trackId)
+					continue;
+				if (fragment.decodeTime >= end)
+					return result;
+				if (fragment.getEndTime() > start)
+					result.add(fragment);
+			}
+		return result;
+	}
+
+}
@@ -1,6 +1,5 @@
 package net.sf.nuclearparsley.core;
 
-import java.io.File;
 import java.io.IOException;
 
 /**
@@ -14,14 +13,14 @@ public class MP4AAtom extends ParentAtom {
 	public static final int OFFSET = 28;
 
 	/**
-	 * @param input	Atoms are read from this file
+	 * @param input	Atoms are read from this source
 	 * @param start	Starting pointer of this {@link Atom} in input file
 	 * @param length	Length of this {@link Atom} in bytes (including offset)
 	 * @param offset	The starting point of the atom payload from the start of the atom
 	 * @throws AtomException	Reading the {@link Atom} failed
 	 * @throws IOException	Reading the file failed
 	 */
-	protected MP4AAtom(File input, long start, long length, int offset)
+	protected MP4AAtom(AtomSource input, long start, long length, int offset)
 			throws AtomException, IOException {
 		super(NAME, input, start, length, offset+OFFSET);
 		// TODO Auto-generated constructor stub
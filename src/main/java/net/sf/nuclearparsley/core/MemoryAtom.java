@@ -0,0 +1,126 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Atom which is not read from a file, but of which the payload is kept in memory.
+ * Use this to add a new {@link Atom} to a {@link ParentAtom}, or to replace one.
+ * A MemoryAtom is always written when the file is saved.
+ */
+public class MemoryAtom extends Atom {
+
+	/** The payload */
+	private final byte[] payload;
+
+	/**
+	 * Construct a new {@link Atom} in memory
+	 * @param name	4-character name of the {@link Atom}
+	 * @param payload	The payload of the {@link Atom}, excluding the header
+	 */
+	public MemoryAtom(String name, byte[] payload) {
+		super(name, null, -1, ParentAtom.HEADER + payload.length, ParentAtom.HEADER);
+		if (name == null || name.length() != 4)
+			throw new IllegalArgumentException("An atom name consists of four bytes");
+		this.payload = payload.clone();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A MemoryAtom is not in the file, so it is always modified.
+	 */
+	@Override
+	public boolean isModified() {
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#encode(java.nio.ByteBuffer)
+	 */
+	@Override
+	public void encode(ByteBuffer dst) {
+		writeHeader(dst, type, length);
+		dst.put(payload);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getHeader()
+	 */
+	@Override
+	public byte[] getHeader() {
+		final ByteBuffer result = ByteBuffer.allocate(offset);
+		writeHeader(result, type, length);
+		return result.array();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getPayload()
+	 */
+	@Override
+	public byte[] getPayload() {
+		return payload.clone();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getPayloadBuffer(long, int)
+	 */
+	@Override
+	protected ByteBuffer getPayloadBuffer(long position, int size) {
+		return ByteBuffer.wrap(payload, (int) position, size).slice().asReadOnlyBuffer();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getStream()
+	 */
+	@Override
+	public InputStream getStream() throws IOException {
+		final ByteBuffer result = ByteBuffer.allocate((int) length);
+		encode(result);
+		return new ByteArrayInputStream(result.array());
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getPayloadStream()
+	 */
+	@Override
+	public InputStream getPayloadStream() {
+		return new ByteArrayInputStream(payload);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Arrays.hashCode(payload);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return super.equals(obj) && Arrays.equals(payload, ((MemoryAtom) obj).payload);
+	}
+
+}
@@ -17,28 +17,45 @@
  */
 package net.sf.nuclearparsley.core;
 
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Atom in a media file. The Parent Atom contains other Atoms.
- * @todo	Instead of simply composing the internal {@link List},
- *      	the methods implemented from {@link List} should be implemented
- *      	in such a way that changes can be tracked,
- *      	so the modified {@link Atom}s can be saved.
+ * The children can be changed using the methods from {@link List}.
+ * Changes are found by comparing the children with their original location in the file,
+ * see {@link #isModified()}.
  */
 public class ParentAtom extends Atom implements List<Atom> {
 
-	/**	{@link List} with all the children originally contained in this {@link Atom} */
-	protected List<Atom> children;
+	/** Size of a regular atom header (32 bit length and name) */
+	protected static final int HEADER = 0x8;
+	/** Size of an atom header with a 64 bit length */
+	protected static final int LARGE_HEADER = 0x10;
+	/** Maximum amount of bytes read at once when looking for child headers */
+	protected static final int WINDOW = 0x2000;
+	/** Maximum amount of bytes written when saving a file in place, see {@link RootAtom#saveInPlace(long)} */
+	public static final int MAX_REWRITE = 0x4000000;
+	/** Minimum size of a child to be parsed in its own task in {@link ParseMode#PARALLEL} mode */
+	public static final long PARALLEL_THRESHOLD = 0x10000;
+
+	/**
+	 * {@link List} with all the children originally contained in this {@link Atom},
+	 * <code>null</code> until the children are created in {@link ParseMode#LAZY} mode.
+	 * Use {@link #children()} instead of reading this field directly.
+	 */
+	protected volatile List<Atom> children;
+	/** Headers of the children which have not been created yet */
+	private List<Header> pending;
 
 	/**
 	 * Convert a byte array to an ASCII string, used for atom conversion.
@@ -46,13 +63,13 @@ public class ParentAtom extends Atom implements List<Atom> {
 	 * @return	the string
 	 */
 	protected static String nameToString(byte[] name) {
-		return new String(name, Charset.forName("US-ASCII"));
+		return FourCC.toString(FourCC.pack(name));
 	}
 	
 	/**
 	 * Construct a new {@link ParentAtom} and parse the content to find the children {@link Atom}s.
 	 * @param name	4-character name of the {@link Atom}
-	 * @param input	Atoms are read from this file
+	 * @param input	Atoms are read from this source
 	 * @param start	Starting pointer of this {@link Atom} in input file
 	 * @param length	Length of this {@link Atom} in bytes (including offset)
 	 * @param offset	The starting point of the atom payload from the start of the atom
@@ -60,76 +77,279 @@ public class ParentAtom extends Atom implements List<Atom> {
 	 * @throws IOException	Reading the file failed
 	 */
 	protected ParentAtom(
-			String name, File input, long start, long length, int offset)
+			String name, AtomSource input, long start, long length, int offset)
 				throws AtomException, IOException {
 		super(name, input, start, length, offset);
 		
-		children = parse();
+		parse();
+	}
+
+	/**
+	 * Construct a new {@link ParentAtom} of which the children are already known.
+	 * The file is not read.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 * @param children	The children of this {@link Atom}
+	 */
+	protected ParentAtom(
+			String name, AtomSource input, long start, long length, int offset, List<Atom> children) {
+		super(name, input, start, length, offset);
+		
+		this.children = children;
 	}
 	
 	/**
-	 * Parse the content of input to find the children {@link Atom}s
+	 * Construct a new {@link ParentAtom} in memory, which is not read from a file.
+	 * It is always written when the file is saved.
+	 * @param name	4-character name of the {@link Atom}
+	 * @param children	The children of this {@link Atom}
+	 */
+	public ParentAtom(String name, List<Atom> children) {
+		this(name, null, -1, HEADER + totalLength(children), HEADER, new LinkedList<Atom>(children));
+		if (name == null || name.length() != 4)
+			throw new IllegalArgumentException("An atom name consists of four bytes");
+	}
+
+	/**
+	 * Sum the original lengths of {@link Atom}s
+	 * @param atoms	the {@link Atom}s
+	 * @return	the total length in bytes
+	 */
+	private static long totalLength(List<Atom> atoms) {
+		long result = 0;
+		for(Atom atom : atoms)
+			result += atom.length;
+		return result;
+	}
+
+	/**
+	 * Parse the content of input to find the children {@link Atom}s.
+	 * The headers of the children are always validated,
+	 * but in {@link ParseMode#LAZY} mode the children are only created
+	 * when {@link #children()} is first called.
+	 * In {@link ParseMode#PARALLEL} mode, big children are created concurrently.
+	 * @throws IOException	Reading the file failed
+	 */
+	protected void parse() throws IOException {
+		final List<Header> headers = scan();
+		if (source.mode == ParseMode.LAZY)
+			pending = headers;
+		else
+			children = instantiate(headers);
+	}
+
+	/**
+	 * Get the children of this {@link Atom}, creating them if this has not happened yet.
+	 * @return	A {@link List} containing all the children of this {@link Atom}
+	 * @throws AtomException	Reading the children failed
+	 */
+	protected List<Atom> children() throws AtomException {
+		List<Atom> result = children;
+		if (result == null) {
+			synchronized (this) {
+				result = children;
+				if (result == null) {
+					try {
+						children = result = instantiate(pending);
+					} catch (IOException e) {
+						throw new AtomException(file, start, "Unable to read children", e);
+					}
+					pending = null;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Pass the headers of the children to a handler if the children have not been created yet.
+	 * The headers were already found by {@link #scan()}, so the file is not read.
+	 * @param handler	receives the headers, in file order
+	 * @return	<code>false</code> if the children have already been created, and should be used instead
+	 * @throws IOException	The handler failed
+	 */
+	synchronized boolean pendingHeaders(HeaderHandler handler) throws IOException {
+		if (children != null)
+			return false;
+		for(Header header : pending)
+			handler.header(header.pointer, header.length, header.offset, header.type);
+		return true;
+	}
+
+	/**
+	 * Create the children from their headers
+	 * @param headers	The headers found by {@link #scan()}
 	 * @return	A {@link List} containing all the children of this {@link Atom}
 	 * @throws IOException	Reading the file failed
 	 */
-	private List<Atom> parse() throws IOException {
-		long pointer = start+offset;
+	private List<Atom> instantiate(List<Header> headers) throws IOException {
+		if (source.mode == ParseMode.PARALLEL && headers.size() > 1)
+			return instantiateParallel(headers);
 		final LinkedList<Atom> result = new LinkedList<Atom>();
-		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		for(Header header : headers)
+			pushAtom(header.pointer, header.length, header.offset, header.type, result);
+		return result;
+	}
+
+	/**
+	 * Create the children from their headers, using {@link ForkJoinTask}s
+	 * for children of at least {@link #PARALLEL_THRESHOLD} bytes which may contain other {@link Atom}s.
+	 * The children keep the order of their headers.
+	 * When creating a child fails, the other tasks are cancelled or awaited before the exception is thrown.
+	 * @param headers	The headers found by {@link #scan()}
+	 * @return	A {@link List} containing all the children of this {@link Atom}
+	 * @throws IOException	Reading the file failed
+	 */
+	private List<Atom> instantiateParallel(List<Header> headers) throws IOException {
+		final Atom[] result = new Atom[headers.size()];
+		final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[result.length];
+		for(int i=0;i<result.length;i++) {
+			final Header header = headers.get(i);
+			if (header.length >= PARALLEL_THRESHOLD
+					&& !(AtomRegistry.isKnown(header.type) && !AtomRegistry.isContainer(header.type)))
+				tasks[i] = ForkJoinTask.adapt(() -> Atom.instantiate(
+						header.type, source, header.pointer, header.length, header.offset)).fork();
+		}
+		boolean done = false;
 		try {
-			while(pointer < start+length) {
-				input.seek(pointer);
-				long len = input.readInt() & 0x00000000FFFFFFFFL; // Unsigned positive integer
-				final byte[] name = new byte[4];
-				input.read(name);
-				int offset = 0x8;
-				if (len == 1) {
-					len = input.readLong();
-					offset += 0x8;
+			for(int i=0;i<result.length;i++) {
+				final Header header = headers.get(i);
+				if (tasks[i] == null)
+					result[i] = Atom.instantiate(header.type, source, header.pointer, header.length, header.offset);
+			}
+			for(int i=0;i<result.length;i++) {
+				if (tasks[i] == null)
+					continue;
+				try {
+					result[i] = (Atom) tasks[i].join();
+				} catch (RuntimeException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw e;
 				}
-				if (len < 8)
-					throw new AtomException(file, start, "Invalid Atom length ("+len+")");
-				if (!checkName(name))
-					throw new AtomException(file, start, "Invalid Atom name");
-				sanityCheck(pointer, len, nameToString(name));
-				pushAtom(pointer, len, offset, nameToString(name), result);
-				pointer += len;
 			}
-			return result;
-		} catch (EOFException e) {
-			throw new AtomException(file, start, "Atom start+length exceeds file length", e);
-		}
-		finally {
-			input.close();
+			done = true;
+		} finally {
+			/* Don't let tasks read from the source after the caller has closed it */
+			if (!done)
+				for(ForkJoinTask<?> task : tasks)
+					if (task != null && !task.cancel(false))
+						task.quietlyJoin();
 		}
+		return new LinkedList<Atom>(Arrays.asList(result));
 	}
-	
+
 	/**
-	 * Check if an atom name is valid.
-	 * A valid name only contains lower ASCII characters, or 0xA9
-	 * @param name	the name to check
-	 * @return	whether the name is valid
+	 * Find and validate the headers of all children.
+	 * @return	The headers of all children of this {@link Atom}
+	 * @throws IOException	Reading the file failed
 	 */
-	private static boolean checkName(byte[] name) {
-		for(int i=0;i<name.length;i++)
-			if ((name[i] < 32 && name[i] != (byte)0xA9) || name[i] > 126)
-				return false;
-		return true;
+	private List<Header> scan() throws IOException {
+		final List<Header> result = new ArrayList<Header>();
+		final long begin = source.metrics == null ? 0 : System.nanoTime();
+		scan(source, start, length, offset,
+				(pointer, len, offset, type) -> result.add(new Header(pointer, len, offset, type)));
+		if (source.metrics != null)
+			source.metrics.time(ParseMetrics.Phase.SCAN, System.nanoTime() - begin);
+		return result;
+	}
+
+	/**
+	 * Receives the child headers found by {@link ParentAtom#scan(AtomSource, long, long, int, HeaderHandler)}
+	 */
+	interface HeaderHandler {
+		/**
+		 * A valid child header has been found
+		 * @param pointer	the start pointer of the atom
+		 * @param len	the length of the atom
+		 * @param offset	the start pointer of the payload relative to "pointer"
+		 * @param type	the name of the atom, packed as {@link FourCC}
+		 * @throws IOException	Handling the header failed
+		 */
+		void header(long pointer, long len, int offset, int type) throws IOException;
+	}
+
+	/**
+	 * Find and validate the headers of all children of an atom, without creating any {@link Atom}s.
+	 * The headers are read through a window of at most {@link #WINDOW} bytes,
+	 * so all headers of small children are found using a single positional read.
+	 * @param source	the datasource
+	 * @param start	Starting pointer of the parent atom
+	 * @param length	Length of the parent atom in bytes (including offset)
+	 * @param offset	The starting point of the first child from the start of the parent atom
+	 * @param handler	receives the headers, in file order
+	 * @throws AtomException	the payload of the parent does not consist of valid atoms
+	 * @throws IOException	Reading the file failed
+	 */
+	static void scan(AtomSource source, long start, long length, int offset, HeaderHandler handler)
+			throws AtomException, IOException {
+		final File file = source.file;
+		final long end = start+length;
+		long pointer = start+offset;
+		final ByteBuffer window = ByteBuffer.allocate((int) Math.min(WINDOW, Math.max(length-offset, 0)));
+		long windowStart = pointer;
+		boolean truncated = false;
+		window.limit(0);
+		while(pointer < end) {
+			if (pointer + LARGE_HEADER > windowStart + window.limit() && !truncated) {
+				window.clear();
+				window.limit((int) Math.min(window.capacity(), end-pointer));
+				int requested = window.limit();
+				truncated = source.read(window, pointer) < requested;
+				window.flip();
+				windowStart = pointer;
+			}
+			if (pointer-windowStart + HEADER > window.limit())
+				throw headerException(file, start, truncated);
+			final int rel = (int) (pointer-windowStart);
+			long len = window.getInt(rel) & 0x00000000FFFFFFFFL; // Unsigned positive integer
+			final int type = window.getInt(rel+4);
+			int headerLength = HEADER;
+			if (len == 1) {
+				if (rel + LARGE_HEADER > window.limit())
+					throw headerException(file, start, truncated);
+				len = window.getLong(rel+HEADER);
+				headerLength += 0x8;
+			}
+			if (len < 8)
+				throw new AtomException(file, start, "Invalid Atom length ("+len+")");
+			if (!FourCC.isValid(type))
+				throw new AtomException(file, start, "Invalid Atom name");
+			sanityCheck(file, start, length, pointer, len, type);
+			handler.header(pointer, len, headerLength, type);
+			pointer += len;
+		}
 	}
 
+	/**
+	 * Create the exception for a header that could not be read completely
+	 * @param file	the file being read
+	 * @param start	Starting pointer of the parent atom
+	 * @param truncated	whether the end of the file was reached
+	 * @return	the exception to throw
+	 */
+	private static AtomException headerException(File file, long start, boolean truncated) {
+		if (truncated)
+			return new AtomException(file, start, "Atom start+length exceeds file length");
+		return new AtomException(file, start, "Atom header is larger than its enclosing atom.");
+	}
+	
 	/**
 	 * Add the atom to the result
 	 * @param pointer	the start pointer of the atom
 	 * @param len	the length of the atom
 	 * @param offset	the start pointer of the payload relative to "pointer"
-	 * @param name	the name of the atom (this is used to make a more readable error message, it is not checked)
+	 * @param type	the name of the atom, packed as {@link FourCC}
 	 * @param result	the result	
 	 * @throws IOException
 	 */
-	private void pushAtom(long pointer, long len, int offset, String name, LinkedList<Atom> result) throws IOException {
+	private void pushAtom(long pointer, long len, int offset, int type, LinkedList<Atom> result) throws IOException {
 		result.add(Atom.instantiate(
-				name,
-				file,
+				type,
+				source,
 				pointer,
 				len,
 				offset
@@ -146,130 +366,366 @@ public class ParentAtom extends Atom implements List<Atom> {
 	 * @throws AtomException	when the entered variables do not make sense
 	 */
 	protected void sanityCheck(long pointer, long len, String name) throws AtomException {
+		sanityCheck(file, start, length, pointer, len, FourCC.pack(name));
+	}
+
+	/**
+	 * Check whether a child atom fits in its parent atom and if the variables aren't overflowing.
+	 * 
+	 * @param file	the file being read
+	 * @param start	the start pointer of the parent atom
+	 * @param length	the length of the parent atom
+	 * @param pointer	the start pointer of the atom
+	 * @param len	the length of the atom
+	 * @param type	the name of the atom (this is used to make a more readable error message, it is not checked)
+	 * @throws AtomException	when the entered variables do not make sense
+	 */
+	static void sanityCheck(File file, long start, long length, long pointer, long len, int type)
+			throws AtomException {
 		if (pointer+len > start+length)
-			throw new AtomException(file, start, "Atom "+name+" is larger than its enclosing atom.");
+			throw new AtomException(file, start, "Atom "+FourCC.toString(type)+" is larger than its enclosing atom.");
 		if (len <= 0 || pointer + len <= pointer)
 			throw new AtomException(
 					file,
 					start,
 					"Pointer is overflowing after Atom \"" +
-					name+"\" at 0x"+Long.toHexString(pointer)+" and length "+len+". "
+					FourCC.toString(type)+"\" at 0x"+Long.toHexString(pointer)+" and length "+len+". "
 				);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * A {@link ParentAtom} is modified when a child is modified,
+	 * or when the children no longer exactly fill its original payload in the original order.
+	 * Children that were never parsed in {@link ParseMode#LAZY} mode cannot have been changed.
+	 */
+	@Override
+	public boolean isModified() {
+		if (source == null)
+			return true;
+		final List<Atom> children = this.children;
+		if (children == null)
+			return false;
+		long pointer = start+offset;
+		for(Atom child : children) {
+			if (child.source != source || child.start != pointer || child.isModified())
+				return true;
+			pointer += child.length;
+		}
+		return pointer != start+length;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#getEncodedLength()
+	 */
+	@Override
+	public long getEncodedLength() throws IOException {
+		if (!isModified())
+			return length;
+		long result = HEADER + offset - headerLength();
+		for(Atom child : children())
+			result += child.getEncodedLength();
+		if (result > 0xFFFFFFFFL)
+			result += LARGE_HEADER - HEADER;
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.Atom#encode(java.nio.ByteBuffer)
+	 */
+	@Override
+	public void encode(ByteBuffer dst) throws IOException {
+		if (!isModified()) {
+			super.encode(dst);
+			return;
+		}
+		writeHeader(dst, type, getEncodedLength());
+		final int headerLength = headerLength();
+		if (offset > headerLength) {
+			final ByteBuffer part = dst.duplicate();
+			part.limit(part.position() + offset - headerLength);
+			source.readFully(part, start + headerLength);
+			dst.position(part.position());
+		}
+		for(Atom child : children())
+			child.encode(dst);
+	}
+
+	/**
+	 * Get the length of the original header, which is {@link #HEADER} or {@link #LARGE_HEADER} bytes.
+	 * The bytes between the header and {@link #offset} (such as a version and flags) are kept when this {@link Atom} is written.
+	 * @return	the length of the header in bytes
+	 * @throws IOException	Reading the file failed
+	 */
+	int headerLength() throws IOException {
+		if (source == null)
+			return offset;
+		final ByteBuffer size = ByteBuffer.allocate(4);
+		source.readFully(size, start);
+		return size.getInt(0) == 1 ? LARGE_HEADER : HEADER;
+	}
+
+	/**
+	 * Check whether a child is padding of which the space may be reused
+	 * @param child	the child
+	 * @return	<code>true</code> for unmodified <code>free</code> and <code>skip</code> {@link Atom}s from this file
+	 */
+	private boolean isPadding(Atom child) {
+		return (child.type == FourCC.FREE || child.type == FourCC.SKIP)
+				&& child.source == source && !child.isModified();
+	}
+
+	/**
+	 * Plan writing the changes to this {@link Atom} without moving any {@link Atom} that did not change.
+	 * <p>
+	 * Unmodified children keep their location and are not written.
+	 * Modified children that contain other {@link Atom}s keep their location as well,
+	 * and are planned recursively, so only the changed parts are written.
+	 * The other modified and new children are written in the space between these fixed children,
+	 * which consists of their own original space and of the <code>free</code> and <code>skip</code> padding
+	 * between the fixed children. Space which is left over becomes a <code>free</code> {@link Atom}.
+	 * When the last children do not fit, this {@link Atom} grows into the <code>extra</code>
+	 * bytes after it, and its length in the header is adjusted.
+	 * If it grows because of its own last children, <code>reserve</code> bytes of padding
+	 * are added after them, so later changes can be saved in place as well.
+	 * </p>
+	 * @param extra	Amount of bytes directly after this {@link Atom} which may be used when it grows
+	 * @param reserve	Amount of padding to leave after the last child when this {@link Atom} grows
+	 * @param patches	Receives the writes needed to save this {@link Atom}
+	 * @return	The new length of this {@link Atom}, or <code>-1</code> when the changes do not fit
+	 * @throws IOException	Reading the file failed
+	 */
+	long plan(long extra, long reserve, List<Patch> patches) throws IOException {
+		final long end = start+length;
+		final long limit = end+extra;
+		final List<Atom> padding = new ArrayList<Atom>();
+		final List<Atom> fixed = new ArrayList<Atom>();
+		final List<List<Atom>> groups = new ArrayList<List<Atom>>();
+		List<Atom> group = new ArrayList<Atom>();
+		groups.add(group);
+		long pointer = start+offset;
+		for(Atom child : children()) {
+			if (isPadding(child)) {
+				padding.add(child);
+			} else if (child.source == source && child.start >= pointer && child.start+child.length <= end
+					&& (child instanceof ParentAtom || !child.isModified())) {
+				fixed.add(child);
+				groups.add(group = new ArrayList<Atom>());
+				pointer = child.start+child.length;
+			} else {
+				group.add(child);
+			}
+		}
+
+		pointer = start+offset;
+		long newEnd = end;
+		for(int i=0;i<groups.size();i++) {
+			final long need = encodedLength(groups.get(i));
+			if (need > 0)
+				patches.add(new Patch(pointer, need, groups.get(i)));
+			pointer += need;
+			if (i == fixed.size()) {
+				/* The last group may make this atom grow, or leave space at the end */
+				if (pointer > limit)
+					return -1;
+				if (pointer > end) {
+					newEnd = pointer;
+					if (need > 0 && reserve > 0 && fits(limit - pointer - reserve)) {
+						newEnd += reserve;
+						patches.add(Patch.free(pointer, reserve));
+					}
+				} else if (fits(end - pointer)) {
+					fill(pointer, end, padding, patches);
+				} else if (name == null) {
+					/* The root is the file itself, so it can shrink */
+					newEnd = pointer;
+				} else if (fits(limit - pointer - HEADER)) {
+					newEnd = pointer + HEADER;
+					patches.add(Patch.free(pointer, HEADER));
+				} else {
+					return -1;
+				}
+				break;
+			}
+			final Atom next = fixed.get(i);
+			if (pointer > next.start || !fits(next.start - pointer))
+				return -1;
+			fill(pointer, next.start, padding, patches);
+			pointer = next.start+next.length;
+			if (next.isModified()) {
+				final long bound = i+1 < fixed.size() ? fixed.get(i+1).start : limit;
+				final long available = bound - pointer - encodedLength(groups.get(i+1));
+				if (available < 0)
+					return -1;
+				final long newLength = ((ParentAtom) next).plan(available, reserve, patches);
+				if (newLength < 0)
+					return -1;
+				pointer = next.start+newLength;
+			}
+		}
+
+		if (newEnd != end && name != null) {
+			final int headerLength = headerLength();
+			final long newLength = newEnd-start;
+			if (headerLength == HEADER && newLength > 0xFFFFFFFFL)
+				return -1;
+			patches.add(Patch.size(start, headerLength, newLength));
+		}
+		return newEnd-start;
+	}
+
+	/**
+	 * Sum the encoded lengths of {@link Atom}s
+	 * @param atoms	the {@link Atom}s
+	 * @return	the total length in bytes
+	 * @throws IOException	Reading the file failed
+	 */
+	private static long encodedLength(List<Atom> atoms) throws IOException {
+		long result = 0;
+		for(Atom atom : atoms)
+			result += atom.getEncodedLength();
+		return result;
+	}
+
+	/**
+	 * Plan filling space with a <code>free</code> {@link Atom},
+	 * unless the space is exactly an original padding {@link Atom}
+	 * @param pointer	the start of the space
+	 * @param end	the end of the space
+	 * @param padding	the original padding {@link Atom}s
+	 * @param patches	Receives the write
+	 */
+	private static void fill(long pointer, long end, List<Atom> padding, List<Patch> patches) {
+		if (pointer == end)
+			return;
+		for(Atom atom : padding)
+			if (atom.start == pointer && atom.length == end-pointer)
+				return;
+		patches.add(Patch.free(pointer, end-pointer));
+	}
+
+	/**
+	 * Check whether an amount of space can be filled with a <code>free</code> {@link Atom}
+	 * @param space	the amount of bytes
+	 * @return	<code>true</code> if there is no space, or enough for an {@link Atom} header
+	 */
+	private static boolean fits(long space) {
+		return space == 0 || space >= HEADER;
+	}
+
 	/** {@inheritDoc} */
 	public int size() {
-		return children.size();
+		return children().size();
 	}
 
 	/** {@inheritDoc} */
 	public boolean isEmpty() {
-		return children.isEmpty();
+		return children().isEmpty();
 	}
 
 	/** {@inheritDoc} */
 	public boolean contains(Object o) {
-		return children.contains(o);
+		return children().contains(o);
 	}
 
 	/** {@inheritDoc} */
 	public Iterator<Atom> iterator() {
-		return children.iterator();
+		return children().iterator();
 	}
 
 	/** {@inheritDoc} */
 	public Object[] toArray() {
-		return children.toArray();
+		return children().toArray();
 	}
 
 	/** {@inheritDoc} */
 	public <T> T[] toArray(T[] a) {
-		return children.toArray(a);
+		return children().toArray(a);
 	}
 
 	/** {@inheritDoc} */
 	public boolean add(Atom e) {
-		return children.add(e);
+		return children().add(e);
 	}
 
 	/** {@inheritDoc} */
 	public boolean remove(Object o) {
-		return children.remove(o);
+		return children().remove(o);
 	}
 
 	/** {@inheritDoc} */
 	public boolean containsAll(Collection<?> c) {
-		return children.containsAll(c);
+		return children().containsAll(c);
 	}
 
 	/** {@inheritDoc} */
 	public boolean addAll(Collection<? extends Atom> c) {
-		return children.addAll(c);
+		return children().addAll(c);
 	}
 
 	/** {@inheritDoc} */
 	public boolean addAll(int index, Collection<? extends Atom> c) {
-		return children.addAll(c);
+		return children().addAll(c);
 	}
 
 	/** {@inheritDoc} */
 	public boolean removeAll(Collection<?> c) {
-		return children.removeAll(c);
+		return children().removeAll(c);
 	}
 
 	/** {@inheritDoc} */
 	public boolean retainAll(Collection<?> c) {
-		return children.retainAll(c);
+		return children().retainAll(c);
 	}
 
 	/** {@inheritDoc} */
 	public void clear() {
-		children.clear();
+		children().clear();
 	}
 
 	/** {@inheritDoc} */
 	public Atom get(int index) {
-		return children.get(index);
+		return children().get(index);
 	}
 
 	/** {@inheritDoc} */
 	public Atom set(int index, Atom element) {
-		return children.set(index, element);
+		return children().set(index, element);
 	}
 
 	/** {@inheritDoc} */
 	public void add(int index, Atom element) {
-		children.add(index, element);
+		children().add(index, element);
 	}
 
 	/** {@inheritDoc} */
 	public Atom remove(int index) {
-		return children.remove(index);
+		return children().remove(index);
 	}
 
 	/** {@inheritDoc} */
 	public int indexOf(Object o) {
-		return children.indexOf(o);
+		return children().indexOf(o);
 	}
 
 	/** {@inheritDoc} */
 	public int lastIndexOf(Object o) {
-		return children.lastIndexOf(o);
+		return children().lastIndexOf(o);
 	}
 
 	/** {@inheritDoc} */
 	public ListIterator<Atom> listIterator() {
-		return children.listIterator();
+		return children().listIterator();
 	}
 
 	/** {@inheritDoc} */
 	public ListIterator<Atom> listIterator(int index) {
-		return children.listIterator(index);
+		return children().listIterator(index);
 	}
 
 	/** {@inheritDoc} */
 	public List<Atom> subList(int fromIndex, int toIndex) {
-		return children.subList(fromIndex, toIndex);
+		return children().subList(fromIndex, toIndex);
 	}
 
 	/* (non-Javadoc)
@@ -277,7 +733,7 @@ public class ParentAtom extends Atom implements List<Atom> {
 	 */
 	@Override
 	public int hashCode() {
-		return children.hashCode();
+		return children().hashCode();
 	}
 
 	/* (non-Javadoc)
@@ -286,10 +742,108 @@ public class ParentAtom extends Atom implements List<Atom> {
 	@Override
 	public boolean equals(Object obj) {
 		try {
-			return ((ParentAtom) obj).children.equals(children);
+			return ((ParentAtom) obj).children().equals(children());
 		} catch (Exception e) {
 			return false;
 		}
 	}
 
+	/**
+	 * Bytes to be written at a position in the file when it is saved in place.
+	 * The data of the {@link Atom}s is only read when the whole save has been planned,
+	 * and all data is read before anything is written.
+	 */
+	static final class Patch {
+		/** the position in the file */
+		final long position;
+		/** the amount of bytes */
+		final long length;
+		/** the {@link Atom}s to write, or <code>null</code> */
+		private final List<Atom> atoms;
+		/** the bytes to write if there are no {@link Atom}s */
+		private final ByteBuffer data;
+
+		Patch(long position, long length, List<Atom> atoms) {
+			this.position = position;
+			this.length = length;
+			this.atoms = atoms;
+			this.data = null;
+		}
+
+		private Patch(long position, ByteBuffer data) {
+			this.position = position;
+			this.length = data.remaining();
+			this.atoms = null;
+			this.data = data;
+		}
+
+		/**
+		 * Create a patch which turns space into a <code>free</code> {@link Atom}.
+		 * Only the header is written.
+		 * @param position	the start of the space
+		 * @param length	the amount of bytes, at least {@link ParentAtom#HEADER}
+		 * @return	the patch
+		 */
+		static Patch free(long position, long length) {
+			final ByteBuffer header = ByteBuffer.allocate(length > 0xFFFFFFFFL ? LARGE_HEADER : HEADER);
+			writeHeader(header, FourCC.FREE, length);
+			header.flip();
+			return new Patch(position, header);
+		}
+
+		/**
+		 * Create a patch which changes the length in an atom header
+		 * @param start	the start of the atom
+		 * @param headerLength	the length of the header, {@link ParentAtom#HEADER} or {@link ParentAtom#LARGE_HEADER}
+		 * @param length	the new length of the atom
+		 * @return	the patch
+		 */
+		static Patch size(long start, int headerLength, long length) {
+			if (headerLength == HEADER) {
+				final ByteBuffer size = ByteBuffer.allocate(4);
+				size.putInt(0, (int) length);
+				return new Patch(start, size);
+			}
+			final ByteBuffer size = ByteBuffer.allocate(8);
+			size.putLong(0, length);
+			return new Patch(start+HEADER, size);
+		}
+
+		/**
+		 * Get the bytes to write
+		 * @return	a buffer containing {@link #length} bytes
+		 * @throws IOException	Reading the file failed
+		 */
+		ByteBuffer encode() throws IOException {
+			if (data != null)
+				return data.duplicate();
+			final ByteBuffer result = ByteBuffer.allocate((int) length);
+			for(Atom atom : atoms)
+				atom.encode(result);
+			result.flip();
+			return result;
+		}
+	}
+
+	/**
+	 * Location of a child {@link Atom} found by {@link ParentAtom#scan()}
+	 */
+	private static final class Header {
+		/** the start pointer of the atom */
+		final long pointer;
+		/** the length of the atom */
+		final long length;
+		/** the start pointer of the payload relative to "pointer" */
+		final int offset;
+		/** the name of the atom, packed as {@link FourCC} */
+		final int type;
+
+		Header(long pointer, long length, int offset, int type) {
+			this.pointer = pointer;
+			this.length = length;
+			this.offset = offset;
+			this.type = type;
+		}
+	}
+
 }
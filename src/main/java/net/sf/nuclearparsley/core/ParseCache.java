@@ -0,0 +1,290 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of parse results.
+ * For every file, the {@link AtomIndex} is stored in a cache directory,
+ * keyed by the canonical path of the file, and validated against its length and last modification time.
+ * As long as a file does not change, its {@link RootAtom} is rehydrated from the cache
+ * without opening the file itself; only payloads are read from the file when they are requested.
+ * <p>
+ * The total size of the cache is bounded; when it grows too big,
+ * the least recently used entries are removed.
+ * Changes that keep both the length and the modification time of a file the same are not detected.
+ */
+public class ParseCache {
+
+	/** Identifies a cache entry */
+	private static final int MAGIC = 0x4E504958; // "NPIX"
+	/** Version of the entry layout */
+	private static final short VERSION = 2;
+	/** Extension of cache entries */
+	private static final String EXTENSION = ".idx";
+	/** Fraction of {@link #maxBytes} the cache is reduced to when it is too big */
+	private static final double EVICT_TARGET = 0.9;
+
+	/** The directory containing the cache entries */
+	public final File directory;
+	/** The maximum total size of all cache entries in bytes */
+	public final long maxBytes;
+
+	/** Total size of all cache entries, -1 until known */
+	private final AtomicLong size = new AtomicLong(-1);
+
+	/**
+	 * Construct a new {@link ParseCache}
+	 * @param directory	The directory containing the cache entries, created if it doesn't exist
+	 * @param maxBytes	The maximum total size of all cache entries in bytes
+	 * @throws IOException	The directory cannot be created
+	 */
+	public ParseCache(File directory, long maxBytes) throws IOException {
+		Files.createDirectories(directory.toPath());
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the {@link RootAtom} of a file, from the cache if possible.
+	 * The {@link Atom}s have the same types as when the file is parsed, see {@link AtomIndex#toTree()}.
+	 * @param file	The file
+	 * @return	The {@link RootAtom}
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public RootAtom get(File file) throws AtomException, IOException {
+		return index(file).toTree();
+	}
+
+	/**
+	 * Get the {@link AtomIndex} of a file, from the cache if possible.
+	 * When the file is not in the cache or has changed, it is parsed and the result is stored.
+	 * @param file	The file
+	 * @return	The {@link AtomIndex}
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public AtomIndex index(File file) throws AtomException, IOException {
+		final File canonical = file.getCanonicalFile();
+		final long length = canonical.length();
+		final long lastModified = canonical.lastModified();
+		final File entry = entry(canonical);
+		final AtomSource source = new AtomSource(canonical);
+		final AtomIndex cached = read(entry, canonical, length, lastModified, source);
+		if (cached != null)
+			return cached;
+		final AtomIndex result;
+		try {
+			result = AtomIndex.build(source);
+		} finally {
+			source.close();
+		}
+		/* Only store the result if the file didn't change while parsing */
+		if (canonical.length() == length && canonical.lastModified() == lastModified)
+			write(entry, canonical, length, lastModified, result);
+		return result;
+	}
+
+	/**
+	 * Remove the cache entry for a file
+	 * @param file	The file
+	 * @throws IOException	The entry could not be removed
+	 */
+	public void invalidate(File file) throws IOException {
+		remove(entry(file.getCanonicalFile()));
+	}
+
+	/**
+	 * Remove all cache entries
+	 * @throws IOException	An entry could not be removed
+	 */
+	public synchronized void clear() throws IOException {
+		for(File entry : entries())
+			Files.deleteIfExists(entry.toPath());
+		size.set(0);
+	}
+
+	/**
+	 * Read a cache entry, and remove it if it is stale
+	 * @return	The cached index, or <code>null</code> if there is no valid entry
+	 */
+	private AtomIndex read(File entry, File file, long length, long lastModified, AtomSource source) {
+		if (!entry.isFile())
+			return null;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+			try {
+				if (in.readInt() == MAGIC && in.readShort() == VERSION && in.readUTF().equals(file.getPath())
+						&& in.readLong() == length && in.readLong() == lastModified) {
+					final AtomIndex result = AtomIndex.readFrom(in, source);
+					entry.setLastModified(System.currentTimeMillis());
+					return result;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			/* Corrupt entry, treat as stale */
+		}
+		try {
+			remove(entry);
+		} catch (IOException e) {
+			/* Will be overwritten */
+		}
+		return null;
+	}
+
+	/**
+	 * Store a cache entry, and evict old entries if the cache is too big
+	 */
+	private void write(File entry, File file, long length, long lastModified, AtomIndex index) throws IOException {
+		Files.createDirectories(entry.getParentFile().toPath());
+		final File temp = File.createTempFile("entry", ".tmp", entry.getParentFile());
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeUTF(file.getPath());
+				out.writeLong(length);
+				out.writeLong(lastModified);
+				index.writeTo(out);
+			} finally {
+				out.close();
+			}
+			final long previous = entry.length();
+			Files.move(temp.toPath(), entry.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			if (size() >= 0)
+				size.addAndGet(entry.length()-previous);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		if (size() > maxBytes)
+			evict();
+	}
+
+	/**
+	 * Remove a cache entry
+	 */
+	private void remove(File entry) throws IOException {
+		final long length = entry.length();
+		if (Files.deleteIfExists(entry.toPath()) && size() >= 0)
+			size.addAndGet(-length);
+	}
+
+	/**
+	 * Remove the least recently used entries until the cache is below {@link #EVICT_TARGET} of {@link #maxBytes}
+	 */
+	private synchronized void evict() {
+		final List<File> entries = entries();
+		final long[] lastUsed = new long[entries.size()];
+		long total = 0;
+		for(int i=0;i<lastUsed.length;i++) {
+			lastUsed[i] = entries.get(i).lastModified();
+			total += entries.get(i).length();
+		}
+		if (total > maxBytes) {
+			final List<Integer> order = new ArrayList<Integer>(entries.size());
+			for(int i=0;i<lastUsed.length;i++)
+				order.add(i);
+			Collections.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+			for(int i : order) {
+				if (total <= maxBytes*EVICT_TARGET)
+					break;
+				final File entry = entries.get(i);
+				final long length = entry.length();
+				if (entry.delete())
+					total -= length;
+			}
+		}
+		size.set(total);
+	}
+
+	/**
+	 * @return	the total size of the cache entries, computed on first use
+	 */
+	private long size() {
+		long result = size.get();
+		if (result < 0) {
+			synchronized (this) {
+				result = size.get();
+				if (result < 0) {
+					result = 0;
+					for(File entry : entries())
+						result += entry.length();
+					size.set(result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return	all cache entries
+	 */
+	private List<File> entries() {
+		final List<File> result = new ArrayList<File>();
+		final File[] buckets = directory.listFiles();
+		if (buckets != null)
+			for(File bucket : buckets) {
+				final File[] entries = bucket.listFiles((dir, name) -> name.endsWith(EXTENSION));
+				if (entries != null)
+					Collections.addAll(result, entries);
+			}
+		return result;
+	}
+
+	/**
+	 * Get the location of the cache entry for a file.
+	 * Entries are spread over 256 subdirectories, named after the first byte of the hash.
+	 * @param canonical	The canonical file
+	 * @return	The location of the cache entry
+	 */
+	private File entry(File canonical) {
+		final byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-1").digest(canonical.getPath().getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is required to be supported", e);
+		}
+		final StringBuilder name = new StringBuilder(hash.length*2);
+		for(byte b : hash)
+			name.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return new File(new File(directory, name.substring(0, 2)), name+EXTENSION);
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Java Flight Recorder events for parsing: one for every file parse, and one for every table decode of at least 1 ms.
+ * The events are implemented by <code>JfrParseEvents</code>, which is compiled separately for Java 11
+ * and loaded by name, so the parser itself still builds and runs on Java 8.
+ * Without JFR, or when that class is not built, the events are not recorded.
+ * An event is only created when it is enabled in the recording, so the overhead without a recording is a single check.
+ */
+abstract class ParseEvents {
+
+	/** Name of the implementation */
+	private static final String IMPLEMENTATION = "net.sf.nuclearparsley.core.JfrParseEvents";
+	/** The implementation, <code>null</code> when JFR is not available */
+	private static final ParseEvents INSTANCE = load();
+
+	/**
+	 * @return	The implementation, or <code>null</code> if JFR or the implementation is not available
+	 */
+	private static ParseEvents load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (ParseEvents) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Start a file parse event
+	 * @return	The event, or <code>null</code> when it is not recorded
+	 */
+	static Object beginParse() {
+		return INSTANCE == null ? null : INSTANCE.startParse();
+	}
+
+	/**
+	 * Finish a file parse event
+	 * @param started	The result of {@link #beginParse()}
+	 * @param root	The parsed file
+	 */
+	static void endParse(Object started, RootAtom root) {
+		if (started != null)
+			INSTANCE.commitParse(started, root);
+	}
+
+	/**
+	 * Start a table decode event
+	 * @return	The event, or <code>null</code> when it is not recorded
+	 */
+	static Object beginDecode() {
+		return INSTANCE == null ? null : INSTANCE.startDecode();
+	}
+
+	/**
+	 * Finish a table decode event
+	 * @param started	The result of {@link #beginDecode()}
+	 * @param atom	The decoded {@link Atom}
+	 */
+	static void endDecode(Object started, Atom atom) {
+		if (started != null)
+			INSTANCE.commitDecode(started, atom);
+	}
+
+	/**
+	 * @return	A started file parse event, or <code>null</code> when it is not enabled
+	 */
+	abstract Object startParse();
+
+	/**
+	 * @param started	The event returned by {@link #startParse()}
+	 * @param root	The parsed file
+	 */
+	abstract void commitParse(Object started, RootAtom root);
+
+	/**
+	 * @return	A started table decode event, or <code>null</code> when it is not enabled
+	 */
+	abstract Object startDecode();
+
+	/**
+	 * @param started	The event returned by {@link #startDecode()}
+	 * @param atom	The decoded {@link Atom}
+	 */
+	abstract void commitDecode(Object started, Atom atom);
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of parsing, collected when enabled.
+ * An {@link AtomSource} records into the {@link ParseMetrics} it was constructed with;
+ * every {@link ParseMetrics} also records into its parent, so per parse metrics can add up to cumulative metrics.
+ * Metrics are disabled by default; when {@link #setDefault(ParseMetrics)} is called,
+ * every new {@link AtomSource} gets its own {@link ParseMetrics} with the default as parent.
+ * <p>
+ * Every read through {@link AtomSource#read(java.nio.ByteBuffer, long)} is counted, including those of payload streams.
+ * Memory mapped payloads are counted separately, since they are read by the operating system when they are used.
+ * Copies made by {@link AtomWriter} are not counted.
+ * All methods are thread safe.
+ * </p>
+ */
+public final class ParseMetrics {
+
+	/**
+	 * The phases of which the time is measured
+	 */
+	public enum Phase {
+		/** Opening files */
+		OPEN,
+		/** Reading the headers of the children of a {@link ParentAtom} */
+		SCAN,
+		/** Decoding {@link TableAtom}s */
+		DECODE,
+		/** Constructing a {@link RootAtom}, including all other phases during construction */
+		PARSE,
+	}
+
+	/** The parent of per parse metrics, <code>null</code> when metrics are disabled */
+	private static volatile ParseMetrics defaultMetrics;
+
+	/** The metrics which also receive everything recorded here, <code>null</code> for none */
+	public final ParseMetrics parent;
+
+	private final LongAdder filesOpened = new LongAdder();
+	private final LongAdder readCalls = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesMapped = new LongAdder();
+	private final LongAdder atomsCreated = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+	/** Amount of {@link Atom}s created, by packed name */
+	private final Map<Integer, LongAdder> atomsByType = new ConcurrentHashMap<Integer, LongAdder>();
+	/** Time spent in every phase in nanoseconds, by {@link Phase#ordinal()} */
+	private final LongAdder[] phaseTimes = new LongAdder[Phase.values().length];
+
+	/**
+	 * Construct new cumulative {@link ParseMetrics}
+	 */
+	public ParseMetrics() {
+		this(null);
+	}
+
+	/**
+	 * Construct new {@link ParseMetrics}
+	 * @param parent	The metrics which also receive everything recorded here, <code>null</code> for none
+	 */
+	public ParseMetrics(ParseMetrics parent) {
+		this.parent = parent;
+		for(int i=0;i<phaseTimes.length;i++)
+			phaseTimes[i] = new LongAdder();
+	}
+
+	/**
+	 * Enable metrics for all {@link AtomSource}s constructed from now on
+	 * @param metrics	The cumulative metrics, <code>null</code> to disable metrics
+	 */
+	public static void setDefault(ParseMetrics metrics) {
+		defaultMetrics = metrics;
+	}
+
+	/**
+	 * @return	The cumulative metrics, <code>null</code> if metrics are disabled
+	 */
+	public static ParseMetrics getDefault() {
+		return defaultMetrics;
+	}
+
+	/**
+	 * @return	New metrics for one parse with the default as parent, or <code>null</code> if metrics are disabled
+	 */
+	static ParseMetrics forParse() {
+		final ParseMetrics parent = defaultMetrics;
+		return parent == null ? null : new ParseMetrics(parent);
+	}
+
+	/**
+	 * Record that a file was opened
+	 */
+	void fileOpened() {
+		for(ParseMetrics metrics=this;metrics != null;metrics=metrics.parent)
+			metrics.filesOpened.increment();
+	}
+
+	/**
+	 * Record a read call
+	 * @param bytes	The amount of bytes read
+	 */
+	void read(long bytes) {
+		for(ParseMetrics metrics=this;metrics != null;metrics=metrics.parent) {
+			metrics.readCalls.increment();
+			metrics.bytesRead.add(bytes);
+		}
+	}
+
+	/**
+	 * Record that a part of a file was memory mapped
+	 * @param bytes	The amount of bytes mapped
+	 */
+	void mapped(long bytes) {
+		for(ParseMetrics metrics=this;metrics != null;metrics=metrics.parent)
+			metrics.bytesMapped.add(bytes);
+	}
+
+	/**
+	 * Record that an {@link Atom} was created
+	 * @param type	The name of the {@link Atom}, packed as {@link FourCC}
+	 * @param fallback	Whether a generic {@link Atom} was created because the specific type could not be used
+	 */
+	void atomCreated(int type, boolean fallback) {
+		for(ParseMetrics metrics=this;metrics != null;metrics=metrics.parent) {
+			metrics.atomsCreated.increment();
+			if (fallback)
+				metrics.fallbacks.increment();
+			metrics.atomsByType.computeIfAbsent(type, key -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * Record the time spent in a phase
+	 * @param phase	The phase
+	 * @param nanos	The time in nanoseconds
+	 */
+	void time(Phase phase, long nanos) {
+		for(ParseMetrics metrics=this;metrics != null;metrics=metrics.parent)
+			metrics.phaseTimes[phase.ordinal()].add(nanos);
+	}
+
+	/**
+	 * @return	The amount of times a file was opened
+	 */
+	public long getFilesOpened() {
+		return filesOpened.sum();
+	}
+
+	/**
+	 * @return	The amount of read calls on file channels
+	 */
+	public long getReadCalls() {
+		return readCalls.sum();
+	}
+
+	/**
+	 * @return	The amount of bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * @return	The amount of bytes memory mapped
+	 */
+	public long getBytesMapped() {
+		return bytesMapped.sum();
+	}
+
+	/**
+	 * @return	The amount of {@link Atom}s created
+	 */
+	public long getAtomsCreated() {
+		return atomsCreated.sum();
+	}
+
+	/**
+	 * @param name	4-character name of the {@link Atom}
+	 * @return	The amount of {@link Atom}s created with the name
+	 */
+	public long getAtomsCreated(String name) {
+		final LongAdder result = atomsByType.get(FourCC.pack(name));
+		return result == null ? 0 : result.sum();
+	}
+
+	/**
+	 * @return	The amount of {@link Atom}s created by name, sorted by name
+	 */
+	public Map<String, Long> getAtomsByType() {
+		final Map<String, Long> result = new TreeMap<String, Long>();
+		for(Map.Entry<Integer, LongAdder> entry : atomsByType.entrySet())
+			result.put(FourCC.toString(entry.getKey()), entry.getValue().sum());
+		return result;
+	}
+
+	/**
+	 * @return	The amount of generic {@link Atom}s created because the specific type could not be used
+	 */
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+
+	/**
+	 * @param phase	The phase
+	 * @param unit	The unit of the result
+	 * @return	The time spent in the phase
+	 */
+	public long getTime(Phase phase, TimeUnit unit) {
+		return unit.convert(phaseTimes[phase.ordinal()].sum(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Reset all counters and timings to 0. The parent is not reset.
+	 */
+	public void reset() {
+		filesOpened.reset();
+		readCalls.reset();
+		bytesRead.reset();
+		bytesMapped.reset();
+		atomsCreated.reset();
+		fallbacks.reset();
+		atomsByType.clear();
+		for(LongAdder time : phaseTimes)
+			time.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder()
+				.append("files opened: ").append(getFilesOpened())
+				.append(", read calls: ").append(getReadCalls())
+				.append(", bytes read: ").append(getBytesRead())
+				.append(", bytes mapped: ").append(getBytesMapped())
+				.append(", atoms: ").append(getAtomsCreated())
+				.append(", fallbacks: ").append(getFallbacks());
+		for(Phase phase : Phase.values())
+			result.append(", ").append(phase.name().toLowerCase()).append(": ")
+					.append(getTime(phase, TimeUnit.MICROSECONDS)).append(" us");
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Determines when the children of a {@link ParentAtom} are parsed.
+ */
+public enum ParseMode {
+
+	/** The whole tree is parsed when the {@link RootAtom} is constructed */
+	EAGER,
+	/**
+	 * Only the headers of the direct children are validated when a {@link ParentAtom} is constructed.
+	 * The children themselves are created when the {@link ParentAtom} is first used as a {@link java.util.List},
+	 * so branches that are never visited are never parsed.
+	 */
+	LAZY,
+	/**
+	 * Like {@link #EAGER}, but after the headers of the children of a {@link ParentAtom} are read,
+	 * children of at least {@link ParentAtom#PARALLEL_THRESHOLD} bytes are parsed as
+	 * {@link java.util.concurrent.ForkJoinTask}s, in the common pool unless the parse is started from another pool.
+	 * The order of the children is preserved.
+	 */
+	PARALLEL,
+
+}
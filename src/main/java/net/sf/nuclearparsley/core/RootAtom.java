@@ -1,23 +1,180 @@
 package net.sf.nuclearparsley.core;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Root Atom which holds all Atoms contained in a file.
+ * The file is opened once, and all {@link Atom}s in the tree share its {@link AtomSource}.
  */
-public class RootAtom extends ParentAtom {
+public class RootAtom extends ParentAtom implements Closeable {
 
 	/**
 	 * Construct a new RootAtom from a file
-	 * The Atom spans the entire payload of the file 
+	 * The Atom spans the entire payload of the file
 	 * @param input	The input file for this Atom
 	 * @throws AtomException	Reading the {@link Atom} failed
 	 * @throws IOException	Reading the file failed
 	 */
 	public RootAtom(File input)
 			throws AtomException, IOException {
+		this(new AtomSource(input));
+	}
+
+	/**
+	 * Construct a new RootAtom from a file
+	 * The Atom spans the entire payload of the file
+	 * @param input	The input file for this Atom
+	 * @param mode	When the children of {@link ParentAtom}s are parsed
+	 * @throws AtomException	Reading the {@link Atom} failed
+	 * @throws IOException	Reading the file failed
+	 */
+	public RootAtom(File input, ParseMode mode)
+			throws AtomException, IOException {
+		this(new AtomSource(input, mode));
+	}
+
+	/**
+	 * Construct a new RootAtom from a shared source
+	 * The Atom spans the entire payload of the file
+	 * @param input	The source for this Atom
+	 * @throws AtomException	Reading the {@link Atom} failed
+	 * @throws IOException	Reading the file failed
+	 */
+	public RootAtom(AtomSource input)
+			throws AtomException, IOException {
 		super(null, input, 0, input.length(), 0);
 	}
 
+	/**
+	 * Construct a new RootAtom of which the children are already known.
+	 * The file is not read.
+	 * @param input	The source for this Atom
+	 * @param length	The length of the file
+	 * @param children	The top level {@link Atom}s
+	 */
+	protected RootAtom(AtomSource input, long length, List<Atom> children) {
+		super(null, input, 0, length, 0, children);
+	}
+
+	/**
+	 * Parse the tree and release the file handle afterwards.
+	 * Reading payloads or lazily parsed children later on will open the file again.
+	 * @see ParentAtom#parse()
+	 */
+	@Override
+	protected void parse() throws IOException {
+		final Object event = ParseEvents.beginParse();
+		final long begin = source.metrics == null ? 0 : System.nanoTime();
+		try {
+			super.parse();
+		} finally {
+			source.close();
+			if (source.metrics != null)
+				source.metrics.time(ParseMetrics.Phase.PARSE, System.nanoTime() - begin);
+			ParseEvents.endParse(event, this);
+		}
+	}
+
+	/**
+	 * Get the metrics of this tree
+	 * @return	The metrics recorded by the shared {@link AtomSource}, <code>null</code> when metrics are disabled
+	 * @see ParseMetrics
+	 */
+	public ParseMetrics getMetrics() {
+		return source.metrics;
+	}
+
+	/**
+	 * Save the changes to this tree in place, without moving any {@link Atom} that did not change.
+	 * This is only possible when every changed {@link Atom} fits in its original space,
+	 * together with the <code>free</code> and <code>skip</code> padding next to it,
+	 * or when it is at the end of the file and can grow.
+	 * The lengths of the enclosing {@link Atom}s are adjusted when they grow into padding after them.
+	 * Only the changed bytes are written, so the media data is neither read nor written.
+	 * <p>
+	 * The file is written directly; when writing fails halfway the file may be damaged.
+	 * This tree no longer matches the file afterwards, use the returned tree instead.
+	 * </p>
+	 * @param reserve	Amount of padding to add after changed {@link Atom}s when their parent has to grow,
+	 *               	so later changes fit in place as well; 0 for none
+	 * @return	The tree of the saved file, or <code>null</code> when the changes do not fit,
+	 *        	in which case the file is not changed
+	 * @throws IOException	Reading or writing the file failed
+	 */
+	public RootAtom saveInPlace(long reserve) throws IOException {
+		if (!isModified())
+			return this;
+		final List<Patch> patches = new ArrayList<Patch>();
+		final long newLength = plan(Long.MAX_VALUE - length, reserve > 0 ? Math.max(reserve, HEADER) : 0, patches);
+		if (newLength < 0)
+			return null;
+		long total = 0;
+		for(Patch patch : patches)
+			total += patch.length;
+		if (total > MAX_REWRITE)
+			return null;
+		final ByteBuffer[] data = new ByteBuffer[patches.size()];
+		for(int i=0;i<data.length;i++)
+			data[i] = patches.get(i).encode();
+		source.close();
+		try (FileChannel output = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			for(int i=0;i<data.length;i++) {
+				long position = patches.get(i).position;
+				while(data[i].hasRemaining())
+					position += output.write(data[i], position);
+			}
+			if (newLength < length)
+				output.truncate(newLength);
+			else if (output.size() < newLength) // padding at the end, which was not written
+				output.write(ByteBuffer.allocate(1), newLength-1);
+			output.force(false);
+		}
+		return new RootAtom(file, source.mode);
+	}
+
+	/**
+	 * Save the changes to this tree.
+	 * The changes are saved in place when possible, see {@link #saveInPlace(long)}.
+	 * Otherwise the file is rewritten to a temporary file using an {@link AtomWriter},
+	 * which then replaces the original file.
+	 * This tree no longer matches the file afterwards, use the returned tree instead.
+	 * @param reserve	Amount of padding to add so later changes fit in place; 0 for none
+	 * @return	The tree of the saved file
+	 * @throws IOException	Reading or writing the file failed
+	 */
+	public RootAtom save(long reserve) throws IOException {
+		final RootAtom result = saveInPlace(reserve);
+		if (result != null)
+			return result;
+		final File directory = file.getAbsoluteFile().getParentFile();
+		final File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			new AtomWriter(this, reserve > 0 ? Math.max(reserve, HEADER) : 0).write(temp);
+			source.close();
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		return new RootAtom(file, source.mode);
+	}
+
+	/**
+	 * Release the file handle held by the shared {@link AtomSource}.
+	 * The tree remains usable; the file is opened again when it is read.
+	 */
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
 }
@@ -0,0 +1,73 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Chunk Offset Atom (<code>stco</code>) or 64-bit Chunk Offset Atom (<code>co64</code>).
+ * The position of every chunk in the file.
+ */
+public class STCOAtom extends TableAtom {
+
+	public static final String NAME = "stco";
+	public static final String LARGE_NAME = "co64";
+
+	public static final int OFFSET = 0;
+
+	/** Position of each chunk in the file */
+	private long[] offsets;
+
+	/**
+	 * @param name	<code>stco</code> or <code>co64</code>
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected STCOAtom(String name, AtomSource input, long start, long length, int offset) {
+		super(name, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		final boolean large = type == FourCC.CO64;
+		offsets = new long[entries(reader, reader.readUnsignedInteger(), large ? 8 : 4)];
+		for(int i=0;i<offsets.length;i++)
+			offsets[i] = reader.readUnsigned(large);
+	}
+
+	/**
+	 * @return	The amount of chunks
+	 */
+	public int getChunkCount() {
+		decoded();
+		return offsets.length;
+	}
+
+	/**
+	 * @param chunk	The index of the chunk, starting at 0
+	 * @return	The position of the chunk in the file
+	 */
+	public long getOffset(int chunk) {
+		decoded();
+		return offsets[chunk];
+	}
+
+}
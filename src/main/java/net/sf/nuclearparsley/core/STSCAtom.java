@@ -0,0 +1,100 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Sample To Chunk Atom (<code>stsc</code>).
+ * Runs of chunks with the same amount of samples and the same sample description.
+ */
+public class STSCAtom extends TableAtom {
+
+	public static final String NAME = "stsc";
+
+	public static final int OFFSET = 0;
+
+	/** First chunk of each run, starting at 1 */
+	private int[] firstChunks;
+	/** Amount of samples in each chunk of the run */
+	private int[] samplesPerChunk;
+	/** Sample description of the chunks in the run, starting at 1 */
+	private int[] descriptionIndices;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected STSCAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		final int count = entries(reader, reader.readUnsignedInteger(), 12);
+		firstChunks = new int[count];
+		samplesPerChunk = new int[count];
+		descriptionIndices = new int[count];
+		for(int i=0;i<count;i++) {
+			firstChunks[i] = reader.readSignedInteger();
+			samplesPerChunk[i] = reader.readSignedInteger();
+			descriptionIndices[i] = reader.readSignedInteger();
+			if (firstChunks[i] < 1 || (i > 0 && firstChunks[i] <= firstChunks[i-1]))
+				throw new AtomException(file, start, "Chunk runs in "+name+" are not ascending");
+		}
+	}
+
+	/**
+	 * @return	The amount of runs in the table
+	 */
+	public int getEntryCount() {
+		decoded();
+		return firstChunks.length;
+	}
+
+	/**
+	 * @param entry	Index of the run
+	 * @return	The first chunk of the run, starting at 1
+	 */
+	public int getFirstChunk(int entry) {
+		decoded();
+		return firstChunks[entry];
+	}
+
+	/**
+	 * @param entry	Index of the run
+	 * @return	The amount of samples in each chunk of the run
+	 */
+	public long getSamplesPerChunk(int entry) {
+		decoded();
+		return samplesPerChunk[entry] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param entry	Index of the run
+	 * @return	The sample description of the chunks in the run, starting at 1
+	 */
+	public int getDescriptionIndex(int entry) {
+		decoded();
+		return descriptionIndices[entry];
+	}
+
+}
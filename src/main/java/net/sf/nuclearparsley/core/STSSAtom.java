@@ -0,0 +1,99 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.util.Arrays;
+
+/**
+ * Sync Sample Atom (<code>stss</code>).
+ * The samples at which decoding can start. When a track has no sync sample table, every sample is a sync sample.
+ */
+public class STSSAtom extends TableAtom {
+
+	public static final String NAME = "stss";
+
+	public static final int OFFSET = 0;
+
+	/** The sync samples in ascending order, starting at 1 */
+	private int[] samples;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected STSSAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		samples = new int[entries(reader, reader.readUnsignedInteger(), 4)];
+		for(int i=0;i<samples.length;i++) {
+			samples[i] = reader.readSignedInteger();
+			if (samples[i] < 1 || (i > 0 && samples[i] <= samples[i-1]))
+				throw new AtomException(file, start, "Sync samples in "+name+" are not ascending");
+		}
+	}
+
+	/**
+	 * @return	The amount of sync samples
+	 */
+	public int getSyncSampleCount() {
+		decoded();
+		return samples.length;
+	}
+
+	/**
+	 * @param index	The index in the table
+	 * @return	The sync sample, starting at 0
+	 */
+	public int getSyncSample(int index) {
+		decoded();
+		return samples[index]-1;
+	}
+
+	/**
+	 * Check whether a sample is a sync sample, in O(log n)
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	<code>true</code> if decoding can start at the sample
+	 */
+	public boolean isSync(int sample) {
+		decoded();
+		return Arrays.binarySearch(samples, sample+1) >= 0;
+	}
+
+	/**
+	 * Find the last sync sample at or before a sample, in O(log n)
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	The index of the sync sample, starting at 0, or -1 if there is none
+	 */
+	public int getSyncSampleBefore(int sample) {
+		decoded();
+		final int index = Arrays.binarySearch(samples, sample+1);
+		if (index >= 0)
+			return sample;
+		final int before = -index - 2;
+		return before < 0 ? -1 : samples[before]-1;
+	}
+
+}
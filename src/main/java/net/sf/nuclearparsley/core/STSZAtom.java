@@ -0,0 +1,126 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Sample Size Atom (<code>stsz</code>) or Compact Sample Size Atom (<code>stz2</code>).
+ * The size of every sample, or a single size for all samples.
+ */
+public class STSZAtom extends TableAtom {
+
+	public static final String NAME = "stsz";
+	public static final String COMPACT_NAME = "stz2";
+
+	public static final int OFFSET = 0;
+
+	/** Size of all samples, 0 if the samples have different sizes */
+	private int uniformSize;
+	/** Amount of samples */
+	private int sampleCount;
+	/** Size of each sample, <code>null</code> if all samples have {@link #uniformSize} */
+	private int[] sizes;
+
+	/**
+	 * @param name	<code>stsz</code> or <code>stz2</code>
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected STSZAtom(String name, AtomSource input, long start, long length, int offset) {
+		super(name, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		if (type == FourCC.STZ2) {
+			decodeCompact(reader, reader.readSignedInteger() & 0xFF);
+			return;
+		}
+		uniformSize = reader.readSignedInteger();
+		final long count = reader.readUnsignedInteger();
+		if (uniformSize != 0) {
+			sampleCount = count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+			return;
+		}
+		sampleCount = entries(reader, count, 4);
+		sizes = new int[sampleCount];
+		for(int i=0;i<sizes.length;i++)
+			sizes[i] = reader.readSignedInteger();
+	}
+
+	/**
+	 * Decode a compact table, of which the sizes are 4, 8 or 16 bits
+	 * @param reader	Reader positioned at the sample count
+	 * @param fieldSize	The amount of bits per size
+	 * @throws AtomException	The table is invalid
+	 */
+	private void decodeCompact(AtomReader reader, int fieldSize) throws AtomException {
+		if (fieldSize != 4 && fieldSize != 8 && fieldSize != 16)
+			throw new AtomException(file, start, "Invalid field size "+fieldSize+" in "+name);
+		final long count = reader.readUnsignedInteger();
+		entries(reader, (count * fieldSize + 7) / 8, 1);
+		sampleCount = (int) count;
+		sizes = new int[sampleCount];
+		for(int i=0;i<sizes.length;i++) {
+			if (fieldSize == 16) {
+				sizes[i] = reader.readUnsignedWord();
+			} else if (fieldSize == 8) {
+				sizes[i] = reader.readUnsignedByte();
+			} else {
+				final int both = reader.readUnsignedByte();
+				sizes[i] = both >>> 4;
+				if (++i < sizes.length)
+					sizes[i] = both & 0xF;
+			}
+		}
+	}
+
+	/**
+	 * @return	The amount of samples
+	 */
+	public int getSampleCount() {
+		decoded();
+		return sampleCount;
+	}
+
+	/**
+	 * @return	The size of all samples, or 0 if the samples have different sizes
+	 */
+	public long getUniformSize() {
+		decoded();
+		return uniformSize & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Get the size of a sample in O(1)
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	The size in bytes
+	 * @throws IndexOutOfBoundsException	There is no such sample
+	 */
+	public long getSize(int sample) {
+		decoded();
+		if (sample < 0 || sample >= sampleCount)
+			throw new IndexOutOfBoundsException("Sample "+sample+" of "+sampleCount);
+		return (sizes == null ? uniformSize : sizes[sample]) & 0xFFFFFFFFL;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Decoding Time to Sample Atom (<code>stts</code>).
+ * Runs of samples with the same duration, from which the decode time of every sample follows.
+ */
+public class STTSAtom extends TableAtom {
+
+	public static final String NAME = "stts";
+
+	public static final int OFFSET = 0;
+
+	/** Amount of samples in each run */
+	private int[] counts;
+	/** Duration of the samples in each run */
+	private int[] deltas;
+	/** Index of the first sample of each run */
+	private long[] firstSamples;
+	/** Decode time of the first sample of each run */
+	private long[] firstTimes;
+	/** Total amount of samples */
+	private long sampleCount;
+	/** Total duration */
+	private long duration;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected STTSAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		final int count = entries(reader, reader.readUnsignedInteger(), 8);
+		counts = new int[count];
+		deltas = new int[count];
+		firstSamples = new long[count];
+		firstTimes = new long[count];
+		long sample = 0;
+		long time = 0;
+		for(int i=0;i<count;i++) {
+			counts[i] = reader.readSignedInteger();
+			deltas[i] = reader.readSignedInteger();
+			firstSamples[i] = sample;
+			firstTimes[i] = time;
+			sample += counts[i] & 0xFFFFFFFFL;
+			time += (counts[i] & 0xFFFFFFFFL) * (deltas[i] & 0xFFFFFFFFL);
+		}
+		sampleCount = sample;
+		duration = time;
+	}
+
+	/**
+	 * @return	The amount of runs in the table
+	 */
+	public int getEntryCount() {
+		decoded();
+		return counts.length;
+	}
+
+	/**
+	 * @param entry	Index of the run
+	 * @return	The amount of samples in the run
+	 */
+	public long getSampleCount(int entry) {
+		decoded();
+		return counts[entry] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param entry	Index of the run
+	 * @return	The duration of each sample in the run
+	 */
+	public long getSampleDelta(int entry) {
+		decoded();
+		return deltas[entry] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return	The amount of samples described by the table
+	 */
+	public long getSampleCount() {
+		decoded();
+		return sampleCount;
+	}
+
+	/**
+	 * @return	The sum of the durations of all samples
+	 */
+	public long getDuration() {
+		decoded();
+		return duration;
+	}
+
+	/**
+	 * Get the decode time of a sample, in O(log n) for n runs
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	The decode time in media timescale units
+	 * @throws IndexOutOfBoundsException	The table does not describe the sample
+	 */
+	public long getDecodeTime(long sample) {
+		decoded();
+		if (sample < 0 || sample >= sampleCount)
+			throw new IndexOutOfBoundsException("Sample "+sample+" of "+sampleCount);
+		final int entry = floor(firstSamples, sample);
+		return firstTimes[entry] + (sample - firstSamples[entry]) * (deltas[entry] & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Get the duration of a sample, in O(log n) for n runs
+	 * @param sample	The index of the sample, starting at 0
+	 * @return	The duration in media timescale units
+	 * @throws IndexOutOfBoundsException	The table does not describe the sample
+	 */
+	public long getDuration(long sample) {
+		decoded();
+		if (sample < 0 || sample >= sampleCount)
+			throw new IndexOutOfBoundsException("Sample "+sample+" of "+sampleCount);
+		return deltas[floor(firstSamples, sample)] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Find the sample which is being decoded at a time, in O(log n) for n runs
+	 * @param time	The decode time in media timescale units
+	 * @return	The index of the last sample with a decode time of at most <code>time</code>,
+	 *        	or -1 when <code>time</code> is before the first sample
+	 */
+	public long getSampleAt(long time) {
+		decoded();
+		if (sampleCount == 0 || time < 0)
+			return -1;
+		if (time >= duration)
+			return sampleCount-1;
+		/* Runs without samples start at the same time as the next run, which is found instead */
+		final int entry = floor(firstTimes, time);
+		final long delta = deltas[entry] & 0xFFFFFFFFL;
+		final long last = firstSamples[entry] + (counts[entry] & 0xFFFFFFFFL) - 1;
+		if (delta == 0)
+			return last;
+		return Math.min(last, firstSamples[entry] + (time - firstTimes[entry]) / delta);
+	}
+
+}
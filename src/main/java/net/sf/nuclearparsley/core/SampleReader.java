@@ -0,0 +1,289 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads the samples of one or more tracks from the media data.
+ * Every track is read in decode order, and the tracks are interleaved in the order of the samples in the file,
+ * so the file is read from front to back without seeking back and forth.
+ * Samples which are next to each other in the file are read together in one read of up to the buffer size,
+ * and optionally the next read is started in the background while the current samples are used.
+ * <p>
+ * Usage:
+ * <pre>
+ * while(reader.next())
+ *     process(reader.getTrack(), reader.getSample(), reader.getData());
+ * </pre>
+ * The buffer returned by {@link #getData()} is reused, and only valid until the next call to {@link #next()}.
+ * A {@link SampleReader} is not thread safe.
+ * </p>
+ */
+public class SampleReader implements Closeable {
+
+	/** The default size of a read */
+	public static final int DEFAULT_BUFFER_SIZE = 0x100000;
+
+	/** The file to read the samples from */
+	private final AtomSource source;
+	/** The tracks */
+	private final SampleTable[] tracks;
+	/** The maximum size of a read of more than one sample */
+	private final int bufferSize;
+	/** Executor for reading ahead, <code>null</code> to read only when needed */
+	private final Executor readAhead;
+
+	/** The next sample of every track */
+	private final int[] cursors;
+	/** The position of the next sample of every track, {@link Long#MAX_VALUE} when there are no more samples */
+	private final long[] offsets;
+
+	/** The buffer with the current samples */
+	private ByteBuffer buffer;
+	/** The buffer being filled by reading ahead */
+	private ByteBuffer spare;
+	/** Read-only view of {@link #buffer} which is handed out */
+	private ByteBuffer view;
+	/** The position of the first byte of {@link #buffer} in the file */
+	private long bufferStart;
+	/** The amount of bytes in {@link #buffer} */
+	private int bufferLength;
+
+	/** The read in progress, <code>null</code> when not reading ahead */
+	private CompletableFuture<Void> pending;
+	/** The position of the first byte being read ahead */
+	private long pendingStart;
+	/** The amount of bytes being read ahead */
+	private int pendingLength;
+
+	/** The track of the current sample, -1 before the first sample */
+	private int track = -1;
+	/** The index of the current sample in its track */
+	private int sample = -1;
+
+	/**
+	 * Construct a new {@link SampleReader} which reads {@link #DEFAULT_BUFFER_SIZE} bytes at a time, without reading ahead
+	 * @param source	The file containing the media data
+	 * @param tracks	The tracks to read
+	 */
+	public SampleReader(AtomSource source, List<SampleTable> tracks) {
+		this(source, tracks, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Construct a new {@link SampleReader}
+	 * @param source	The file containing the media data
+	 * @param tracks	The tracks to read
+	 * @param bufferSize	The maximum size of a read; larger samples are read on their own
+	 * @param readAhead	Executor to read the next samples in the background, <code>null</code> for none
+	 */
+	public SampleReader(AtomSource source, List<SampleTable> tracks, int bufferSize, Executor readAhead) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size "+bufferSize);
+		this.source = source;
+		this.tracks = tracks.toArray(new SampleTable[tracks.size()]);
+		this.bufferSize = bufferSize;
+		this.readAhead = readAhead;
+		this.cursors = new int[this.tracks.length];
+		this.offsets = new long[this.tracks.length];
+		for(int i=0;i<this.tracks.length;i++)
+			offsets[i] = offset(i, 0);
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		view = buffer.asReadOnlyBuffer();
+		if (readAhead != null)
+			spare = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * @param track	The index of the track
+	 * @param sample	The index of the sample
+	 * @return	The position of the sample, or {@link Long#MAX_VALUE} when the track has no such sample
+	 */
+	private long offset(int track, int sample) {
+		return sample < tracks[track].getSampleCount() ? tracks[track].getOffset(sample) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param offsets	The position of the next sample of every track
+	 * @return	The track of which the next sample comes first in the file, or -1 when there are no more samples
+	 */
+	private static int first(long[] offsets) {
+		int result = -1;
+		for(int i=0;i<offsets.length;i++)
+			if (offsets[i] != Long.MAX_VALUE && (result < 0 || offsets[i] < offsets[result]))
+				result = i;
+		return result;
+	}
+
+	/**
+	 * Plan a read: the next samples in file order which are next to each other in the file and fit in a buffer.
+	 * At least one sample is included, even if it is larger than a buffer.
+	 * @param cursors	The next sample of every track, advanced past the planned samples
+	 * @param offsets	The position of the next sample of every track, advanced past the planned samples
+	 * @return	The amount of bytes to read from the position of the first sample, 0 when there are no more samples
+	 */
+	private long plan(int[] cursors, long[] offsets) {
+		long start = -1;
+		long end = -1;
+		for(int next=first(offsets);next >= 0;next=first(offsets)) {
+			final long size = tracks[next].getSize(cursors[next]);
+			if (start < 0) {
+				start = offsets[next];
+				end = start + size;
+			} else if (offsets[next] == end && end + size - start <= bufferSize) {
+				end += size;
+			} else {
+				break;
+			}
+			offsets[next] = offset(next, ++cursors[next]);
+		}
+		return end - start;
+	}
+
+	/**
+	 * Move to the next sample
+	 * @return	<code>false</code> when there are no more samples
+	 * @throws IOException	Reading the file failed
+	 */
+	public boolean next() throws IOException {
+		track = first(offsets);
+		if (track < 0) {
+			sample = -1;
+			return false;
+		}
+		sample = cursors[track];
+		final long start = offsets[track];
+		final long size = tracks[track].getSize(sample);
+		if (start < bufferStart || start + size > bufferStart + bufferLength)
+			fill(start);
+		final int position = (int) (start - bufferStart);
+		view.limit(position + (int) size).position(position);
+		offsets[track] = offset(track, ++cursors[track]);
+		return true;
+	}
+
+	/**
+	 * Fill the buffer with the samples starting at a position, and start reading the next samples if reading ahead
+	 * @param start	The position of the current sample
+	 * @throws IOException	Reading the file failed
+	 */
+	private void fill(long start) throws IOException {
+		final int[] planCursors = cursors.clone();
+		final long[] planOffsets = offsets.clone();
+		final long length = plan(planCursors, planOffsets);
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Sample of "+length+" bytes at 0x"+Long.toHexString(start)+" in "+source+" is too large");
+
+		if (pending != null && pendingStart == start && pendingLength == length) {
+			await();
+			final ByteBuffer filled = spare;
+			spare = buffer;
+			buffer = filled;
+		} else {
+			await();
+			if (length > buffer.capacity())
+				buffer = ByteBuffer.allocateDirect((int) length);
+			buffer.clear().limit((int) length);
+			source.readFully(buffer, start);
+		}
+		bufferStart = start;
+		bufferLength = (int) length;
+		view = buffer.asReadOnlyBuffer();
+
+		if (readAhead != null) {
+			final int next = first(planOffsets);
+			if (next < 0)
+				return;
+			final long nextStart = planOffsets[next];
+			final long nextLength = plan(planCursors, planOffsets);
+			if (nextLength > spare.capacity())
+				return;
+			final ByteBuffer target = spare;
+			target.clear().limit((int) nextLength);
+			pendingStart = nextStart;
+			pendingLength = (int) nextLength;
+			pending = CompletableFuture.runAsync(() -> {
+				try {
+					source.readFully(target, nextStart);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}, readAhead);
+		}
+	}
+
+	/**
+	 * Wait for the read in progress
+	 * @throws IOException	Reading the file failed
+	 */
+	private void await() throws IOException {
+		if (pending == null)
+			return;
+		final CompletableFuture<Void> future = pending;
+		pending = null;
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return	The index of the track of the current sample, in the list of tracks given to the constructor
+	 */
+	public int getTrack() {
+		return track;
+	}
+
+	/**
+	 * @return	The index of the current sample in its track
+	 */
+	public int getSample() {
+		return sample;
+	}
+
+	/**
+	 * Get the data of the current sample.
+	 * The remaining bytes of the buffer are the sample; the buffer is only valid until the next call to {@link #next()}.
+	 * @return	Read-only view of the sample
+	 */
+	public ByteBuffer getData() {
+		if (sample < 0)
+			throw new IllegalStateException("No current sample");
+		return view;
+	}
+
+	/**
+	 * Wait for reading ahead to finish. The file itself is not closed.
+	 * @throws IOException	Reading ahead failed
+	 */
+	@Override
+	public void close() throws IOException {
+		await();
+	}
+
+}
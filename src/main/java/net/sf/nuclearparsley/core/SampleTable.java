@@ -0,0 +1,279 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+
+/**
+ * The samples of a track, as described by the tables in its <code>stbl</code> {@link Atom}.
+ * All lookups take O(1) or O(log n) time, using primitive arrays built once
+ * from the decoded {@link TableAtom}s: a table of the first sample of every chunk,
+ * and for tracks of which the samples have different sizes, the running total of the sample sizes.
+ * Samples are numbered from 0.
+ */
+public class SampleTable {
+
+	/** Amount of media timescale units per second, 0 when unknown */
+	public final long timescale;
+
+	/** The sample sizes */
+	private final STSZAtom sizes;
+	/** The chunk offsets */
+	private final STCOAtom chunks;
+	/** The decode times */
+	private final STTSAtom times;
+	/** The composition offsets, <code>null</code> if the track has none */
+	private final CTTSAtom compositionOffsets;
+	/** The sync samples, <code>null</code> if every sample is a sync sample */
+	private final STSSAtom syncSamples;
+	/** The first sample of each chunk */
+	private final long[] chunkFirstSamples;
+	/** Total size of all samples before each sample, <code>null</code> when all samples have the same size */
+	private final long[] sizePrefix;
+
+	/**
+	 * Find the sample table of a track
+	 * @param trak	The <code>trak</code> {@link Atom}
+	 * @return	The sample table, with the timescale of the media
+	 * @throws AtomException	The track has no complete sample table
+	 * @throws IOException	Reading the file failed
+	 */
+	public static SampleTable fromTrack(ParentAtom trak) throws AtomException, IOException {
+		final ParentAtom mdia = (ParentAtom) child(trak, FourCC.MDIA);
+		final ParentAtom minf = (ParentAtom) child(mdia, FourCC.MINF);
+		return new SampleTable((ParentAtom) child(minf, FourCC.STBL), timescale(child(mdia, FourCC.MDHD)));
+	}
+
+	/**
+	 * Read the timescale from a media header
+	 * @param mdhd	The <code>mdhd</code> {@link Atom}
+	 * @return	The timescale
+	 * @throws IOException	Reading the file failed
+	 */
+	private static long timescale(Atom mdhd) throws IOException {
+		final AtomReader reader = mdhd.getPayloadReader();
+		final boolean large = reader.readVersionAndFlags() >>> 24 == 1;
+		reader.skip(large ? 16 : 8);
+		return reader.readUnsignedInteger();
+	}
+
+	/**
+	 * Find a child of an {@link Atom}
+	 * @param parent	The {@link Atom} to search
+	 * @param type	The name of the child, packed as {@link FourCC}
+	 * @return	The first child with the name
+	 * @throws AtomException	There is no such child
+	 */
+	private static Atom child(ParentAtom parent, int type) throws AtomException {
+		final Atom result = find(parent, type);
+		if (result == null)
+			throw new AtomException(parent.file, parent.start,
+					"Atom "+parent.name+" has no "+FourCC.toString(type)+" atom");
+		return result;
+	}
+
+	/**
+	 * Find a child of an {@link Atom}
+	 * @param parent	The {@link Atom} to search
+	 * @param type	The name of the child, packed as {@link FourCC}
+	 * @return	The first child with the name, or <code>null</code>
+	 */
+	private static Atom find(ParentAtom parent, int type) {
+		for(Atom child : parent)
+			if (child.type == type)
+				return child;
+		return null;
+	}
+
+	/**
+	 * Construct the sample table of a track
+	 * @param stbl	The <code>stbl</code> {@link Atom}
+	 * @param timescale	Amount of media timescale units per second, 0 when unknown
+	 * @throws AtomException	A required table is missing or invalid
+	 */
+	public SampleTable(ParentAtom stbl, long timescale) throws AtomException {
+		this.timescale = timescale;
+		Atom size = find(stbl, FourCC.STSZ);
+		if (size == null)
+			size = child(stbl, FourCC.STZ2);
+		Atom offsets = find(stbl, FourCC.STCO);
+		if (offsets == null)
+			offsets = child(stbl, FourCC.CO64);
+		this.sizes = typed(size, STSZAtom.class);
+		this.chunks = typed(offsets, STCOAtom.class);
+		this.times = typed(child(stbl, FourCC.STTS), STTSAtom.class);
+		final Atom ctts = find(stbl, FourCC.CTTS);
+		this.compositionOffsets = ctts == null ? null : typed(ctts, CTTSAtom.class);
+		final Atom stss = find(stbl, FourCC.STSS);
+		this.syncSamples = stss == null ? null : typed(stss, STSSAtom.class);
+
+		/* The first sample of every chunk, from the runs of chunks in stsc */
+		final STSCAtom runs = typed(child(stbl, FourCC.STSC), STSCAtom.class);
+		chunkFirstSamples = new long[chunks.getChunkCount()];
+		long sample = 0;
+		for(int entry=0, chunk=0;entry<runs.getEntryCount();entry++) {
+			final int end = entry+1 < runs.getEntryCount()
+					? Math.min(runs.getFirstChunk(entry+1)-1, chunkFirstSamples.length)
+					: chunkFirstSamples.length;
+			for(chunk=Math.max(chunk, runs.getFirstChunk(entry)-1);chunk<end;chunk++) {
+				chunkFirstSamples[chunk] = sample;
+				sample += runs.getSamplesPerChunk(entry);
+			}
+		}
+
+		if (sizes.getUniformSize() == 0) {
+			sizePrefix = new long[sizes.getSampleCount()+1];
+			for(int i=0;i<sizes.getSampleCount();i++)
+				sizePrefix[i+1] = sizePrefix[i] + sizes.getSize(i);
+		} else {
+			sizePrefix = null;
+		}
+	}
+
+	/**
+	 * Check the type of a table
+	 * @param atom	The table
+	 * @param type	The expected class
+	 * @return	The table
+	 * @throws AtomException	The table could not be decoded when it was parsed
+	 */
+	private static <T extends TableAtom> T typed(Atom atom, Class<T> type) throws AtomException {
+		if (!type.isInstance(atom))
+			throw new AtomException(atom.file, atom.start, "Atom "+atom.name+" is not a valid table", atom.error);
+		return type.cast(atom);
+	}
+
+	/**
+	 * Check a sample index
+	 * @param sample	The index of the sample
+	 * @throws IndexOutOfBoundsException	There is no such sample
+	 */
+	private void check(int sample) {
+		if (sample < 0 || sample >= sizes.getSampleCount())
+			throw new IndexOutOfBoundsException("Sample "+sample+" of "+sizes.getSampleCount());
+	}
+
+	/**
+	 * @return	The amount of samples in the track
+	 */
+	public int getSampleCount() {
+		return sizes.getSampleCount();
+	}
+
+	/**
+	 * @return	The total duration of the samples, in media timescale units
+	 */
+	public long getDuration() {
+		return times.getDuration();
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The size of the sample in bytes
+	 */
+	public long getSize(int sample) {
+		return sizes.getSize(sample);
+	}
+
+	/**
+	 * Find the chunk containing a sample, in O(log n) for n chunks
+	 * @param sample	The index of the sample
+	 * @return	The index of the chunk, starting at 0
+	 * @throws IndexOutOfBoundsException	The sample is not in any chunk
+	 */
+	public int getChunk(int sample) {
+		check(sample);
+		final int result = TableAtom.floor(chunkFirstSamples, sample);
+		if (result < 0)
+			throw new IndexOutOfBoundsException("Sample "+sample+" is not in any chunk");
+		return result;
+	}
+
+	/**
+	 * Get the position of a sample in the file, in O(log n) for n chunks
+	 * @param sample	The index of the sample
+	 * @return	The position of the first byte of the sample
+	 */
+	public long getOffset(int sample) {
+		final int chunk = getChunk(sample);
+		final int first = (int) chunkFirstSamples[chunk];
+		final long inChunk = sizePrefix == null
+				? (sample - first) * sizes.getUniformSize()
+				: sizePrefix[sample] - sizePrefix[first];
+		return chunks.getOffset(chunk) + inChunk;
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The decode time of the sample, in media timescale units
+	 */
+	public long getDecodeTime(int sample) {
+		check(sample);
+		return times.getDecodeTime(sample);
+	}
+
+	/**
+	 * Get the presentation time of a sample, which is its decode time plus its composition offset.
+	 * Edit lists are not applied.
+	 * @param sample	The index of the sample
+	 * @return	The presentation time of the sample, in media timescale units
+	 */
+	public long getPresentationTime(int sample) {
+		final long result = getDecodeTime(sample);
+		return compositionOffsets == null ? result : result + compositionOffsets.getOffset(sample);
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The duration of the sample, in media timescale units
+	 */
+	public long getDuration(int sample) {
+		check(sample);
+		return times.getDuration(sample);
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	<code>true</code> if decoding can start at the sample
+	 */
+	public boolean isSync(int sample) {
+		check(sample);
+		return syncSamples == null || syncSamples.isSync(sample);
+	}
+
+	/**
+	 * Find the last sync sample at or before a sample
+	 * @param sample	The index of the sample
+	 * @return	The index of the sync sample, or -1 if there is none
+	 */
+	public int getSyncSampleBefore(int sample) {
+		check(sample);
+		return syncSamples == null ? sample : syncSamples.getSyncSampleBefore(sample);
+	}
+
+	/**
+	 * Find the sample which is being decoded at a time
+	 * @param decodeTime	The time in media timescale units
+	 * @return	The index of the last sample with a decode time of at most <code>decodeTime</code>,
+	 *        	or -1 when the time is before the first sample
+	 */
+	public int getSampleAt(long decodeTime) {
+		return (int) Math.min(times.getSampleAt(decodeTime), getSampleCount()-1);
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index for seeking in a track, which maps times to keyframes and byte ranges.
+ * The decode time, position and size of every sample are computed once from the {@link SampleTable},
+ * so a seek is a binary search over primitive arrays and needs no access to the file.
+ * Times are in media timescale units and are decode times; edit lists and composition offsets are not applied.
+ * Instances are immutable, and can be kept per file using a {@link SeekIndexCache}.
+ */
+public final class SeekIndex {
+
+	/** The ID of the track, from its <code>tkhd</code> {@link Atom} */
+	public final int trackId;
+	/** Amount of media timescale units per second */
+	public final long timescale;
+
+	/** The decode time of every sample */
+	private final long[] times;
+	/** The position of every sample in the file */
+	private final long[] offsets;
+	/** The size of every sample, unsigned */
+	private final int[] sizes;
+	/** The ascending indices of the sync samples, <code>null</code> if every sample is a sync sample */
+	private final long[] syncSamples;
+	/** The total duration of the track */
+	private final long duration;
+
+	/**
+	 * Byte range of samples which are stored next to each other in the file.
+	 */
+	public static final class Range {
+
+		/** Position of the first byte */
+		public final long start;
+		/** Amount of bytes */
+		public final long length;
+
+		/**
+		 * @param start	Position of the first byte
+		 * @param length	Amount of bytes
+		 */
+		public Range(long start, long length) {
+			this.start = start;
+			this.length = length;
+		}
+
+		/**
+		 * @return	The position of the last byte, as used in HTTP range requests
+		 */
+		public long getLast() {
+			return start + length - 1;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Range))
+				return false;
+			final Range other = (Range) obj;
+			return start == other.start && length == other.length;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return Long.hashCode(start) * 31 + Long.hashCode(length);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return start + "-" + getLast();
+		}
+
+	}
+
+	/**
+	 * Build the seek index of a track
+	 * @param trak	The <code>trak</code> {@link Atom}
+	 * @return	The seek index
+	 * @throws AtomException	The track has no complete sample table
+	 * @throws IOException	Reading the file failed
+	 */
+	public static SeekIndex forTrack(ParentAtom trak) throws AtomException, IOException {
+		return new SeekIndex(trackId(trak), SampleTable.fromTrack(trak));
+	}
+
+	/**
+	 * Read the track ID from a track header
+	 * @param trak	The <code>trak</code> {@link Atom}
+	 * @return	The track ID
+	 * @throws AtomException	The track has no track header
+	 * @throws IOException	Reading the file failed
+	 */
+	static int trackId(ParentAtom trak) throws AtomException, IOException {
+		for(Atom child : trak)
+			if (child.type == FourCC.TKHD) {
+				final AtomReader reader = child.getPayloadReader();
+				final boolean large = reader.readVersionAndFlags() >>> 24 == 1;
+				reader.skip(large ? 16 : 8);
+				return (int) reader.readUnsignedInteger();
+			}
+		throw new AtomException(trak.file, trak.start, "Atom "+trak.name+" has no tkhd atom");
+	}
+
+	/**
+	 * Build the seek index of a track
+	 * @param trackId	The ID of the track
+	 * @param table	The samples of the track
+	 */
+	public SeekIndex(int trackId, SampleTable table) {
+		this.trackId = trackId;
+		this.timescale = table.timescale;
+		final int count = table.getSampleCount();
+		times = new long[count];
+		offsets = new long[count];
+		sizes = new int[count];
+		final long[] sync = new long[count];
+		int syncCount = 0;
+		for(int i=0;i<count;i++) {
+			times[i] = table.getDecodeTime(i);
+			offsets[i] = table.getOffset(i);
+			sizes[i] = (int) table.getSize(i);
+			if (table.isSync(i))
+				sync[syncCount++] = i;
+		}
+		syncSamples = syncCount == count ? null : Arrays.copyOf(sync, syncCount);
+		duration = table.getDuration();
+	}
+
+	/**
+	 * @return	The amount of samples in the track
+	 */
+	public int getSampleCount() {
+		return times.length;
+	}
+
+	/**
+	 * @return	The total duration of the track, in media timescale units
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The decode time of the sample, in media timescale units
+	 */
+	public long getTime(int sample) {
+		return times[sample];
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The position of the sample in the file
+	 */
+	public long getOffset(int sample) {
+		return offsets[sample];
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	The size of the sample in bytes
+	 */
+	public long getSize(int sample) {
+		return sizes[sample] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Convert milliseconds to media timescale units
+	 * @param millis	The time in milliseconds
+	 * @return	The time in media timescale units, rounded down
+	 */
+	public long toMediaTime(long millis) {
+		return millis / 1000 * timescale + millis % 1000 * timescale / 1000;
+	}
+
+	/**
+	 * Find the sample which is being decoded at a time
+	 * @param time	The time in media timescale units
+	 * @return	The last sample with a decode time of at most <code>time</code>,
+	 *        	or -1 if the time is before the first sample
+	 */
+	public int getSampleAt(long time) {
+		return TableAtom.floor(times, time);
+	}
+
+	/**
+	 * Find the keyframe to start decoding from to show the sample at a time
+	 * @param time	The time in media timescale units, times before the first sample mean the first sample
+	 * @return	The last sync sample at or before the sample at <code>time</code>,
+	 *        	or -1 if there is none
+	 */
+	public int getKeyframeAt(long time) {
+		final int sample = Math.max(getSampleAt(time), 0);
+		if (syncSamples == null || sample >= times.length)
+			return times.length == 0 ? -1 : sample;
+		final int index = TableAtom.floor(syncSamples, sample);
+		return index < 0 ? -1 : (int) syncSamples[index];
+	}
+
+	/**
+	 * Get the byte ranges of samples, merging samples which are next to each other in the file
+	 * @param from	The index of the first sample
+	 * @param to	The index after the last sample
+	 * @return	The ranges, in the order of the samples
+	 * @throws IndexOutOfBoundsException	There is no such sample
+	 */
+	public List<Range> getRanges(int from, int to) {
+		if (from < 0 || to > times.length || from > to)
+			throw new IndexOutOfBoundsException("Samples "+from+" to "+to+" of "+times.length);
+		final List<Range> result = new ArrayList<Range>();
+		int i = from;
+		while(i < to) {
+			final long start = offsets[i];
+			long end = start + getSize(i++);
+			while(i < to && offsets[i] == end)
+				end += getSize(i++);
+			result.add(new Range(start, end - start));
+		}
+		return result;
+	}
+
+	/**
+	 * Get the byte ranges needed to show the sample at a time:
+	 * all samples from the keyframe before it up to and including the sample itself.
+	 * @param time	The time in media timescale units
+	 * @return	The ranges, empty if there is no keyframe at or before <code>time</code>
+	 */
+	public List<Range> seek(long time) {
+		final int keyframe = getKeyframeAt(time);
+		if (keyframe < 0)
+			return Collections.emptyList();
+		return getRanges(keyframe, Math.max(getSampleAt(time), keyframe) + 1);
+	}
+
+	/**
+	 * Get the byte ranges needed to play a part of the track:
+	 * all samples from the keyframe before <code>start</code> up to the samples decoded before <code>end</code>.
+	 * @param start	The time to start playing, in media timescale units
+	 * @param end	The time to stop playing, in media timescale units
+	 * @return	The ranges, empty if there is no keyframe at or before <code>start</code>
+	 */
+	public List<Range> seek(long start, long end) {
+		final int keyframe = getKeyframeAt(start);
+		if (keyframe < 0)
+			return Collections.emptyList();
+		final int last = TableAtom.floor(times, end - 1);
+		return getRanges(keyframe, Math.max(last, keyframe) + 1);
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the {@link SeekIndex}es of files.
+ * When a file is first used, the <code>moov</code> {@link Atom} is parsed lazily
+ * and a {@link SeekIndex} is built for every track; later seeks only search the cached arrays.
+ * Entries are keyed by the canonical path of the file, and validated against its length and last modification time,
+ * like in the {@link ParseCache}.
+ * The least recently used files are removed when the cache holds too many.
+ */
+public class SeekIndexCache {
+
+	/** The maximum amount of files in the cache */
+	public final int maxFiles;
+
+	/** The cached indices, in order of use */
+	private final LinkedHashMap<File, Tracks> entries;
+
+	/**
+	 * The seek indices of one file
+	 */
+	private static final class Tracks {
+
+		/** The length of the file when it was indexed */
+		final long length;
+		/** The last modification time of the file when it was indexed */
+		final long lastModified;
+		/** The indices of all tracks, by track ID */
+		final Map<Integer, SeekIndex> tracks;
+
+		Tracks(long length, long lastModified, Map<Integer, SeekIndex> tracks) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.tracks = tracks;
+		}
+
+	}
+
+	/**
+	 * Construct a new {@link SeekIndexCache}
+	 * @param maxFiles	The maximum amount of files in the cache
+	 */
+	public SeekIndexCache(final int maxFiles) {
+		this.maxFiles = maxFiles;
+		this.entries = new LinkedHashMap<File, Tracks>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, Tracks> eldest) {
+				return size() > maxFiles;
+			}
+		};
+	}
+
+	/**
+	 * Get the {@link SeekIndex} of a track, from the cache if possible
+	 * @param file	The file
+	 * @param trackId	The ID of the track
+	 * @return	The {@link SeekIndex}, or <code>null</code> if the file has no such track
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public SeekIndex get(File file, int trackId) throws AtomException, IOException {
+		return tracks(file).get(trackId);
+	}
+
+	/**
+	 * Get the {@link SeekIndex}es of all tracks of a file, from the cache if possible
+	 * @param file	The file
+	 * @return	The {@link SeekIndex}es by track ID, in the order of the tracks in the file
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	public Map<Integer, SeekIndex> tracks(File file) throws AtomException, IOException {
+		final File canonical = file.getCanonicalFile();
+		final long length = canonical.length();
+		final long lastModified = canonical.lastModified();
+		synchronized (entries) {
+			final Tracks cached = entries.get(canonical);
+			if (cached != null && cached.length == length && cached.lastModified == lastModified)
+				return cached.tracks;
+		}
+		final Map<Integer, SeekIndex> result = Collections.unmodifiableMap(build(canonical));
+		/* Only store the result if the file didn't change while parsing */
+		if (canonical.length() == length && canonical.lastModified() == lastModified)
+			synchronized (entries) {
+				entries.put(canonical, new Tracks(length, lastModified, result));
+			}
+		return result;
+	}
+
+	/**
+	 * Build the {@link SeekIndex}es of all tracks of a file
+	 * @param file	The file
+	 * @return	The {@link SeekIndex}es by track ID
+	 * @throws AtomException	The file does not consist of valid {@link Atom}s
+	 * @throws IOException	Reading the file failed
+	 */
+	static Map<Integer, SeekIndex> build(File file) throws AtomException, IOException {
+		final Map<Integer, SeekIndex> result = new LinkedHashMap<Integer, SeekIndex>();
+		try (RootAtom root = new RootAtom(file, ParseMode.LAZY)) {
+			for(Atom moov : root)
+				if (moov.type == FourCC.MOOV)
+					for(Atom trak : (ParentAtom) moov)
+						if (trak.type == FourCC.TRAK) {
+							final SeekIndex index = SeekIndex.forTrack((ParentAtom) trak);
+							result.put(index.trackId, index);
+						}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the cached indices of a file
+	 * @param file	The file
+	 * @throws IOException	The canonical path of the file could not be determined
+	 */
+	public void invalidate(File file) throws IOException {
+		synchronized (entries) {
+			entries.remove(file.getCanonicalFile());
+		}
+	}
+
+	/**
+	 * Remove all cached indices
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+}
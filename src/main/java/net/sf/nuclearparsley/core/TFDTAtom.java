@@ -0,0 +1,59 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Track Fragment Decode Time Atom (<code>tfdt</code>).
+ * The decode time of the first sample of a track fragment.
+ */
+public class TFDTAtom extends TableAtom {
+
+	public static final String NAME = "tfdt";
+
+	public static final int OFFSET = 0;
+
+	/** The decode time of the first sample */
+	private long baseMediaDecodeTime;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TFDTAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		baseMediaDecodeTime = reader.readUnsigned(version == 1);
+	}
+
+	/**
+	 * @return	The decode time of the first sample of the fragment, in media timescale units
+	 */
+	public long getBaseMediaDecodeTime() {
+		decoded();
+		return baseMediaDecodeTime;
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Track Fragment Header Atom (<code>tfhd</code>).
+ * The track of a track fragment, with the base position of its data and the defaults for its samples.
+ */
+public class TFHDAtom extends TableAtom {
+
+	public static final String NAME = "tfhd";
+
+	public static final int OFFSET = 0;
+
+	/** Flag: the base data offset is present */
+	public static final int BASE_DATA_OFFSET = 0x1;
+	/** Flag: the sample description index is present */
+	public static final int SAMPLE_DESCRIPTION_INDEX = 0x2;
+	/** Flag: the default sample duration is present */
+	public static final int DEFAULT_SAMPLE_DURATION = 0x8;
+	/** Flag: the default sample size is present */
+	public static final int DEFAULT_SAMPLE_SIZE = 0x10;
+	/** Flag: the default sample flags are present */
+	public static final int DEFAULT_SAMPLE_FLAGS = 0x20;
+	/** Flag: the fragment has no samples */
+	public static final int DURATION_IS_EMPTY = 0x10000;
+	/** Flag: data offsets are relative to the <code>moof</code> {@link Atom} when there is no base data offset */
+	public static final int DEFAULT_BASE_IS_MOOF = 0x20000;
+
+	/** The ID of the track */
+	private int trackId;
+	/** Position of the data in the file, -1 if not present */
+	private long baseDataOffset;
+	/** The sample description index, 0 if not present */
+	private long sampleDescriptionIndex;
+	/** The default sample duration, -1 if not present */
+	private long defaultSampleDuration;
+	/** The default sample size, -1 if not present */
+	private long defaultSampleSize;
+	/** The default sample flags, -1 if not present */
+	private long defaultSampleFlags;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TFHDAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		trackId = reader.readSignedInteger();
+		baseDataOffset = (flags & BASE_DATA_OFFSET) != 0 ? reader.readUnsignedLong() : -1;
+		sampleDescriptionIndex = (flags & SAMPLE_DESCRIPTION_INDEX) != 0 ? reader.readUnsignedInteger() : 0;
+		defaultSampleDuration = (flags & DEFAULT_SAMPLE_DURATION) != 0 ? reader.readUnsignedInteger() : -1;
+		defaultSampleSize = (flags & DEFAULT_SAMPLE_SIZE) != 0 ? reader.readUnsignedInteger() : -1;
+		defaultSampleFlags = (flags & DEFAULT_SAMPLE_FLAGS) != 0 ? reader.readUnsignedInteger() : -1;
+	}
+
+	/**
+	 * @return	The ID of the track
+	 */
+	public int getTrackId() {
+		decoded();
+		return trackId;
+	}
+
+	/**
+	 * @return	The position of the data of the fragment in the file, or -1 if not present
+	 */
+	public long getBaseDataOffset() {
+		decoded();
+		return baseDataOffset;
+	}
+
+	/**
+	 * @return	The sample description index, or 0 if not present
+	 */
+	public long getSampleDescriptionIndex() {
+		decoded();
+		return sampleDescriptionIndex;
+	}
+
+	/**
+	 * @return	The default duration of the samples, or -1 if not present
+	 */
+	public long getDefaultSampleDuration() {
+		decoded();
+		return defaultSampleDuration;
+	}
+
+	/**
+	 * @return	The default size of the samples, or -1 if not present
+	 */
+	public long getDefaultSampleSize() {
+		decoded();
+		return defaultSampleSize;
+	}
+
+	/**
+	 * @return	The default flags of the samples, or -1 if not present
+	 */
+	public long getDefaultSampleFlags() {
+		decoded();
+		return defaultSampleFlags;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Track Fragment Random Access Atom (<code>tfra</code>).
+ * For one track, the times of sync samples and the positions of the <code>moof</code> {@link Atom}s containing them.
+ */
+public class TFRAAtom extends TableAtom {
+
+	public static final String NAME = "tfra";
+
+	public static final int OFFSET = 0;
+
+	/** The ID of the track */
+	private int trackId;
+	/** The presentation time of every entry, ascending */
+	private long[] times;
+	/** The position of the <code>moof</code> {@link Atom} of every entry */
+	private long[] moofOffsets;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TFRAAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		trackId = reader.readSignedInteger();
+		final int sizes = reader.readSignedInteger();
+		/* Sizes of the traf, trun and sample numbers */
+		final int numbers = ((sizes >> 4) & 3) + ((sizes >> 2) & 3) + (sizes & 3) + 3;
+		final boolean large = version == 1;
+		final int count = entries(reader, reader.readUnsignedInteger(), (large ? 16 : 8) + numbers);
+		times = new long[count];
+		moofOffsets = new long[count];
+		for(int i=0;i<count;i++) {
+			times[i] = reader.readUnsigned(large);
+			moofOffsets[i] = reader.readUnsigned(large);
+			reader.skip(numbers);
+			if (i > 0 && times[i] < times[i-1])
+				throw new AtomException(file, start, "Times in "+name+" are not ascending");
+		}
+	}
+
+	/**
+	 * @return	The ID of the track
+	 */
+	public int getTrackId() {
+		decoded();
+		return trackId;
+	}
+
+	/**
+	 * @return	The amount of entries
+	 */
+	public int getEntryCount() {
+		decoded();
+		return times.length;
+	}
+
+	/**
+	 * @param entry	The index of the entry
+	 * @return	The presentation time of the sync sample, in media timescale units
+	 */
+	public long getTime(int entry) {
+		decoded();
+		return times[entry];
+	}
+
+	/**
+	 * @param entry	The index of the entry
+	 * @return	The position of the <code>moof</code> {@link Atom} containing the sync sample
+	 */
+	public long getMoofOffset(int entry) {
+		decoded();
+		return moofOffsets[entry];
+	}
+
+	/**
+	 * Find the last entry at or before a time, in O(log n)
+	 * @param time	The presentation time in media timescale units
+	 * @return	The index of the entry, or -1 if the time is before the first entry
+	 */
+	public int getEntryAt(long time) {
+		decoded();
+		return floor(times, time);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Track Extends Atom (<code>trex</code>).
+ * The defaults for the samples of a track in movie fragments.
+ */
+public class TREXAtom extends TableAtom {
+
+	public static final String NAME = "trex";
+
+	public static final int OFFSET = 0;
+
+	/** The ID of the track */
+	private int trackId;
+	/** The default sample description index */
+	private long defaultSampleDescriptionIndex;
+	/** The default sample duration */
+	private long defaultSampleDuration;
+	/** The default sample size */
+	private long defaultSampleSize;
+	/** The default sample flags */
+	private long defaultSampleFlags;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TREXAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		trackId = reader.readSignedInteger();
+		defaultSampleDescriptionIndex = reader.readUnsignedInteger();
+		defaultSampleDuration = reader.readUnsignedInteger();
+		defaultSampleSize = reader.readUnsignedInteger();
+		defaultSampleFlags = reader.readUnsignedInteger();
+	}
+
+	/**
+	 * @return	The ID of the track
+	 */
+	public int getTrackId() {
+		decoded();
+		return trackId;
+	}
+
+	/**
+	 * @return	The default sample description index
+	 */
+	public long getDefaultSampleDescriptionIndex() {
+		decoded();
+		return defaultSampleDescriptionIndex;
+	}
+
+	/**
+	 * @return	The default duration of the samples
+	 */
+	public long getDefaultSampleDuration() {
+		decoded();
+		return defaultSampleDuration;
+	}
+
+	/**
+	 * @return	The default size of the samples
+	 */
+	public long getDefaultSampleSize() {
+		decoded();
+		return defaultSampleSize;
+	}
+
+	/**
+	 * @return	The default flags of the samples
+	 */
+	public long getDefaultSampleFlags() {
+		decoded();
+		return defaultSampleFlags;
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+/**
+ * Track Fragment Run Atom (<code>trun</code>).
+ * A run of samples of a track fragment which are stored next to each other.
+ * Values which are not present in the run are taken from the defaults
+ * in the {@link TFHDAtom} or {@link TREXAtom}, which are passed to the getters.
+ */
+public class TRUNAtom extends TableAtom {
+
+	public static final String NAME = "trun";
+
+	public static final int OFFSET = 0;
+
+	/** Flag: the data offset is present */
+	public static final int DATA_OFFSET = 0x1;
+	/** Flag: the flags of the first sample are present */
+	public static final int FIRST_SAMPLE_FLAGS = 0x4;
+	/** Flag: every sample has a duration */
+	public static final int SAMPLE_DURATION = 0x100;
+	/** Flag: every sample has a size */
+	public static final int SAMPLE_SIZE = 0x200;
+	/** Flag: every sample has flags */
+	public static final int SAMPLE_FLAGS = 0x400;
+	/** Flag: every sample has a composition offset */
+	public static final int SAMPLE_COMPOSITION_OFFSET = 0x800;
+	/** Sample flag: the sample is not a sync sample */
+	public static final int NON_SYNC_SAMPLE = 0x10000;
+
+	/** The amount of samples */
+	private int sampleCount;
+	/** Position of the data relative to the base data offset, only valid when {@link #DATA_OFFSET} is set */
+	private int dataOffset;
+	/** The flags of the first sample, -1 if not present */
+	private long firstSampleFlags;
+	/** The duration of every sample, <code>null</code> if not present */
+	private int[] durations;
+	/** The size of every sample, <code>null</code> if not present */
+	private int[] sizes;
+	/** The flags of every sample, <code>null</code> if not present */
+	private int[] sampleFlags;
+	/** The composition offset of every sample, <code>null</code> if not present */
+	private int[] compositionOffsets;
+
+	/**
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TRUNAtom(AtomSource input, long start, long length, int offset) {
+		super(NAME, input, start, length, offset+OFFSET);
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.TableAtom#decode(net.sf.nuclearparsley.core.AtomReader, int, int)
+	 */
+	@Override
+	protected void decode(AtomReader reader, int version, int flags) throws AtomException {
+		final long count = reader.readUnsignedInteger();
+		dataOffset = (flags & DATA_OFFSET) != 0 ? reader.readSignedInteger() : 0;
+		firstSampleFlags = (flags & FIRST_SAMPLE_FLAGS) != 0 ? reader.readUnsignedInteger() : -1;
+		final int entrySize = Integer.bitCount(flags & (SAMPLE_DURATION|SAMPLE_SIZE|SAMPLE_FLAGS|SAMPLE_COMPOSITION_OFFSET)) * 4;
+		if (count > Integer.MAX_VALUE)
+			throw new AtomException(file, start, "Table "+name+" has "+count+" samples");
+		sampleCount = entries(reader, count, entrySize);
+		durations = (flags & SAMPLE_DURATION) != 0 ? new int[sampleCount] : null;
+		sizes = (flags & SAMPLE_SIZE) != 0 ? new int[sampleCount] : null;
+		sampleFlags = (flags & SAMPLE_FLAGS) != 0 ? new int[sampleCount] : null;
+		compositionOffsets = (flags & SAMPLE_COMPOSITION_OFFSET) != 0 ? new int[sampleCount] : null;
+		for(int i=0;i<sampleCount;i++) {
+			if (durations != null)
+				durations[i] = reader.readSignedInteger();
+			if (sizes != null)
+				sizes[i] = reader.readSignedInteger();
+			if (sampleFlags != null)
+				sampleFlags[i] = reader.readSignedInteger();
+			if (compositionOffsets != null)
+				compositionOffsets[i] = reader.readSignedInteger();
+		}
+	}
+
+	/**
+	 * @return	The amount of samples in the run
+	 */
+	public int getSampleCount() {
+		decoded();
+		return sampleCount;
+	}
+
+	/**
+	 * @return	<code>true</code> if the run has a data offset
+	 */
+	public boolean hasDataOffset() {
+		return (getFlags() & DATA_OFFSET) != 0;
+	}
+
+	/**
+	 * @return	The position of the data relative to the base data offset, 0 if not present
+	 */
+	public int getDataOffset() {
+		decoded();
+		return dataOffset;
+	}
+
+	/**
+	 * @param sample	The index of the sample in the run
+	 * @param defaultDuration	The duration when the run has no durations
+	 * @return	The duration of the sample
+	 */
+	public long getSampleDuration(int sample, long defaultDuration) {
+		decoded();
+		return durations == null ? defaultDuration : durations[sample] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param sample	The index of the sample in the run
+	 * @param defaultSize	The size when the run has no sizes
+	 * @return	The size of the sample in bytes
+	 */
+	public long getSampleSize(int sample, long defaultSize) {
+		decoded();
+		return sizes == null ? defaultSize : sizes[sample] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param sample	The index of the sample in the run
+	 * @param defaultFlags	The flags when the run has no flags for the sample
+	 * @return	The flags of the sample
+	 */
+	public long getSampleFlags(int sample, long defaultFlags) {
+		decoded();
+		if (sample == 0 && firstSampleFlags >= 0)
+			return firstSampleFlags;
+		return sampleFlags == null ? defaultFlags : sampleFlags[sample] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param sample	The index of the sample in the run
+	 * @return	The composition offset of the sample, 0 if not present
+	 */
+	public long getCompositionOffset(int sample) {
+		decoded();
+		if (compositionOffsets == null)
+			return 0;
+		return getVersion() > 0 ? compositionOffsets[sample] : compositionOffsets[sample] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @param defaultDuration	The duration of a sample when the run has no durations
+	 * @return	The total duration of the samples in the run
+	 */
+	public long getDuration(long defaultDuration) {
+		decoded();
+		if (durations == null)
+			return defaultDuration * sampleCount;
+		long result = 0;
+		for(int duration : durations)
+			result += duration & 0xFFFFFFFFL;
+		return result;
+	}
+
+	/**
+	 * @param defaultSize	The size of a sample when the run has no sizes
+	 * @return	The total size of the samples in the run
+	 */
+	public long getSize(long defaultSize) {
+		decoded();
+		if (sizes == null)
+			return defaultSize * sampleCount;
+		long result = 0;
+		for(int size : sizes)
+			result += size & 0xFFFFFFFFL;
+		return result;
+	}
+
+}
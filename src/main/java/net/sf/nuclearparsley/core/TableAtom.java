@@ -0,0 +1,137 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.IOException;
+
+/**
+ * Atom consisting of a full box header (version and flags) followed by a table.
+ * The table is decoded into primitive arrays when it is first used,
+ * so parsing a file does not pay for tables which are never read.
+ */
+public abstract class TableAtom extends Atom {
+
+	/** Whether {@link #decode(AtomReader, int, int)} has completed */
+	private volatile boolean decoded;
+	/** The version of the table, read with the table */
+	private int version;
+	/** The flags of the table, read with the table */
+	private int flags;
+
+	/**
+	 * @param name	4-character name of the {@link Atom}
+	 * @param input	Atoms are read from this source
+	 * @param start	Starting pointer of this {@link Atom} in input file
+	 * @param length	Length of this {@link Atom} in bytes (including offset)
+	 * @param offset	The starting point of the atom payload from the start of the atom
+	 */
+	protected TableAtom(String name, AtomSource input, long start, long length, int offset) {
+		super(name, input, start, length, offset);
+	}
+
+	/**
+	 * Decode the table if this has not happened yet.
+	 * Call this at the start of every method which uses the decoded table.
+	 * @throws AtomException	The table is invalid, or reading it failed
+	 */
+	protected final void decoded() throws AtomException {
+		if (decoded)
+			return;
+		synchronized (this) {
+			if (decoded)
+				return;
+			final Object event = ParseEvents.beginDecode();
+			final long begin = source.metrics == null ? 0 : System.nanoTime();
+			try {
+				final AtomReader reader = getPayloadReader();
+				final int versionAndFlags = reader.readVersionAndFlags();
+				version = versionAndFlags >>> 24;
+				flags = versionAndFlags & 0xFFFFFF;
+				decode(reader, version, flags);
+			} catch (IOException e) {
+				throw new AtomException(file, start, "Unable to read table", e);
+			} finally {
+				if (source.metrics != null)
+					source.metrics.time(ParseMetrics.Phase.DECODE, System.nanoTime() - begin);
+				ParseEvents.endDecode(event, this);
+			}
+			decoded = true;
+		}
+	}
+
+	/**
+	 * Decode the table
+	 * @param reader	Reader positioned directly after the version and flags
+	 * @param version	The version of the table
+	 * @param flags	The flags of the table
+	 * @throws AtomException	The table is invalid
+	 */
+	protected abstract void decode(AtomReader reader, int version, int flags) throws AtomException;
+
+	/**
+	 * Check the amount of entries in a table against the bytes left in the payload
+	 * @param reader	Reader positioned at the first entry
+	 * @param count	The amount of entries, unsigned
+	 * @param entrySize	The size of an entry in bytes
+	 * @return	The amount of entries
+	 * @throws AtomException	The payload is too short for the entries
+	 */
+	protected int entries(AtomReader reader, long count, int entrySize) throws AtomException {
+		if (count * entrySize > reader.remaining())
+			throw new AtomException(file, start, "Table "+name+" has "+count+" entries, which do not fit in the atom");
+		return (int) count;
+	}
+
+	/**
+	 * Get the version of the table
+	 * @return	the version
+	 */
+	public int getVersion() {
+		decoded();
+		return version;
+	}
+
+	/**
+	 * Get the flags of the table
+	 * @return	the flags (24 bits)
+	 */
+	public int getFlags() {
+		decoded();
+		return flags;
+	}
+
+	/**
+	 * Find the last entry of which the first value is at most <code>key</code>
+	 * @param firsts	Ascending first values of the entries
+	 * @param key	The value to look for
+	 * @return	The index of the entry, or -1 when <code>key</code> comes before the first entry
+	 */
+	static int floor(long[] firsts, long key) {
+		int low = 0;
+		int high = firsts.length-1;
+		while(low <= high) {
+			final int middle = (low+high) >>> 1;
+			if (firsts[middle] <= key)
+				low = middle+1;
+			else
+				high = middle-1;
+		}
+		return high;
+	}
+
+}
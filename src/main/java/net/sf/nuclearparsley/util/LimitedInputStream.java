@@ -22,7 +22,9 @@ import java.io.InputStream;
 
 /**
  * An input stream that limits which bytes from the underlying input stream can be read.
+ * @deprecated	Use {@link RangeInputStream}, which reads a file using positional reads and a buffer
  */
+@Deprecated
 public class LimitedInputStream extends InputStream {
 
 	/**	The input stream being actually read from */
@@ -45,7 +47,16 @@ public class LimitedInputStream extends InputStream {
 	 * @throws IOException When the input stream cannot be seeked to the initial start position
 	 */
 	public LimitedInputStream(InputStream in, long start, long length) throws IOException {
-		in.skip(start);
+		for(long skipped = 0;skipped < start;) {
+			final long result = in.skip(start-skipped);
+			if (result <= 0) {
+				if (in.read() < 0)
+					throw new IOException("Unable to skip to "+start);
+				skipped++;
+			} else {
+				skipped += result;
+			}
+		}
 		this.in = in;
 		read = 0;
 		max = length;
@@ -73,10 +84,11 @@ public class LimitedInputStream extends InputStream {
 	/** {@inheritDoc} */
 	@Override
 	public int read() throws IOException {
-		if (read+1 >= max)
+		if (read >= max)
 			return -1;
 		int result = in.read();
-		read++;
+		if (result >= 0)
+			read++;
 		return result;
 	}
 
@@ -87,12 +99,14 @@ public class LimitedInputStream extends InputStream {
 
 	/** {@inheritDoc} */
 	public int read(byte b[], int off, int len) throws IOException {
-		if (read+len >= max) {
-			assert (max-read & 0xFFFFFFF800000000L) == 0;
-			len = (int) (max-read);
-		}
+		if (len == 0)
+			return 0;
+		if (read >= max)
+			return -1;
+		len = (int) Math.min(len, max-read);
 		final int result = in.read(b, off, len);
-		read += result;
+		if (result > 0)
+			read += result;
 		return result;
 	}
 
@@ -104,7 +118,7 @@ public class LimitedInputStream extends InputStream {
 
 	/** {@inheritDoc} */
 	public long skip(long n) throws IOException {
-		final long result = in.skip(n);
+		final long result = in.skip(Math.min(n, max-read));
 		read += result;
 		return result;
 	}
@@ -0,0 +1,224 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream over a range of bytes in a file, read through positional reads on a {@link FileChannel}.
+ * The channel may be shared with other readers, since its position is never used or changed.
+ * Reads are buffered, skipping only moves the position within the range,
+ * and {@link #mark(int)}/{@link #reset()} are supported without limit.
+ * Closing the stream does not close the channel.
+ */
+public class RangeInputStream extends InputStream {
+
+	/** Default size of the read buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 0x2000;
+
+	/** The channel being actually read from */
+	protected final FileChannel channel;
+	/** Position of the first byte of the range in the channel */
+	public final long start;
+	/** The amount of bytes in the range */
+	public final long length;
+	/** The buffer, containing the bytes from {@link #bufferStart} */
+	private final ByteBuffer buffer;
+	/** Position of the first byte in the buffer, relative to {@link #start} */
+	private long bufferStart;
+	/** The amount of bytes read/skipped already */
+	protected long position;
+	/** The position to return to when {@link #reset()} is called */
+	protected long mark;
+	/** Whether the stream has been closed */
+	private boolean closed;
+
+	/**
+	 * Creates an input stream
+	 * limited to reading <code>length</code> bytes
+	 * from <code>start</code>, with a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes.
+	 * @param channel	the channel to read from
+	 * @param start	first readable byte
+	 * @param length	amount of readable bytes
+	 */
+	public RangeInputStream(FileChannel channel, long start, long length) {
+		this(channel, start, length, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates an input stream
+	 * limited to reading <code>length</code> bytes
+	 * from <code>start</code>.
+	 * @param channel	the channel to read from
+	 * @param start	first readable byte
+	 * @param length	amount of readable bytes
+	 * @param bufferSize	maximum amount of bytes read at once
+	 */
+	public RangeInputStream(FileChannel channel, long start, long length, int bufferSize) {
+		if (start < 0 || length < 0)
+			throw new IllegalArgumentException("Invalid range "+start+"+"+length);
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive");
+		this.channel = channel;
+		this.start = start;
+		this.length = length;
+		this.buffer = ByteBuffer.allocate((int) Math.min(bufferSize, Math.max(length, 1)));
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * Make sure the byte at {@link #position} is in the buffer, reading it if needed.
+	 * @return	<code>false</code> if the end of the range or of the file has been reached
+	 * @throws IOException	Reading the file failed
+	 */
+	private boolean fill() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (position >= length)
+			return false;
+		if (position >= bufferStart && position < bufferStart + buffer.limit())
+			return true;
+		buffer.clear();
+		buffer.limit((int) Math.min(buffer.capacity(), length-position));
+		bufferStart = position;
+		while(buffer.hasRemaining())
+			if (readAt(buffer, start+bufferStart+buffer.position()) < 0)
+				break;
+		buffer.flip();
+		return buffer.hasRemaining();
+	}
+
+	/**
+	 * Read from the channel at an absolute position.
+	 * All reads of this stream go through this method, so subclasses can route or count them.
+	 * @param dst	the buffer to read into
+	 * @param position	absolute position in the channel
+	 * @return	the amount of bytes read, or -1 at the end of the channel
+	 * @throws IOException	Reading the file failed
+	 */
+	protected int readAt(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return buffer.get((int) (position++ - bufferStart)) & 0xFF;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(byte b[], int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (closed)
+			throw new IOException("Stream closed");
+		if (position >= length)
+			return -1;
+		len = (int) Math.min(len, length-position);
+		final boolean buffered = position >= bufferStart && position < bufferStart + buffer.limit();
+		if (!buffered && len >= buffer.capacity()) {
+			/* Read big requests directly into the destination */
+			final ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+			while(dst.hasRemaining())
+				if (readAt(dst, start+position+dst.position()-off) < 0)
+					break;
+			final int result = dst.position()-off;
+			position += result;
+			return result == 0 ? -1 : result;
+		}
+		if (!fill())
+			return -1;
+		final int from = (int) (position - bufferStart);
+		final int result = Math.min(len, buffer.limit() - from);
+		System.arraycopy(buffer.array(), from, b, off, result);
+		position += result;
+		return result;
+	}
+
+	/**
+	 * Skip bytes without reading them. Skipping never goes past the end of the range.
+	 * @param n	the amount of bytes to skip
+	 * @return	the amount of bytes skipped
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		if (n <= 0)
+			return 0;
+		final long result = Math.min(n, length-position);
+		position += result;
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int available() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		return (int) Math.min(Integer.MAX_VALUE, length-position);
+	}
+
+	/**
+	 * Remember the current position. The read limit is ignored, since any position can be returned to.
+	 * @param readLimit	ignored
+	 */
+	@Override
+	public void mark(int readLimit) {
+		mark = position;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void reset() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed");
+		position = mark;
+	}
+
+	/**
+	 * Close the stream. The channel is not closed, since it may be shared.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * Get the amount of bytes read/skipped already
+	 * @return	the position relative to {@link #start}
+	 */
+	public long position() {
+		return position;
+	}
+
+}
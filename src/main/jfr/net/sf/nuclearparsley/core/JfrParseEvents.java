@@ -0,0 +1,139 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The Java Flight Recorder implementation of {@link ParseEvents}.
+ * This class is compiled separately for Java 11, and only loaded when the JVM supports JFR.
+ */
+final class JfrParseEvents extends ParseEvents {
+
+	/**
+	 * Parse of a file into a tree of {@link Atom}s
+	 */
+	@Name("net.sf.nuclearparsley.FileParse")
+	@Label("File Parse")
+	@Category("Nuclear Parsley")
+	@Description("Construction of a RootAtom, including all atoms parsed during construction")
+	static final class FileParse extends Event {
+		@Label("File")
+		String file;
+		@Label("Length")
+		@DataAmount
+		long length;
+		@Label("Parse Mode")
+		String mode;
+		@Label("Atoms Created")
+		long atoms;
+		@Label("Read Calls")
+		long readCalls;
+		@Label("Bytes Read")
+		@DataAmount
+		long bytesRead;
+	}
+
+	/**
+	 * Decode of a {@link TableAtom}
+	 */
+	@Name("net.sf.nuclearparsley.TableDecode")
+	@Label("Table Decode")
+	@Category("Nuclear Parsley")
+	@Description("Decoding of a sample or fragment table into arrays")
+	@Threshold("1 ms")
+	static final class TableDecode extends Event {
+		@Label("File")
+		String file;
+		@Label("Atom")
+		String atom;
+		@Label("Position")
+		long position;
+		@Label("Length")
+		@DataAmount
+		long length;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.ParseEvents#startParse()
+	 */
+	@Override
+	Object startParse() {
+		final FileParse event = new FileParse();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.ParseEvents#commitParse(java.lang.Object, net.sf.nuclearparsley.core.RootAtom)
+	 */
+	@Override
+	void commitParse(Object started, RootAtom root) {
+		final FileParse event = (FileParse) started;
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.file = root.file.getPath();
+		event.length = root.length;
+		event.mode = root.source.mode.name();
+		final ParseMetrics metrics = root.source.metrics;
+		if (metrics != null) {
+			event.atoms = metrics.getAtomsCreated();
+			event.readCalls = metrics.getReadCalls();
+			event.bytesRead = metrics.getBytesRead();
+		}
+		event.commit();
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.ParseEvents#startDecode()
+	 */
+	@Override
+	Object startDecode() {
+		final TableDecode event = new TableDecode();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	/* (non-Javadoc)
+	 * @see net.sf.nuclearparsley.core.ParseEvents#commitDecode(java.lang.Object, net.sf.nuclearparsley.core.Atom)
+	 */
+	@Override
+	void commitDecode(Object started, Atom atom) {
+		final TableDecode event = (TableDecode) started;
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.file = atom.file.getPath();
+		event.atom = atom.name;
+		event.position = atom.start;
+		event.length = atom.length;
+		event.commit();
+	}
+
+}
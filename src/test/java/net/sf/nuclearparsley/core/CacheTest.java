@@ -0,0 +1,120 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File media;
+	private ParseCache cache;
+
+	@Before
+	public void createTestData() throws IOException {
+		media = folder.newFile();
+		FileOutputStream writer = new FileOutputStream(media);
+		writer.write(ReadTest.manyChildren());
+		writer.close();
+		cache = new ParseCache(folder.newFolder(), 1 << 20);
+	}
+
+	/**
+	 * Confirms that a cached tree is the same as a parsed tree,
+	 * and that it is read from the cache the second time
+	 * @throws IOException reading the file failed (test fails)
+	 */
+	@Test
+	public void hitTest() throws IOException {
+		final RootAtom parsed = Atom.fromFile(media);
+		assertEquals(parsed, cache.get(media));
+		/* Make the file unreadable as atoms without changing length or modification time */
+		final long lastModified = media.lastModified();
+		FileOutputStream writer = new FileOutputStream(media);
+		writer.write(new byte[(int) parsed.length]);
+		writer.close();
+		assertTrue(media.setLastModified(lastModified));
+		final RootAtom cached = cache.get(media);
+		assertEquals(parsed, cached);
+		assertEquals(ReadTest.MANY_CHILDREN, ((ParentAtom) cached.get(0)).size());
+	}
+
+	/**
+	 * Confirms that a cache hit has the same specific {@link Atom} types as a parsed tree
+	 * @throws IOException reading the file failed (test fails)
+	 */
+	@Test
+	public void typedTest() throws IOException {
+		final File file = new SyntheticFile().tracks(1).samples(100).metadata(2).write(folder.newFile());
+		cache.get(file);
+		final RootAtom cached = cache.get(file);
+		final ParentAtom trak = (ParentAtom) AtomQuery.compile("moov.trak").first(cached);
+		assertEquals(100, SampleTable.fromTrack(trak).getSampleCount());
+		assertTrue(AtomQuery.compile("moov.trak.mdia.minf.stbl.stsz").first(cached) instanceof STSZAtom);
+		assertTrue(AtomQuery.compile("**.data").first(cached) instanceof DataAtom);
+		assertTrue(AtomQuery.compile("**.meta").first(cached) instanceof MetaAtom);
+		cached.close();
+	}
+
+	/**
+	 * Confirms that a changed file is parsed again
+	 * @throws IOException reading the file failed (test fails)
+	 */
+	@Test
+	public void staleTest() throws IOException {
+		assertEquals(ReadTest.MANY_CHILDREN, ((ParentAtom) cache.get(media).get(0)).size());
+		FileOutputStream writer = new FileOutputStream(media);
+		writer.write(ReadTest.manyChildren(5));
+		writer.close();
+		assertTrue(media.setLastModified(media.lastModified()+2000));
+		assertEquals(5, ((ParentAtom) cache.get(media).get(0)).size());
+	}
+
+	/**
+	 * Confirms that the cache stays below its maximum size
+	 * @throws IOException reading the file failed (test fails)
+	 */
+	@Test
+	public void evictTest() throws IOException {
+		final ParseCache small = new ParseCache(folder.newFolder(), 4096);
+		for(int i=0;i<20;i++) {
+			final File file = folder.newFile();
+			FileOutputStream writer = new FileOutputStream(file);
+			writer.write(ReadTest.manyChildren(10));
+			writer.close();
+			small.index(file);
+		}
+		long total = 0;
+		for(File bucket : small.directory.listFiles())
+			for(File entry : bucket.listFiles())
+				total += entry.length();
+		assertTrue(total <= 4096);
+	}
+
+}
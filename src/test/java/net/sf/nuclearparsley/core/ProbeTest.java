@@ -0,0 +1,74 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class ProbeTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Confirms that a probe finds the brands and the same top level {@link Atom}s as a parsed tree,
+	 * recognises the order of <code>moov</code> and <code>mdat</code> and fragmented files,
+	 * and reports a truncated file instead of failing
+	 * @throws IOException reading the file failed (test fails)
+	 */
+	@Test
+	public void probeTest() throws IOException {
+		final File file = new SyntheticFile().tracks(2).samples(100).largeSizes(true).write(folder.newFile());
+		AtomProbe probe = AtomProbe.probe(file);
+		assertEquals("isom", probe.majorBrand);
+		assertEquals(0x200, probe.minorVersion);
+		assertEquals(Arrays.asList("isom", "iso2", "mp41"), probe.compatibleBrands);
+		assertTrue(probe.isMoovFirst());
+		assertFalse(probe.isFragmented());
+		assertNull(probe.getError());
+		final RootAtom root = new RootAtom(file, ParseMode.LAZY);
+		assertEquals(root.size(), probe.getAtomCount());
+		for(int i=0;i<root.size();i++) {
+			assertEquals(root.get(i).name, probe.getName(i));
+			assertEquals(root.get(i).start, probe.getStart(i));
+			assertEquals(root.get(i).length, probe.getLength(i));
+		}
+		root.close();
+
+		probe = AtomProbe.probe(new SyntheticFile().tracks(1).samples(100).moovFirst(false).write(folder.newFile()));
+		assertFalse(probe.isMoovFirst());
+		probe = AtomProbe.probe(new SyntheticFile().tracks(1).samples(100).fragments(4).write(folder.newFile()));
+		assertTrue(probe.isFragmented());
+
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(file.length()-1);
+		}
+		probe = AtomProbe.probe(file);
+		assertNotNull(probe.getError());
+		assertEquals("isom", probe.majorBrand);
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class QueryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Select the {@link Atom}s matching a path in a file
+	 * @param path	the path, see {@link AtomQuery}
+	 * @param file	the file
+	 * @return	the matching {@link Atom}s
+	 * @throws IOException	reading the file failed
+	 */
+	private static List<Atom> select(String path, File file) throws IOException {
+		try (AtomQuery.Selection selection = AtomQuery.compile(path).select(file)) {
+			return selection.get();
+		}
+	}
+
+	/**
+	 * Confirms that wildcards, indexes, handler and size conditions and descendant search select the expected {@link Atom}s,
+	 * that several queries share the {@link Atom}s they both find, that only the results are created,
+	 * and that invalid paths are rejected
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void queryTest() throws IOException, AtomException {
+		final File file = new SyntheticFile().tracks(2).samples(100).metadata(3).depth(4).fanOut(2).write(folder.newFile());
+		final AtomQuery tracks = AtomQuery.compile("moov.trak[*]");
+		assertEquals(2, select("moov.trak[*]", file).size());
+		assertEquals(2, select("moov.trak[*][handler=vide]", file).size());
+		assertTrue(select("moov.trak[handler=soun]", file).isEmpty());
+		assertEquals(1, select("moov.udta[*].meta[handler=mdir]", file).size());
+		assertEquals(3, select("**.hdlr", file).size());
+		assertEquals(3, select("**.ilst.*[*]", file).size());
+		assertEquals(2, select("moov.trak[*].mdia.minf.stbl.stsz[size>20]", file).size());
+		assertTrue(select("moov.trak[*].mdia.minf.stbl.stsz[size<20]", file).isEmpty());
+
+		final RootAtom root = new RootAtom(file, ParseMode.LAZY);
+		try (AtomQuery.Selection results = AtomQuery.select(file, tracks, AtomQuery.compile("moov.trak[1]"))) {
+			assertSame(results.get().get(1), results.get(1).get(0));
+			assertEquals(results.get(1).get(0).start, AtomQuery.compile("moov.trak[1]").first(root).start);
+			assertEquals(2, ((ParentAtom) results.get(1).get(0)).size());
+		}
+		assertEquals(root.length, select("", file).get(0).length);
+		root.close();
+
+		final ParseMetrics metrics = new ParseMetrics();
+		ParseMetrics.setDefault(metrics);
+		try {
+			assertEquals("tkhd", select("moov.trak[1].tkhd", file).get(0).name);
+		} finally {
+			ParseMetrics.setDefault(null);
+		}
+		assertEquals(1, metrics.getAtomsCreated());
+
+		for(String invalid : new String[]{"moov..trak", "moo", "moov.", "trak[size~3]", "trak[0][1]", "trak[handler=vid]"}) {
+			try {
+				AtomQuery.compile(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
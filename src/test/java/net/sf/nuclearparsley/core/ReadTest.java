@@ -22,6 +22,19 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -37,6 +50,7 @@ public final class ReadTest {
 	private File negativeTest;
 
 	private File longLengthTest;
+	private File manyChildrenTest;
 	
 	/** Atom payload with 0x0C length (correct) 
 	 * 0x66,0x74,0x79,0x70 = "ftyp"
@@ -74,6 +88,36 @@ public final class ReadTest {
 		0x74, 0x65, 0x73, 0x74
 	};
 	
+	/** Amount of children in {@link #manyChildren()}, enough to span several read windows */
+	public static final int MANY_CHILDREN = 2000;
+
+	/**
+	 * Build a "moov" atom containing {@link #MANY_CHILDREN} {@link #BASICTEST} atoms.
+	 * The children are 12 bytes each, so some headers cross a read window boundary.
+	 * @return	the atom
+	 */
+	public static byte[] manyChildren() {
+		return manyChildren(MANY_CHILDREN);
+	}
+
+	/**
+	 * Build a "moov" atom containing {@link #BASICTEST} atoms.
+	 * @param count	the amount of children
+	 * @return	the atom
+	 */
+	public static byte[] manyChildren(int count) {
+		final int length = 8 + count*BASICTEST.length;
+		final byte[] result = new byte[length];
+		result[0] = (byte) (length >>> 24);
+		result[1] = (byte) (length >>> 16);
+		result[2] = (byte) (length >>>  8);
+		result[3] = (byte) length;
+		System.arraycopy("moov".getBytes(), 0, result, 4, 4);
+		for(int i=0;i<count;i++)
+			System.arraycopy(BASICTEST, 0, result, 8+i*BASICTEST.length, BASICTEST.length);
+		return result;
+	}
+	
 	@Before
 	public void createTestData() throws IOException {
 		basicTest = folder.newFile();
@@ -90,6 +134,11 @@ public final class ReadTest {
 		FileOutputStream longLengthTestWriter = new FileOutputStream(longLengthTest);
 		longLengthTestWriter.write(LONGLENGTHTEST);
 		longLengthTestWriter.close();
+		
+		manyChildrenTest = folder.newFile();
+		FileOutputStream manyChildrenTestWriter = new FileOutputStream(manyChildrenTest);
+		manyChildrenTestWriter.write(manyChildren());
+		manyChildrenTestWriter.close();
 	}
 	
 	/**
@@ -143,4 +192,604 @@ public final class ReadTest {
 		test(longLengthTest, 16);
 	}
 
+	/**
+	 * Confirms that all children of a large parent are found,
+	 * also when their headers cross the boundary of a read window
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void manyChildrenTest() throws IOException, AtomException {
+		ParentAtom atom = Atom.fromFile(manyChildrenTest);
+		ParentAtom moov = (ParentAtom) atom.get(0);
+		assertEquals(MANY_CHILDREN, moov.size());
+		for(int i=0;i<MANY_CHILDREN;i++) {
+			assertEquals("ftyp", moov.get(i).name);
+			assertEquals(8+i*BASICTEST.length, moov.get(i).start);
+		}
+		assertEquals("test", new String(moov.get(MANY_CHILDREN-1).getPayload()));
+	}
+
+	/**
+	 * Confirms that {@link ParseMode#LAZY} only creates children when they are used,
+	 * and then yields the same tree as {@link ParseMode#EAGER}
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void lazyTest() throws IOException, AtomException {
+		RootAtom lazy = Atom.fromFile(manyChildrenTest, ParseMode.LAZY);
+		try {
+			assertNull(lazy.children);
+			ParentAtom moov = (ParentAtom) lazy.get(0);
+			assertNotNull(lazy.children);
+			assertNull(moov.children);
+			assertEquals(MANY_CHILDREN, moov.size());
+			assertEquals(Atom.fromFile(manyChildrenTest), lazy);
+		} finally {
+			lazy.close();
+		}
+	}
+
+	/**
+	 * Confirms that registered leaf atoms are never parsed as a {@link ParentAtom},
+	 * even when their payload looks like valid child atoms
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void leafTest() throws IOException, AtomException {
+		final File mdat = folder.newFile();
+		final FileOutputStream writer = new FileOutputStream(mdat);
+		writer.write(new byte[]{0x00,0x00,0x00,0x14,0x6D,0x64,0x61,0x74}); // 20 bytes "mdat"
+		writer.write(BASICTEST);
+		writer.close();
+		Atom atom = Atom.fromFile(mdat).get(0);
+		assertEquals("mdat", atom.name);
+		assertFalse(atom instanceof ParentAtom);
+		assertNull(atom.error);
+		assertTrue(AtomRegistry.isContainer("moov"));
+		assertFalse(AtomRegistry.isContainer("mdat"));
+	}
+
+	/**
+	 * Confirms that an {@link AtomIndex} read from the file has the same shape as the {@link Atom} tree
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void indexTest() throws IOException, AtomException {
+		final RootAtom tree = Atom.fromFile(manyChildrenTest);
+		final AtomIndex index = AtomIndex.build(manyChildrenTest);
+		assertEquals(MANY_CHILDREN+2, index.size());
+		final int moov = index.find(AtomIndex.ROOT, "moov");
+		assertEquals(1, moov);
+		assertTrue(index.isContainer(moov));
+		assertEquals(MANY_CHILDREN, index.childCount(moov));
+		final int last = index.find(moov, "ftyp", MANY_CHILDREN-1);
+		assertEquals(tree.get(0).length-BASICTEST.length, index.start(last));
+		assertEquals(AtomIndex.NONE, index.nextSibling(last));
+		assertEquals(moov, index.parent(last));
+		assertEquals(tree, index.toTree());
+		assertEquals(tree, AtomIndex.fromTree(tree).toTree());
+	}
+
+	/**
+	 * Confirms that an {@link AtomIndex} built from the file and one built from the tree
+	 * agree on the header length and payload offset of every {@link Atom},
+	 * including typed {@link Atom}s which fell back to a generic {@link Atom}
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void indexOffsetTest() throws IOException, AtomException {
+		final File file = new SyntheticFile().tracks(1).samples(10).metadata(2).write(folder.newFile());
+		try (FileOutputStream writer = new FileOutputStream(file, true)) {
+			writer.write(words(12, FourCC.pack("data"), 0)); // too short for its type and locale
+		}
+		final RootAtom tree = Atom.fromFile(file);
+		assertNotNull(tree.get(tree.size()-1).error);
+		final AtomIndex built = AtomIndex.build(file);
+		final AtomIndex converted = AtomIndex.fromTree(tree);
+		assertEquals(built.size(), converted.size());
+		for(int i=0;i<built.size();i++) {
+			assertEquals(built.headerLength(i), converted.headerLength(i));
+			assertEquals(built.offset(i), converted.offset(i));
+		}
+		assertEquals(16, built.offset(built.size()-1));
+	}
+
+	/**
+	 * Confirms that names are packed and decoded without losing the 0xA9 byte
+	 * used by iTunes metadata atoms
+	 */
+	@Test
+	public void fourCCTest() {
+		assertEquals(0x6D6F6F76, FourCC.pack("moov"));
+		assertEquals(FourCC.MOOV, FourCC.pack("moov".getBytes()));
+		assertSame("moov", FourCC.toString(FourCC.MOOV));
+		final int nam = FourCC.pack(new byte[]{(byte) 0xA9, 0x6E, 0x61, 0x6D});
+		assertTrue(FourCC.isValid(nam));
+		assertFalse(FourCC.isValid(0x00000001));
+		assertEquals("\u00A9nam", FourCC.toString(nam));
+		assertEquals(nam, FourCC.pack(FourCC.toString(nam)));
+	}
+
+	/**
+	 * Confirms that {@link ParseMode#PARALLEL} yields the same tree as {@link ParseMode#EAGER},
+	 * with the children in the same order
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void parallelTest() throws IOException, AtomException {
+		final File parallelTest = folder.newFile();
+		final FileOutputStream writer = new FileOutputStream(parallelTest);
+		final int count = (int) (ParentAtom.PARALLEL_THRESHOLD/BASICTEST.length);
+		for(int i=0;i<4;i++) {
+			writer.write(BASICTEST);
+			writer.write(manyChildren(count+i));
+		}
+		writer.close();
+		final RootAtom parallel = Atom.fromFile(parallelTest, ParseMode.PARALLEL);
+		assertEquals(8, parallel.size());
+		for(int i=0;i<4;i++)
+			assertEquals(count+i, ((ParentAtom) parallel.get(i*2+1)).size());
+		assertEquals(Atom.fromFile(parallelTest), parallel);
+	}
+
+	/**
+	 * Confirms that the payload buffers contain the payload, for small and for mapped payloads
+	 * @throws IOException reading the stream failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void bufferTest() throws IOException, AtomException {
+		final Atom ftyp = Atom.fromFile(basicTest).get(0);
+		assertEquals(ByteBuffer.wrap(BASICTEST, 8, 4), ftyp.getPayloadBuffer());
+		assertTrue(ftyp.getPayloadBuffer().isReadOnly());
+		assertEquals(ByteBuffer.wrap(BASICTEST, 0, 8), ftyp.getHeaderBuffer());
+		final StringBuilder chunks = new StringBuilder();
+		for(ByteBuffer chunk : ftyp.getPayloadChunks(3))
+			chunks.append(StandardCharsets.ISO_8859_1.decode(chunk)).append('|');
+		assertEquals("tes|t|", chunks.toString());
+
+		final File mdat = folder.newFile();
+		final FileOutputStream writer = new FileOutputStream(mdat);
+		final int size = Atom.MAP_THRESHOLD + 100;
+		writer.write(new byte[]{(byte) ((size+8) >>> 24), (byte) ((size+8) >>> 16), (byte) ((size+8) >>> 8), (byte) (size+8)});
+		writer.write("mdat".getBytes());
+		final byte[] media = new byte[size];
+		for(int i=0;i<size;i++)
+			media[i] = (byte) i;
+		writer.write(media);
+		writer.close();
+		try (RootAtom root = Atom.fromFile(mdat, ParseMode.LAZY)) {
+			final ByteBuffer payload = root.get(0).getPayloadBuffer();
+			assertTrue(payload.isDirect());
+			assertEquals(ByteBuffer.wrap(media), payload);
+			long total = 0;
+			for(ByteBuffer chunk : root.get(0).getPayloadChunks(Atom.MAP_THRESHOLD)) {
+				assertEquals(ByteBuffer.wrap(media, (int) total, chunk.remaining()), chunk);
+				total += chunk.remaining();
+			}
+			assertEquals(size, total);
+		}
+	}
+
+	/**
+	 * Confirms that the payload stream ends exactly at the end of the payload,
+	 * and that skipping and resetting work across buffer boundaries
+	 * @throws IOException reading the stream failed (test fails)
+	 */
+	@Test
+	public void rangeStreamTest() throws IOException {
+		final RootAtom root = Atom.fromFile(manyChildrenTest, ParseMode.LAZY);
+		final InputStream stream = root.get(0).getPayloadStream();
+		assertTrue(stream.markSupported());
+		assertEquals(BASICTEST[0], stream.read());
+		stream.mark(0);
+		final byte[] child = new byte[BASICTEST.length-1];
+		assertEquals(child.length, stream.read(child));
+		assertEquals(BASICTEST[BASICTEST.length-1], child[child.length-1]);
+		final long rest = (long) BASICTEST.length*MANY_CHILDREN - BASICTEST.length;
+		assertEquals(rest, stream.skip(Long.MAX_VALUE));
+		assertEquals(-1, stream.read());
+		assertEquals(-1, stream.read(child));
+		stream.reset();
+		final byte[] all = new byte[BASICTEST.length*MANY_CHILDREN];
+		int read = 1;
+		for(int n;(n = stream.read(all, read, all.length-read)) > 0;)
+			read += n;
+		assertEquals(all.length, read);
+		for(int i=0;i<MANY_CHILDREN;i++)
+			assertEquals(BASICTEST[4], all[i*BASICTEST.length+4]);
+		stream.close();
+		root.close();
+	}
+
+	/**
+	 * Confirms that {@link AtomReader} reads signed and unsigned values correctly,
+	 * and that {@link FTabAtom} reads its fonts with it
+	 * @throws IOException reading the stream failed (test fails)
+	 */
+	@Test
+	public void readerTest() throws IOException {
+		final AtomReader reader = new AtomReader(ByteBuffer.wrap(new byte[]{
+				-0x1, -0x2, -0x1, -0x2, -0x3, 0x7F, -0x80, 0x00, 0x00, 0x01, -0x80, 0x00
+			}));
+		assertEquals(0xFFFE, reader.readUnsignedWord());
+		assertEquals(-0x103, reader.readSigned24());
+		assertEquals(0x7F800000L, reader.readUnsignedInteger());
+		assertEquals(1.5, reader.readFixed8(), 0);
+		assertEquals(0, reader.readSignedByte());
+		try {
+			reader.readUnsignedByte();
+			fail("Read past the end of the buffer");
+		} catch (AtomException e) {
+			assertEquals(0, reader.remaining());
+		}
+
+		final File ftab = folder.newFile();
+		final FileOutputStream writer = new FileOutputStream(ftab);
+		writer.write(new byte[]{0,0,0,25, 'f','t','a','b', 0,2, 0,1, 5,'S','e','r','i','f', 0,-0x80, 4,'M','o','n','o'});
+		writer.close();
+		final FTabAtom fonts = (FTabAtom) Atom.fromFile(ftab).get(0);
+		assertEquals(2, fonts.size());
+		assertEquals(FTabAtom.SERIF, fonts.get(1));
+		assertEquals("Mono", fonts.get(0x80));
+	}
+
+	/**
+	 * Pack words as big-endian bytes
+	 * @param words	the words
+	 * @return	the bytes
+	 */
+	private static byte[] words(int... words) {
+		final ByteBuffer result = ByteBuffer.allocate(words.length*4);
+		for(int word : words)
+			result.putInt(word);
+		return result.array();
+	}
+
+	/**
+	 * Confirms that a {@link SampleTable} finds the offset, size, times and sync state of every sample
+	 * from the tables of a track
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void sampleTableTest() throws IOException, AtomException {
+		final byte[] stbl = WriteTest.atom("stbl",
+				WriteTest.atom("stts", words(0, 2, 3,100, 2,50)),
+				WriteTest.atom("ctts", words(0, 2, 1,200, 4,0)),
+				WriteTest.atom("stsc", words(0, 2, 1,2,1, 2,3,1)),
+				WriteTest.atom("stsz", words(0, 0, 5, 10,20,30,40,50)),
+				WriteTest.atom("stco", words(0, 2, 1000, 2000)),
+				WriteTest.atom("stss", words(0, 2, 1, 4)));
+		final byte[] mdhd = WriteTest.atom("mdhd", words(0, 0, 0, 600, 400, 0));
+		final File file = folder.newFile();
+		try (FileOutputStream writer = new FileOutputStream(file)) {
+			writer.write(WriteTest.atom("trak", WriteTest.atom("mdia", mdhd, WriteTest.atom("minf", stbl))));
+		}
+		final RootAtom root = new RootAtom(file, ParseMode.LAZY);
+		final SampleTable samples = SampleTable.fromTrack((ParentAtom) root.get(0));
+		assertEquals(600, samples.timescale);
+		assertEquals(5, samples.getSampleCount());
+		assertEquals(400, samples.getDuration());
+
+		final long[] offsets = {1000, 1010, 2000, 2030, 2070};
+		final long[] times = {0, 100, 200, 300, 350};
+		for(int i=0;i<offsets.length;i++) {
+			assertEquals(offsets[i], samples.getOffset(i));
+			assertEquals((i+1)*10, samples.getSize(i));
+			assertEquals(times[i], samples.getDecodeTime(i));
+			assertEquals(i < 2 ? 0 : 1, samples.getChunk(i));
+		}
+		assertEquals(200, samples.getPresentationTime(0));
+		assertEquals(300, samples.getPresentationTime(3));
+		assertEquals(50, samples.getDuration(4));
+
+		assertTrue(samples.isSync(0));
+		assertFalse(samples.isSync(1));
+		assertTrue(samples.isSync(3));
+		assertEquals(0, samples.getSyncSampleBefore(2));
+		assertEquals(3, samples.getSyncSampleBefore(4));
+
+		assertEquals(-1, samples.getSampleAt(-1));
+		assertEquals(0, samples.getSampleAt(99));
+		assertEquals(3, samples.getSampleAt(320));
+		assertEquals(4, samples.getSampleAt(10000));
+		root.close();
+	}
+
+	/**
+	 * Confirms that a {@link SeekIndex} finds keyframes and merges the byte ranges of contiguous samples,
+	 * and that a {@link SeekIndexCache} reuses, looks up by track ID and evicts indices
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void seekIndexTest() throws IOException, AtomException {
+		final byte[] stbl = WriteTest.atom("stbl",
+				WriteTest.atom("stts", words(0, 2, 3,100, 2,50)),
+				WriteTest.atom("stsc", words(0, 2, 1,2,1, 2,3,1)),
+				WriteTest.atom("stsz", words(0, 0, 5, 10,20,30,40,50)),
+				WriteTest.atom("stco", words(0, 2, 1000, 2000)),
+				WriteTest.atom("stss", words(0, 2, 1, 4)));
+		final byte[] mdhd = WriteTest.atom("mdhd", words(0, 0, 0, 600, 400, 0));
+		final byte[] tkhd = WriteTest.atom("tkhd", words(0, 0, 0, 7, 0, 400));
+		final File file = folder.newFile();
+		try (FileOutputStream writer = new FileOutputStream(file)) {
+			writer.write(WriteTest.atom("moov", WriteTest.atom("trak", tkhd,
+					WriteTest.atom("mdia", mdhd, WriteTest.atom("minf", stbl)))));
+		}
+		final SeekIndexCache cache = new SeekIndexCache(1);
+		final SeekIndex seek = cache.get(file, 7);
+		assertSame(seek, cache.get(file, 7));
+		assertNull(cache.get(file, 8));
+		assertEquals(7, seek.trackId);
+		assertEquals(600, seek.timescale);
+		assertEquals(900, seek.toMediaTime(1500));
+		assertEquals(0, seek.getKeyframeAt(-5));
+		assertEquals(0, seek.getKeyframeAt(250));
+		assertEquals(3, seek.getKeyframeAt(360));
+		assertEquals(Arrays.asList(new SeekIndex.Range(1000, 30), new SeekIndex.Range(2000, 30)), seek.seek(250));
+		assertEquals(Collections.singletonList(new SeekIndex.Range(2030, 90)), seek.seek(300, 400));
+		assertEquals("2030-2069", seek.seek(300).get(0).toString());
+
+		final File copy = folder.newFile();
+		Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		assertNotNull(cache.get(copy, 7));
+		assertNotSame(seek, cache.get(file, 7)); // evicted by the copy
+	}
+
+	/**
+	 * Confirms that a {@link SampleReader} returns the samples of several tracks in file order,
+	 * with and without reading ahead
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void sampleReaderTest() throws IOException, AtomException {
+		final byte[] media = new byte[40];
+		for(int i=0;i<media.length;i++)
+			media[i] = (byte) (i+8);
+		final byte[] first = WriteTest.atom("stbl",
+				WriteTest.atom("stts", words(0, 1, 3,1)),
+				WriteTest.atom("stsc", words(0, 2, 1,2,1, 2,1,1)),
+				WriteTest.atom("stsz", words(0, 4, 3)),
+				WriteTest.atom("stco", words(0, 2, 8, 28)));
+		final byte[] second = WriteTest.atom("stbl",
+				WriteTest.atom("stts", words(0, 1, 3,1)),
+				WriteTest.atom("stsc", words(0, 2, 1,2,1, 2,1,1)),
+				WriteTest.atom("stsz", words(0, 0, 3, 6,6,16)),
+				WriteTest.atom("stco", words(0, 2, 16, 32)));
+		final File file = folder.newFile();
+		try (FileOutputStream writer = new FileOutputStream(file)) {
+			writer.write(WriteTest.atom("mdat", media));
+			writer.write(WriteTest.atom("moov", first, second));
+		}
+		final RootAtom root = new RootAtom(file);
+		final ParentAtom moov = (ParentAtom) root.get(1);
+		final List<SampleTable> tracks = Arrays.asList(
+				new SampleTable((ParentAtom) moov.get(0), 1), new SampleTable((ParentAtom) moov.get(1), 1));
+
+		final int[][] expected = {{0,0,8,4}, {0,1,12,4}, {1,0,16,6}, {1,1,22,6}, {0,2,28,4}, {1,2,32,16}};
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		for(Executor readAhead : new Executor[]{null, executor}) {
+			try (SampleReader reader = new SampleReader(root.source, tracks, 16, readAhead)) {
+				for(int[] sample : expected) {
+					assertTrue(reader.next());
+					assertEquals(sample[0], reader.getTrack());
+					assertEquals(sample[1], reader.getSample());
+					final ByteBuffer data = reader.getData();
+					assertEquals(sample[3], data.remaining());
+					assertEquals(sample[2], data.get(data.position()));
+					assertEquals(sample[2]+sample[3]-1, data.get(data.limit()-1));
+				}
+				assertFalse(reader.next());
+			}
+		}
+		executor.shutdown();
+		root.close();
+	}
+
+	/**
+	 * Build a "moof" atom with one fragment of three samples in track 1, followed by its "mdat" atom
+	 * @param time	the decode time of the fragment, -1 for no "tfdt" atom
+	 * @return	the atoms
+	 */
+	private static byte[] fragment(int time) {
+		final byte[] tfhd = WriteTest.atom("tfhd", words(TFHDAtom.DEFAULT_BASE_IS_MOOF, 1));
+		final byte[] tfdt = time < 0 ? new byte[0] : WriteTest.atom("tfdt", words(0, time));
+		final int moofLength = 8 + 16 + 8 + tfhd.length + tfdt.length + 20;
+		final byte[] trun = WriteTest.atom("trun", words(TRUNAtom.DATA_OFFSET, 3, moofLength+8));
+		final byte[] moof = WriteTest.atom("moof", WriteTest.atom("mfhd", words(0, 1)), WriteTest.atom("traf", tfhd, tfdt, trun));
+		final byte[] mdat = WriteTest.atom("mdat", new byte[12]);
+		return ByteBuffer.allocate(moof.length + mdat.length).put(moof).put(mdat).array();
+	}
+
+	/**
+	 * Confirms that a {@link FragmentIndex} finds the fragments overlapping a time range,
+	 * resolves a missing tfdt from earlier fragments and starts from the tfra entry when there is one
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void fragmentTest() throws IOException, AtomException {
+		final byte[] moov = WriteTest.atom("moov", WriteTest.atom("mvex", WriteTest.atom("trex", words(0, 1, 1, 10, 4, 0))));
+		final byte[][] fragments = {fragment(0), fragment(30), fragment(60), fragment(-1)};
+		final File file = folder.newFile();
+		try (FileOutputStream writer = new FileOutputStream(file)) {
+			writer.write(moov);
+			for(byte[] fragment : fragments)
+				writer.write(fragment);
+		}
+		final long[] moofs = new long[fragments.length];
+		moofs[0] = moov.length;
+		for(int i=1;i<moofs.length;i++)
+			moofs[i] = moofs[i-1] + fragments[i-1].length;
+
+		RootAtom root = new RootAtom(file, ParseMode.LAZY);
+		FragmentIndex index = new FragmentIndex(root);
+		assertEquals(4, index.getMoofCount());
+		List<Fragment> found = index.find(1, 35, 65);
+		assertEquals(2, found.size());
+		assertEquals(moofs[1], found.get(0).moof);
+		assertEquals(30, found.get(0).decodeTime);
+		assertEquals(30, found.get(0).duration);
+		assertEquals(3, found.get(0).sampleCount);
+		assertEquals(moofs[1]+fragments[1].length-12, found.get(0).dataStart);
+		assertEquals(moofs[2], found.get(0).dataEnd);
+		assertTrue(found.get(0).sync);
+		assertEquals(60, found.get(1).decodeTime);
+		assertTrue(index.find(2, 0, 100).isEmpty());
+		/* The last fragment has no tfdt, its time follows from the one before */
+		found = index.find(1, 95, 1000);
+		assertEquals(1, found.size());
+		assertEquals(90, found.get(0).decodeTime);
+		root.close();
+
+		/* With a tfra, the search starts at the moof it points to */
+		final byte[] tfra = WriteTest.atom("tfra", words(0, 1, 0x3F, 2, 0, (int) moofs[0], 1, 1, 1, 60, (int) moofs[2], 1, 1, 1));
+		try (FileOutputStream writer = new FileOutputStream(file, true)) {
+			writer.write(WriteTest.atom("mfra", tfra));
+		}
+		root = new RootAtom(file, ParseMode.LAZY);
+		index = new FragmentIndex(root);
+		found = index.find(1, 70, 80);
+		assertEquals(1, found.size());
+		assertEquals(moofs[2], found.get(0).moof);
+		assertEquals(60, found.get(0).decodeTime);
+		root.close();
+	}
+
+	/**
+	 * Confirms that an {@link AtomFollower} reports appended {@link Atom}s and completed fragments
+	 * of a growing file, keeps an incomplete {@link Atom} or header pending until it is complete,
+	 * and rejects a file which became shorter
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void followTest() throws IOException, AtomException {
+		final byte[] moov = WriteTest.atom("moov", WriteTest.atom("mvex", WriteTest.atom("trex", words(0, 1, 1, 10, 4, 0))));
+		final byte[] first = fragment(0);
+		final byte[] second = fragment(30);
+		final File file = folder.newFile();
+		final AtomFollower follower = new AtomFollower(file, ParseMode.LAZY);
+		final List<Atom> appended = new ArrayList<Atom>();
+		final List<Fragment> completed = new ArrayList<Fragment>();
+		follower.addListener(new AtomFollower.Listener() {
+			@Override
+			public void atomsAppended(AtomFollower follower, List<Atom> atoms) {
+				appended.addAll(atoms);
+			}
+			@Override
+			public void fragmentCompleted(AtomFollower follower, Fragment fragment) {
+				completed.add(fragment);
+			}
+		});
+
+		try (FileOutputStream writer = new FileOutputStream(file)) {
+			writer.write(moov);
+			writer.write(first, 0, first.length-4);
+			writer.flush();
+			/* The mdat of the first fragment is not complete */
+			assertEquals(2, follower.refresh().size());
+			assertEquals("mdat", follower.getPending().name);
+			assertEquals(20, follower.getPending().length);
+			assertTrue(completed.isEmpty());
+
+			writer.write(first, first.length-4, 4);
+			writer.write(second, 0, 5);
+			writer.flush();
+			assertEquals(1, follower.refresh().size());
+			/* The next header is not complete, only its bytes are counted */
+			assertNull(follower.getPending());
+			assertEquals(5, follower.getPendingBytes());
+			assertEquals(1, completed.size());
+			assertEquals(0, completed.get(0).decodeTime);
+
+			writer.write(second, 5, second.length-5);
+			writer.flush();
+			assertEquals(2, follower.refresh().size());
+			assertTrue(follower.refresh().isEmpty());
+		}
+		assertEquals(5, appended.size());
+		assertEquals(2, completed.size());
+		assertEquals(30, completed.get(1).decodeTime);
+		assertEquals(file.length(), follower.getParsedLength());
+		assertEquals(2, follower.getFragmentIndex().find(1, 0, 60).size());
+		assertEquals(5, follower.getRoot().size());
+
+		/* A 64 bit header without its size is not complete either */
+		try (FileOutputStream writer = new FileOutputStream(file, true)) {
+			writer.write(new byte[] {0, 0, 0, 1, 'f', 'r', 'e', 'e', 0, 0});
+		}
+		assertTrue(follower.refresh().isEmpty());
+		assertNull(follower.getPending());
+		assertEquals(10, follower.getPendingBytes());
+
+		/* A file which is shorter than before was replaced */
+		try (RandomAccessFile writer = new RandomAccessFile(file, "rw")) {
+			writer.setLength(follower.getParsedLength() - 1);
+		}
+		try {
+			follower.refresh();
+			fail("A shorter file should not be accepted");
+		} catch (AtomException ae) {
+			assertTrue(ae.getMessage(), ae.getMessage().contains("shorter"));
+		}
+		follower.close();
+	}
+
+	/**
+	 * Confirms that parsing is counted in per parse and cumulative {@link ParseMetrics}
+	 * @throws IOException	Reading the file failed
+	 */
+	@Test
+	public void metricsTest() throws IOException {
+		final ParseMetrics total = new ParseMetrics();
+		final ParseMetrics metrics = new ParseMetrics(total);
+		try (RootAtom tree = new RootAtom(new AtomSource(manyChildrenTest, ParseMode.EAGER, metrics))) {
+			assertSame(metrics, tree.getMetrics());
+		}
+		assertEquals(1, metrics.getFilesOpened());
+		assertEquals(MANY_CHILDREN+1, metrics.getAtomsCreated());
+		assertEquals(MANY_CHILDREN, metrics.getAtomsCreated("ftyp"));
+		assertEquals(1, metrics.getAtomsByType().get("moov").longValue());
+		assertEquals(0, metrics.getFallbacks());
+		assertTrue(metrics.getReadCalls() > 0);
+		assertTrue(metrics.getBytesRead() > 0);
+		assertEquals(metrics.getBytesRead(), total.getBytesRead());
+
+		assertNull(Atom.fromFile(manyChildrenTest).getMetrics());
+		ParseMetrics.setDefault(total);
+		try {
+			Atom.fromFile(manyChildrenTest).close();
+		} finally {
+			ParseMetrics.setDefault(null);
+		}
+		assertEquals(2, total.getFilesOpened());
+		assertEquals(2*MANY_CHILDREN, total.getAtomsCreated("ftyp"));
+
+		/* Payload streams and mapped payloads are counted as well */
+		final File mdat = folder.newFile();
+		try (FileOutputStream writer = new FileOutputStream(mdat)) {
+			writer.write(WriteTest.atom("mdat", new byte[Atom.MAP_THRESHOLD]));
+		}
+		metrics.reset();
+		try (RootAtom tree = new RootAtom(new AtomSource(mdat, ParseMode.EAGER, metrics))) {
+			final long read = metrics.getBytesRead();
+			try (InputStream stream = tree.get(0).getPayloadStream()) {
+				assertEquals(0, stream.read());
+			}
+			assertTrue(metrics.getBytesRead() > read);
+			tree.get(0).getPayloadBuffer();
+			assertEquals(Atom.MAP_THRESHOLD, metrics.getBytesMapped());
+		}
+	}
+
 }
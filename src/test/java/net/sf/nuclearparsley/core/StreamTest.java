@@ -0,0 +1,105 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public final class StreamTest {
+
+	/**
+	 * Collects the events of an {@link AtomStreamParser}
+	 */
+	private static final class Recorder implements AtomVisitor {
+		final StringBuilder events = new StringBuilder();
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final boolean wanted;
+		int entered;
+
+		Recorder(boolean wanted) {
+			this.wanted = wanted;
+		}
+
+		@Override
+		public boolean enterAtom(String name, long start, long length, int offset, int depth) {
+			if (entered++ < 2)
+				events.append('<').append(name).append('@').append(start).append('>');
+			return wanted;
+		}
+
+		@Override
+		public void payload(ByteBuffer chunk, long position) {
+			while(chunk.hasRemaining())
+				payload.write(chunk.get());
+		}
+
+		@Override
+		public void exitAtom(String name, long start, long length, int depth) {
+			if (depth == 0)
+				events.append("</").append(name).append('>');
+		}
+	}
+
+	/**
+	 * Confirms that a non-seekable stream is parsed in one pass,
+	 * with payloads split over a buffer much smaller than the stream
+	 * @throws IOException reading the stream failed (test fails)
+	 */
+	@Test
+	public void visitTest() throws IOException {
+		final byte[] data = ReadTest.manyChildren();
+		final Recorder recorder = new Recorder(true);
+		assertEquals(data.length, new AtomStreamParser(20).parse(new ByteArrayInputStream(data), recorder));
+		assertEquals("<moov@0><ftyp@8></moov>", recorder.events.toString());
+		assertEquals(ReadTest.MANY_CHILDREN+1, recorder.entered);
+		assertEquals(ReadTest.MANY_CHILDREN*4, recorder.payload.size());
+		assertEquals("test", new String(recorder.payload.toByteArray(), 0, 4));
+	}
+
+	/**
+	 * Confirms that content is skipped when the visitor is not interested
+	 * @throws IOException reading the stream failed (test fails)
+	 */
+	@Test
+	public void skipTest() throws IOException {
+		final byte[] data = ReadTest.manyChildren();
+		final Recorder recorder = new Recorder(false);
+		assertEquals(data.length, new AtomStreamParser(20).parse(new ByteArrayInputStream(data), recorder));
+		assertEquals("<moov@0></moov>", recorder.events.toString());
+		assertEquals(0, recorder.payload.size());
+	}
+
+	/**
+	 * Confirms that a truncated stream is reported
+	 * @throws IOException reading the stream failed (test fails)
+	 */
+	@Test(expected = AtomException.class)
+	public void truncatedTest() throws IOException {
+		final byte[] data = ReadTest.manyChildren();
+		final byte[] truncated = new byte[data.length-2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		new AtomStreamParser().parse(new ByteArrayInputStream(truncated), new Recorder(true));
+	}
+
+}
@@ -0,0 +1,492 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Generator of synthetic MP4 files with a configurable shape, for scale tests and benchmarks.
+ * The files consist of valid {@link Atom}s with consistent sample tables;
+ * the samples themselves are filled with {@link #sampleByte(int, int)}.
+ * Extra <code>mdat</code> space is not written, so files of many gigabytes only take as much disk space
+ * as their headers on file systems with sparse files.
+ * <p>
+ * Usage:
+ * <pre>
+ * new SyntheticFile().tracks(2).samples(10000).fragments(50).write(file);
+ * </pre>
+ * </p>
+ */
+public final class SyntheticFile {
+
+	/** Timescale of every track */
+	public static final int TIMESCALE = 1000;
+	/** Duration of every sample */
+	public static final int SAMPLE_DURATION = 40;
+	/** Sample flags of a sync sample: depends on no other samples */
+	private static final int SYNC_FLAGS = 0x02000000;
+	/** Sample flags of other samples: depends on other samples, is not a sync sample */
+	private static final int NON_SYNC_FLAGS = 0x01010000;
+	/** Names of the metadata items, which are repeated when there are more items */
+	private static final String[] METADATA = {"\u00A9nam", "\u00A9ART", "\u00A9alb", "\u00A9day", "\u00A9too", "\u00A9cmt", "desc", "aART"};
+
+	private int depth;
+	private int fanOut;
+	private int tracks = 1;
+	private int samples = 100;
+	private int samplesPerChunk = 10;
+	private int sampleSize = 64;
+	private int keyframeInterval = 25;
+	private int fragments;
+	private int metadata;
+	private boolean moovFirst = true;
+	private boolean largeSizes;
+	private boolean randomAccess;
+	private long padding;
+
+	/**
+	 * @param depth	Nesting depth of a tree of <code>udta</code> {@link Atom}s in <code>moov</code>, 0 for none
+	 * @return	this
+	 */
+	public SyntheticFile depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param fanOut	Amount of <code>free</code> {@link Atom}s on every level of the tree of {@link #depth(int)}
+	 * @return	this
+	 */
+	public SyntheticFile fanOut(int fanOut) {
+		this.fanOut = fanOut;
+		return this;
+	}
+
+	/**
+	 * @param tracks	Amount of tracks, 1 by default
+	 * @return	this
+	 */
+	public SyntheticFile tracks(int tracks) {
+		this.tracks = tracks;
+		return this;
+	}
+
+	/**
+	 * @param samples	Amount of samples in every track, 100 by default
+	 * @return	this
+	 */
+	public SyntheticFile samples(int samples) {
+		this.samples = samples;
+		return this;
+	}
+
+	/**
+	 * @param samplesPerChunk	Amount of samples in every chunk, 10 by default
+	 * @return	this
+	 */
+	public SyntheticFile samplesPerChunk(int samplesPerChunk) {
+		this.samplesPerChunk = samplesPerChunk;
+		return this;
+	}
+
+	/**
+	 * @param sampleSize	Minimum size of a sample, 64 by default; sizes vary up to 6 bytes more
+	 * @return	this
+	 */
+	public SyntheticFile sampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+		return this;
+	}
+
+	/**
+	 * @param keyframeInterval	Every this many samples a sync sample, 25 by default
+	 * @return	this
+	 */
+	public SyntheticFile keyframeInterval(int keyframeInterval) {
+		this.keyframeInterval = keyframeInterval;
+		return this;
+	}
+
+	/**
+	 * @param fragments	Amount of <code>moof</code> {@link Atom}s the samples are divided over, 0 for an unfragmented file
+	 * @return	this
+	 */
+	public SyntheticFile fragments(int fragments) {
+		this.fragments = fragments;
+		return this;
+	}
+
+	/**
+	 * @param metadata	Amount of items in <code>ilst</code>, 0 for no metadata
+	 * @return	this
+	 */
+	public SyntheticFile metadata(int metadata) {
+		this.metadata = metadata;
+		return this;
+	}
+
+	/**
+	 * @param moovFirst	Whether <code>moov</code> comes before <code>mdat</code>, ignored for fragmented files
+	 * @return	this
+	 */
+	public SyntheticFile moovFirst(boolean moovFirst) {
+		this.moovFirst = moovFirst;
+		return this;
+	}
+
+	/**
+	 * @param largeSizes	Whether <code>mdat</code> has a 64 bit size and chunk offsets are stored in <code>co64</code>
+	 * @return	this
+	 */
+	public SyntheticFile largeSizes(boolean largeSizes) {
+		this.largeSizes = largeSizes;
+		return this;
+	}
+
+	/**
+	 * @param randomAccess	Whether a fragmented file ends with <code>mfra</code>
+	 * @return	this
+	 */
+	public SyntheticFile randomAccess(boolean randomAccess) {
+		this.randomAccess = randomAccess;
+		return this;
+	}
+
+	/**
+	 * @param padding	Amount of bytes after the samples in the (last) <code>mdat</code>, which are not written.
+	 *               	A 64 bit size is used when needed.
+	 * @return	this
+	 */
+	public SyntheticFile padding(long padding) {
+		this.padding = padding;
+		return this;
+	}
+
+	/**
+	 * @param track	The index of the track
+	 * @param sample	The index of the sample
+	 * @return	The size of the sample
+	 */
+	public int sampleSize(int track, int sample) {
+		return sampleSize + (track + sample) % 7;
+	}
+
+	/**
+	 * @param track	The index of the track
+	 * @param sample	The index of the sample
+	 * @return	The value of every byte of the sample
+	 */
+	public static byte sampleByte(int track, int sample) {
+		return (byte) (track * 16 + sample);
+	}
+
+	/**
+	 * @param sample	The index of the sample
+	 * @return	Whether the sample is a sync sample
+	 */
+	public boolean isSync(int sample) {
+		return sample % keyframeInterval == 0;
+	}
+
+	/**
+	 * Write the file
+	 * @param file	The file, which is overwritten
+	 * @return	The file
+	 * @throws IOException	Writing the file failed
+	 */
+	public File write(File file) throws IOException {
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.setLength(0);
+			output.write(atom("ftyp", "isom".getBytes(StandardCharsets.ISO_8859_1), ints(0x200), "isomiso2mp41".getBytes(StandardCharsets.ISO_8859_1)));
+			if (fragments > 0)
+				writeFragmented(output);
+			else
+				writeUnfragmented(output);
+		}
+		return file;
+	}
+
+	/**
+	 * Write <code>moov</code> and one <code>mdat</code>, with the chunks of the tracks interleaved
+	 * @param output	The file, positioned after <code>ftyp</code>
+	 * @throws IOException	Writing the file failed
+	 */
+	private void writeUnfragmented(RandomAccessFile output) throws IOException {
+		final int chunks = (samples + samplesPerChunk - 1) / samplesPerChunk;
+		final long[][] offsets = new long[tracks][chunks];
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for(int chunk=0;chunk<chunks;chunk++)
+			for(int track=0;track<tracks;track++) {
+				offsets[track][chunk] = data.size();
+				for(int sample=chunk*samplesPerChunk;sample<Math.min(samples, (chunk+1)*samplesPerChunk);sample++)
+					data.write(sample(track, sample));
+			}
+		final long mdatLength = data.size() + padding;
+		final int mdatHeader = largeSizes || mdatLength + 8 > 0xFFFFFFFFL ? 16 : 8;
+		final long moovLength = moov(offsets, 0).length;
+		final long mdatStart = output.getFilePointer() + (moovFirst ? moovLength : 0);
+		final byte[] moov = moov(offsets, mdatStart + mdatHeader);
+		if (moovFirst)
+			output.write(moov);
+		output.write(header("mdat", mdatHeader + mdatLength, mdatHeader == 16));
+		output.write(data.toByteArray());
+		if (moovFirst) {
+			output.setLength(mdatStart + mdatHeader + mdatLength);
+		} else {
+			output.seek(mdatStart + mdatHeader + mdatLength);
+			output.write(moov);
+		}
+	}
+
+	/**
+	 * Write <code>moov</code>, the fragments and optionally <code>mfra</code>
+	 * @param output	The file, positioned after <code>ftyp</code>
+	 * @throws IOException	Writing the file failed
+	 */
+	private void writeFragmented(RandomAccessFile output) throws IOException {
+		output.write(moov(new long[tracks][0], 0));
+		final long[] moofs = new long[fragments];
+		final long[] times = new long[fragments];
+		for(int fragment=0;fragment<fragments;fragment++) {
+			final int first = (int) ((long) samples * fragment / fragments);
+			final int end = (int) ((long) samples * (fragment+1) / fragments);
+			final ByteArrayOutputStream data = new ByteArrayOutputStream();
+			final int[] dataOffsets = new int[tracks];
+			for(int track=0;track<tracks;track++) {
+				dataOffsets[track] = data.size();
+				for(int sample=first;sample<end;sample++)
+					data.write(sample(track, sample));
+			}
+			final long extra = fragment == fragments-1 ? padding : 0;
+			final int mdatHeader = largeSizes || data.size() + extra + 8 > 0xFFFFFFFFL ? 16 : 8;
+			final int moofLength = moof(fragment, first, end, dataOffsets).length;
+			for(int track=0;track<tracks;track++)
+				dataOffsets[track] += moofLength + mdatHeader;
+			moofs[fragment] = output.getFilePointer();
+			times[fragment] = (long) first * SAMPLE_DURATION;
+			output.write(moof(fragment, first, end, dataOffsets));
+			output.write(header("mdat", mdatHeader + data.size() + extra, mdatHeader == 16));
+			output.write(data.toByteArray());
+			output.seek(output.getFilePointer() + extra);
+		}
+		if (randomAccess) {
+			final byte[][] tfras = new byte[tracks][];
+			for(int track=0;track<tracks;track++) {
+				final ByteBuffer entries = ByteBuffer.allocate(fragments * 19);
+				for(int fragment=0;fragment<fragments;fragment++)
+					entries.putLong(times[fragment]).putLong(moofs[fragment]).put((byte) (track+1)).put((byte) 1).put((byte) 1);
+				tfras[track] = atom("tfra", ints(0x01000000, track+1, 0, fragments), entries.array());
+			}
+			final byte[] tfra = concat(tfras);
+			output.write(atom("mfra", tfra, atom("mfro", ints(0, 8 + tfra.length + 16))));
+		} else {
+			output.setLength(output.getFilePointer());
+		}
+	}
+
+	/**
+	 * @param offsets	The chunk offsets of every track relative to the sample data
+	 * @param base	The position of the sample data
+	 * @return	The <code>moov</code> {@link Atom}
+	 */
+	private byte[] moov(long[][] offsets, long base) {
+		final byte[][] children = new byte[tracks + 4][];
+		children[0] = atom("mvhd", ints(0, 0, 0, TIMESCALE, samples * SAMPLE_DURATION, 0x10000, 0x01000000),
+				new byte[8], ints(0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000), new byte[24], ints(tracks+1));
+		for(int track=0;track<tracks;track++)
+			children[track+1] = trak(track, offsets[track], base);
+		children[tracks+1] = fragments == 0 ? new byte[0] : mvex();
+		children[tracks+2] = metadata == 0 ? new byte[0] : udta();
+		children[tracks+3] = depth == 0 ? new byte[0] : tree(depth);
+		return atom("moov", children);
+	}
+
+	/**
+	 * @param track	The index of the track
+	 * @param offsets	The chunk offsets relative to the sample data, empty for a fragmented file
+	 * @param base	The position of the sample data
+	 * @return	The <code>trak</code> {@link Atom}
+	 */
+	private byte[] trak(int track, long[] offsets, long base) {
+		final boolean fragmented = fragments > 0;
+		final long duration = fragmented ? 0 : (long) samples * SAMPLE_DURATION;
+		final byte[] tkhd = atom("tkhd", ints(3, 0, 0, track+1, 0, (int) duration, 0, 0, 0, 0),
+				ints(0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000, 0, 0));
+		final byte[] mdhd = atom("mdhd", ints(0, 0, 0, TIMESCALE, (int) duration, 0x55C40000));
+		final byte[] hdlr = atom("hdlr", ints(0, 0), "vide".getBytes(StandardCharsets.ISO_8859_1), ints(0, 0, 0), new byte[]{'V', 0});
+		final byte[] stsd = atom("stsd", ints(0, 0));
+		final byte[] stbl;
+		if (fragmented) {
+			stbl = atom("stbl", stsd, atom("stts", ints(0, 0)), atom("stsc", ints(0, 0)),
+					atom("stsz", ints(0, 0, 0)), atom("stco", ints(0, 0)));
+		} else {
+			final ByteBuffer sizes = ByteBuffer.allocate(samples * 4);
+			final ByteBuffer sync = ByteBuffer.allocate(((samples + keyframeInterval - 1) / keyframeInterval) * 4);
+			for(int sample=0;sample<samples;sample++) {
+				sizes.putInt(sampleSize(track, sample));
+				if (isSync(sample))
+					sync.putInt(sample+1);
+			}
+			final ByteBuffer chunks = ByteBuffer.allocate(offsets.length * (largeSizes ? 8 : 4));
+			for(long offset : offsets)
+				if (largeSizes)
+					chunks.putLong(base + offset);
+				else
+					chunks.putInt((int) (base + offset));
+			stbl = atom("stbl", stsd,
+					atom("stts", ints(0, 1, samples, SAMPLE_DURATION)),
+					atom("stss", ints(0, sync.capacity() / 4), sync.array()),
+					atom("stsc", ints(0, 1, 1, samplesPerChunk, 1)),
+					atom("stsz", ints(0, 0, samples), sizes.array()),
+					atom(largeSizes ? "co64" : "stco", ints(0, offsets.length), chunks.array()));
+		}
+		return atom("trak", tkhd, atom("mdia", mdhd, hdlr, atom("minf", stbl)));
+	}
+
+	/**
+	 * @return	The <code>mvex</code> {@link Atom} with the defaults of every track
+	 */
+	private byte[] mvex() {
+		final byte[][] trex = new byte[tracks][];
+		for(int track=0;track<tracks;track++)
+			trex[track] = atom("trex", ints(0, track+1, 1, SAMPLE_DURATION, sampleSize, NON_SYNC_FLAGS));
+		return atom("mvex", trex);
+	}
+
+	/**
+	 * @return	The <code>udta</code> {@link Atom} with {@link #metadata} items
+	 */
+	private byte[] udta() {
+		final byte[][] items = new byte[metadata][];
+		for(int i=0;i<metadata;i++)
+			items[i] = atom(METADATA[i % METADATA.length],
+					atom("data", ints(1, 0), ("Value "+i).getBytes(StandardCharsets.UTF_8)));
+		final byte[] hdlr = atom("hdlr", ints(0, 0), "mdirappl".getBytes(StandardCharsets.ISO_8859_1), ints(0, 0), new byte[1]);
+		return atom("udta", atom("meta", ints(0), hdlr, atom("ilst", items)));
+	}
+
+	/**
+	 * @param levels	The amount of levels below this one
+	 * @return	A <code>udta</code> {@link Atom} with {@link #fanOut} <code>free</code> {@link Atom}s and the next level
+	 */
+	private byte[] tree(int levels) {
+		final byte[][] children = new byte[fanOut + 1][];
+		Arrays.fill(children, atom("free", new byte[8]));
+		children[fanOut] = levels == 1 ? new byte[0] : tree(levels-1);
+		return atom("udta", children);
+	}
+
+	/**
+	 * @param fragment	The index of the fragment
+	 * @param first	The first sample in the fragment
+	 * @param end	The sample after the last sample in the fragment
+	 * @param dataOffsets	The position of the data of every track relative to the <code>moof</code> {@link Atom}
+	 * @return	The <code>moof</code> {@link Atom}
+	 */
+	private byte[] moof(int fragment, int first, int end, int[] dataOffsets) {
+		final byte[][] children = new byte[tracks + 1][];
+		children[0] = atom("mfhd", ints(0, fragment+1));
+		for(int track=0;track<tracks;track++) {
+			final ByteBuffer entries = ByteBuffer.allocate((end - first) * 8);
+			for(int sample=first;sample<end;sample++)
+				entries.putInt(sampleSize(track, sample)).putInt(isSync(sample) ? SYNC_FLAGS : NON_SYNC_FLAGS);
+			children[track+1] = atom("traf",
+					atom("tfhd", ints(TFHDAtom.DEFAULT_BASE_IS_MOOF, track+1)),
+					atom("tfdt", ints(0x01000000), longs((long) first * SAMPLE_DURATION)),
+					atom("trun", ints(TRUNAtom.DATA_OFFSET | TRUNAtom.SAMPLE_SIZE | TRUNAtom.SAMPLE_FLAGS, end - first, dataOffsets[track]),
+							entries.array()));
+		}
+		return atom("moof", children);
+	}
+
+	/**
+	 * @param track	The index of the track
+	 * @param sample	The index of the sample
+	 * @return	The data of the sample
+	 */
+	private byte[] sample(int track, int sample) {
+		final byte[] result = new byte[sampleSize(track, sample)];
+		Arrays.fill(result, sampleByte(track, sample));
+		return result;
+	}
+
+	/**
+	 * @param name	The name of the {@link Atom}
+	 * @param length	The length of the {@link Atom}
+	 * @param large	Whether to use a 64 bit size
+	 * @return	The header
+	 */
+	private static byte[] header(String name, long length, boolean large) {
+		final ByteBuffer result = ByteBuffer.allocate(large ? 16 : 8);
+		result.putInt(large ? 1 : (int) length).put(name.getBytes(StandardCharsets.ISO_8859_1));
+		if (large)
+			result.putLong(length);
+		return result.array();
+	}
+
+	/**
+	 * @param name	The name of the {@link Atom}
+	 * @param parts	The payload
+	 * @return	The {@link Atom}
+	 */
+	static byte[] atom(String name, byte[]... parts) {
+		final byte[] payload = concat(parts);
+		final ByteBuffer result = ByteBuffer.allocate(8 + payload.length);
+		return result.put(header(name, 8 + payload.length, false)).put(payload).array();
+	}
+
+	/**
+	 * @param parts	The parts
+	 * @return	The parts after each other
+	 */
+	private static byte[] concat(byte[]... parts) {
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		for(byte[] part : parts)
+			result.write(part, 0, part.length);
+		return result.toByteArray();
+	}
+
+	/**
+	 * @param values	The values
+	 * @return	The values as big-endian 32 bit integers
+	 */
+	private static byte[] ints(int... values) {
+		final ByteBuffer result = ByteBuffer.allocate(values.length * 4);
+		for(int value : values)
+			result.putInt(value);
+		return result.array();
+	}
+
+	/**
+	 * @param values	The values
+	 * @return	The values as big-endian 64 bit integers
+	 */
+	private static byte[] longs(long... values) {
+		final ByteBuffer result = ByteBuffer.allocate(values.length * 8);
+		for(long value : values)
+			result.putLong(value);
+		return result.array();
+	}
+
+}
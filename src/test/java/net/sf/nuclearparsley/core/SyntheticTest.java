@@ -0,0 +1,131 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class SyntheticTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Find the first child of an atom with a name
+	 * @param parent	the atom
+	 * @param name	the name of the child
+	 * @return	the child
+	 */
+	private static ParentAtom child(ParentAtom parent, String name) {
+		for(Atom child : parent)
+			if (child.name.equals(name))
+				return (ParentAtom) child;
+		fail("No "+name+" in "+parent.name);
+		return null;
+	}
+
+	/**
+	 * Confirms that a generated file with metadata, a nested tree and several tracks parses,
+	 * and that its samples have the sizes and contents the generator reports
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void samplesTest() throws IOException, AtomException {
+		final SyntheticFile synthetic = new SyntheticFile().tracks(2).samples(1000).samplesPerChunk(7)
+				.metadata(20).depth(10).fanOut(5).moovFirst(false);
+		final RootAtom root = new RootAtom(synthetic.write(folder.newFile()));
+		final ParentAtom moov = child(root, "moov");
+		assertEquals(20, child(child(child(moov, "udta"), "meta"), "ilst").size());
+
+		final ParentAtom trak = child(moov, "trak");
+		final SampleTable samples = SampleTable.fromTrack(trak);
+		assertEquals(1000, samples.getSampleCount());
+		assertEquals(1000 * SyntheticFile.SAMPLE_DURATION, samples.getDuration());
+		final List<SampleTable> tracks = Collections.singletonList(samples);
+		try (SampleReader reader = new SampleReader(root.source, tracks, 0x1000, null)) {
+			for(int i=0;reader.next();i++) {
+				final ByteBuffer data = reader.getData();
+				assertEquals(synthetic.sampleSize(0, i), data.remaining());
+				assertEquals(SyntheticFile.sampleByte(0, i), data.get(data.position()));
+				assertEquals(synthetic.isSync(i), samples.isSync(i));
+			}
+		}
+		root.close();
+	}
+
+	/**
+	 * Confirms that the fragments of a generated fragmented file are found by time,
+	 * that only the <code>moof</code> atoms of those fragments are read,
+	 * and that their data starts with the first sample of the fragment
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void fragmentTest() throws IOException, AtomException {
+		final SyntheticFile synthetic = new SyntheticFile().tracks(2).samples(1000).fragments(40).randomAccess(true);
+		final ParseMetrics metrics = new ParseMetrics();
+		final RootAtom root = new RootAtom(new AtomSource(synthetic.write(folder.newFile()), ParseMode.LAZY, metrics));
+		final FragmentIndex index = new FragmentIndex(root);
+		assertEquals(40, index.getMoofCount());
+		assertEquals(0, metrics.getAtomsCreated("moof"));
+		final List<Fragment> fragments = index.find(2, 10000, 20000);
+		assertEquals(10, fragments.size());
+		/* The tfra leads to the first fragment, and the search stops at the one after the last */
+		assertEquals(11, metrics.getAtomsCreated("moof"));
+		for(Fragment fragment : fragments) {
+			assertEquals(25, fragment.sampleCount);
+			assertTrue(fragment.sync);
+			final ByteBuffer first = ByteBuffer.allocate(1);
+			root.source.readFully(first, fragment.dataStart);
+			assertEquals(SyntheticFile.sampleByte(1, (int) (fragment.decodeTime / SyntheticFile.SAMPLE_DURATION)), first.get(0));
+		}
+		root.close();
+	}
+
+	/**
+	 * Confirms that a generated file with a 64 bit <code>mdat</code> beyond 4 GB parses,
+	 * and that its chunk offsets point into that <code>mdat</code>
+	 * @throws IOException reading the file failed (test fails)
+	 * @throws AtomException the atom is invalid (test fails)
+	 */
+	@Test
+	public void largeTest() throws IOException, AtomException {
+		final long padding = 0x140000000L;
+		final File file = new SyntheticFile().largeSizes(true).padding(padding).write(folder.newFile());
+		final RootAtom root = new RootAtom(file);
+		final Atom mdat = root.get(2);
+		assertEquals("mdat", mdat.name);
+		assertEquals(16, mdat.offset);
+		assertTrue(mdat.length > padding);
+		assertEquals(file.length(), mdat.start + mdat.length);
+		final SampleTable samples = SampleTable.fromTrack(child(child(root, "moov"), "trak"));
+		assertEquals(mdat.start + mdat.offset, samples.getOffset(0));
+		root.close();
+	}
+
+}
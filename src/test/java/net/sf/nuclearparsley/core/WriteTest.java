@@ -0,0 +1,257 @@
+/*
+ * Nuclear Parsley - GPL 3.0 licensed
+ * Copyright (C) 2015  Jørn Åne de Jong
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.sf.nuclearparsley.core;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class WriteTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Payload of the "mdat" atom, which must never move */
+	private static final byte[] MEDIA = "0123456789abcdef".getBytes();
+
+	/**
+	 * Build an atom
+	 * @param name	the name of the atom
+	 * @param parts	the payload
+	 * @return	the atom
+	 */
+	static byte[] atom(String name, byte[]... parts) {
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		for(byte[] part : parts)
+			payload.write(part, 0, part.length);
+		return ByteBuffer.allocate(8+payload.size())
+				.putInt(8+payload.size())
+				.put(name.getBytes(StandardCharsets.ISO_8859_1))
+				.put(payload.toByteArray())
+				.array();
+	}
+
+	/**
+	 * Build a "udta" atom with a title
+	 * @param title	the title
+	 * @param padding	the amount of padding in "meta", 0 for none
+	 * @return	the atom
+	 */
+	static byte[] udta(String title, int padding) {
+		final byte[] ilst = ilst(title);
+		final byte[] hdlr = atom("hdlr", new byte[]{0,0,0,0}, "mdirappl".getBytes());
+		final byte[] free = padding == 0 ? new byte[0] : atom("free", new byte[padding-8]);
+		return atom("udta", atom("meta", new byte[]{0,0,0,0}, hdlr, ilst, free));
+	}
+
+	/**
+	 * Build an "ilst" atom with a title
+	 * @param title	the title
+	 * @return	the atom
+	 */
+	static byte[] ilst(String title) {
+		return atom("ilst", atom("\u00A9nam", atom("data", new byte[]{0,0,0,1,0,0,0,0}, title.getBytes())));
+	}
+
+	/**
+	 * Write a file
+	 * @param parts	the atoms in the file
+	 * @return	the file
+	 * @throws IOException	writing the file failed (test fails)
+	 */
+	private File write(byte[]... parts) throws IOException {
+		final File result = folder.newFile();
+		final FileOutputStream writer = new FileOutputStream(result);
+		for(byte[] part : parts)
+			writer.write(part);
+		writer.close();
+		return result;
+	}
+
+	/**
+	 * Replace the "ilst" atom in a tree with a new title
+	 * @param root	the tree
+	 * @param moov	the index of "moov" in the file
+	 * @param title	the new title
+	 */
+	private static void setTitle(RootAtom root, int moov, String title) {
+		final byte[] data = ByteBuffer.allocate(8+title.length()).putInt(1).putInt(0).put(title.getBytes()).array();
+		meta(root, moov).set(1, new ParentAtom("ilst", Collections.<Atom>singletonList(
+				new ParentAtom("\u00A9nam", Collections.<Atom>singletonList(new MemoryAtom("data", data))))));
+	}
+
+	/**
+	 * Find the "meta" atom in a tree
+	 * @param root	the tree
+	 * @param moov	the index of "moov" in the file
+	 * @return	the atom
+	 */
+	private static ParentAtom meta(RootAtom root, int moov) {
+		return (ParentAtom) ((ParentAtom) ((ParentAtom) root.get(moov)).get(0)).get(0);
+	}
+
+	/**
+	 * Read the title from a file
+	 * @param root	the tree
+	 * @param moov	the index of "moov" in the file
+	 * @return	the title
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	private static String title(RootAtom root, int moov) throws IOException {
+		return new String(((ParentAtom) ((ParentAtom) meta(root, moov).get(1)).get(0)).get(0).getPayload());
+	}
+
+	/**
+	 * Confirms that a title which fits in the padding next to it is written in place
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	@Test
+	public void paddingTest() throws IOException {
+		final byte[] mdat = atom("mdat", MEDIA);
+		final File file = write(atom("ftyp", "isom".getBytes()), atom("moov", udta("short", 64)), mdat);
+		final long length = file.length();
+		final RootAtom root = Atom.fromFile(file, ParseMode.LAZY);
+		setTitle(root, 1, "a somewhat longer title");
+		final RootAtom saved = root.saveInPlace(0);
+		assertNotNull(saved);
+		assertEquals(length, file.length());
+		assertEquals("a somewhat longer title", title(saved, 1));
+		assertEquals(FourCC.FREE, meta(saved, 1).get(2).type);
+		assertEquals(mdat.length, saved.get(2).length);
+		assertEquals(length-mdat.length, saved.get(2).start);
+	}
+
+	/**
+	 * Confirms that the parents grow into padding after them, and that the file does not change
+	 * when there is not enough padding
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	@Test
+	public void growTest() throws IOException {
+		final byte[] mdat = atom("mdat", MEDIA);
+		final byte[] moov = atom("moov", udta("short", 0));
+		final File file = write(atom("ftyp", "isom".getBytes()), moov, atom("free", new byte[56]), mdat);
+		final long length = file.length();
+		RootAtom root = Atom.fromFile(file);
+		final byte[] original = Files.readAllBytes(file.toPath());
+		setTitle(root, 1, "a title that is a lot longer than the 64 bytes of padding in the free atom after the moov atom");
+		assertNull(root.saveInPlace(0));
+		assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+
+		setTitle(root, 1, "a somewhat longer title");
+		root = root.saveInPlace(0);
+		assertNotNull(root);
+		assertEquals(length, file.length());
+		assertEquals("a somewhat longer title", title(root, 1));
+		assertEquals(moov.length+18, root.get(1).length);
+		assertEquals(FourCC.FREE, root.get(2).type);
+		assertEquals(64-18, root.get(2).length);
+		assertEquals(length-mdat.length, root.get(3).start);
+	}
+
+	/**
+	 * Confirms that padding is reserved when the file grows, so the next change is written in place
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	@Test
+	public void reserveTest() throws IOException {
+		final File file = write(atom("ftyp", "isom".getBytes()), atom("mdat", MEDIA), atom("moov", udta("short", 0)));
+		final long length = file.length();
+		RootAtom root = Atom.fromFile(file, ParseMode.LAZY);
+		setTitle(root, 2, "a somewhat longer title");
+		root = root.saveInPlace(256);
+		assertEquals(length+18+256, file.length());
+		assertEquals(FourCC.FREE, meta(root, 2).get(2).type);
+		assertEquals(256, meta(root, 2).get(2).length);
+
+		setTitle(root, 2, "an even longer title, which still fits in the reserved padding");
+		root = root.saveInPlace(256);
+		assertEquals(length+18+256, file.length());
+		assertEquals("an even longer title, which still fits in the reserved padding", title(root, 2));
+		assertArrayEquals(MEDIA, root.get(1).getPayload());
+		assertEquals(file.length(), root.length);
+	}
+
+	/**
+	 * Confirms that a file is rewritten when the changes do not fit in place,
+	 * and that the chunk offsets still point to the same media data
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	@Test
+	public void rewriteTest() throws IOException {
+		final byte[] ftyp = atom("ftyp", "isom".getBytes());
+		final byte[] trak = atom("trak", atom("mdia", atom("minf", atom("stbl", atom("stco",
+				new byte[]{0,0,0,0, 0,0,0,2}, new byte[8])))));
+		final int mdat = ftyp.length + 8 + trak.length + udta("short", 0).length;
+		ByteBuffer.wrap(trak, 8*5+8, 8).putInt(mdat+8).putInt(mdat+8+10);
+		final File file = write(ftyp, atom("moov", udta("short", 0), trak), atom("mdat", MEDIA));
+		RootAtom root = Atom.fromFile(file);
+		setTitle(root, 1, "a title which does not fit in place, so the moov atom has to be written again");
+		root = root.save(512);
+		assertEquals("a title which does not fit in place, so the moov atom has to be written again", title(root, 1));
+		assertEquals(FourCC.FREE, root.get(2).type);
+		assertEquals(512, root.get(2).length);
+		assertArrayEquals(MEDIA, root.get(3).getPayload());
+
+		final Atom stco = ((ParentAtom) ((ParentAtom) ((ParentAtom) ((ParentAtom) ((ParentAtom) root.get(1))
+				.get(1)).get(0)).get(0)).get(0)).get(0);
+		final ByteBuffer offsets = ByteBuffer.wrap(stco.getPayload());
+		assertEquals(2, offsets.getInt(4));
+		final long moved = root.get(3).start - mdat;
+		assertEquals(mdat+8+moved, offsets.getInt(8));
+		assertEquals(mdat+8+10+moved, offsets.getInt(12));
+	}
+
+	/**
+	 * Confirms that the moov atom is moved before the media data
+	 * @throws IOException	reading the file failed (test fails)
+	 */
+	@Test
+	public void fastStartTest() throws IOException {
+		final byte[] ftyp = atom("ftyp", "isom".getBytes());
+		final int mdat = ftyp.length;
+		final byte[] stco = atom("stco", new byte[]{0,0,0,0}, ByteBuffer.allocate(12).putInt(2).putInt(mdat+8).putInt(mdat+8+10).array());
+		final byte[] moov = atom("moov", atom("trak", atom("mdia", atom("minf", atom("stbl", stco)))));
+		final File file = write(ftyp, atom("mdat", MEDIA), moov);
+		final File destination = folder.newFile();
+		final RootAtom original = Atom.fromFile(file, ParseMode.LAZY);
+		assertFalse(AtomWriter.isFastStart(original));
+		assertEquals(file.length(), AtomWriter.fastStart(original, destination, 0));
+
+		final RootAtom root = Atom.fromFile(destination);
+		assertTrue(AtomWriter.isFastStart(root));
+		assertEquals(FourCC.MOOV, root.get(1).type);
+		assertArrayEquals(MEDIA, root.get(2).getPayload());
+		final ByteBuffer offsets = ByteBuffer.wrap(((ParentAtom) ((ParentAtom) ((ParentAtom) ((ParentAtom) ((ParentAtom)
+				root.get(1)).get(0)).get(0)).get(0)).get(0)).get(0).getPayload());
+		assertEquals(mdat+8+moov.length, offsets.getInt(8));
+		assertEquals(mdat+8+10+moov.length, offsets.getInt(12));
+	}
+
+}